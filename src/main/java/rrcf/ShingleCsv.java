@@ -1,42 +1,97 @@
 package rrcf;
 
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Formatter;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import rrcf.general.MultiShingledForest;
 import rrcf.general.ShingledForest;
 import rrcf.memory.SmallShingledForest;
 
 /**
  * Reads numbers from stdin
  * Outputs (index, number, score) for each data point passed in
- * 
- * Args: shingleSize numTrees treeSize
+ *
+ * Args: useStreaming shingleSize numTrees treeSize randomSeed [--columns c1,c2,...|all] [--workers n]
+ *  [--binary [--dimensions d]]
+ * With --columns stdin is a CSV file, each selected column (0-based) gets its own forest seeded with
+ *  randomSeed + column, and rows are output as (index, value, score, value, score, ...)
+ * Columns are scored in parallel by --workers threads (default: available processors)
+ * With --binary (streaming only) stdin is raw little-endian doubles and stdout gets one little-endian double
+ *  score per record, without any text conversion. Records are single values, or with --dimensions frames of
+ *  d doubles scored together by a MultiShingledForest
  */
 public class ShingleCsv {
-    public static void main(String[] args) {
+    // Rows read and scored at a time in streaming multi-column mode
+    private static final int BLOCK_ROWS = 4096;
+    // Bytes read from and written to the channels at a time in binary mode
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    public static void main(String[] args) throws IOException {
         if (args.length < 5) {
-            System.out.println("Args: useStreaming shingleSize numTrees treeSize randomSeed");
+            System.out.println("Args: useStreaming shingleSize numTrees treeSize randomSeed"
+                    + " [--columns c1,c2,...|all] [--workers n] [--binary [--dimensions d]]");
             System.out.println("Provided: " + Arrays.toString(args));
             System.exit(1);
         }
-        boolean useStreaming = Boolean.parseBoolean(args[0]);
-        int shingleSize = Integer.parseInt(args[1]);
-        int numTrees = Integer.parseInt(args[2]);
-        int treeSize = Integer.parseInt(args[3]);
-        Random random = new Random(Integer.parseInt(args[4]));
+        ShingleCsv csv = new ShingleCsv(args);
+        if (csv.binary) {
+            // The file descriptors' channels skip System.in/out's stream buffering
+            csv.scoreBinary(new FileInputStream(FileDescriptor.in).getChannel(),
+                    new FileOutputStream(FileDescriptor.out).getChannel());
+            return;
+        }
+        run(args, System.in, System.out);
+        System.out.flush();
+    }
+
+    public static void run(String[] args, InputStream in, PrintStream out) throws IOException {
+        ShingleCsv csv = new ShingleCsv(args);
+        if (csv.binary) {
+            out.flush();
+            csv.scoreBinary(Channels.newChannel(in), Channels.newChannel(out));
+            out.flush();
+            return;
+        }
+        if (csv.columns != null) {
+            csv.scoreColumns(csv.columns, in, out);
+            return;
+        }
+        int shingleSize = csv.shingleSize;
+        Random random = new Random(csv.seed);
 
-        System.out.println("\"x\",\"y\",\"value\"");
-        Scanner input = new Scanner(System.in);
-        if (useStreaming) {
+        out.println("\"x\",\"y\",\"value\"");
+        Scanner input = new Scanner(in);
+        if (csv.useStreaming) {
             // Streaming calculations
-            ShingledForest forest = new ShingledForest(random, shingleSize, numTrees, treeSize);
+            ShingledForest forest = new ShingledForest(random, shingleSize, csv.numTrees, csv.treeSize);
             int i = 0;
             while (input.hasNextLine()) {
                 double val = Double.parseDouble(input.nextLine());
                 double score = forest.addPoint(val);
-                System.out.printf("%d,%f,%f\n", i, val, score);
+                out.printf("%d,%f,%f\n", i, val, score);
                 i++;
             }
         } else {
@@ -50,10 +105,278 @@ public class ShingleCsv {
             for (int i = 0; i < arr.size(); i++) {
                 a[i] = arr.get(i);
             }
-            ShingledForest forest = new ShingledForest(random, shingleSize, numTrees, treeSize, a);
+            ShingledForest forest = new ShingledForest(random, shingleSize, csv.numTrees, csv.treeSize, a);
             for (int i = 0; i < a.length - 1 - shingleSize; i++) {
-                System.out.printf("%d,%f,%f\n", i, a[i + shingleSize], forest.getCollusiveDisplacement(i));
+                out.printf("%d,%f,%f\n", i, a[i + shingleSize], forest.getCollusiveDisplacement(i));
+            }
+        }
+    }
+
+    private final boolean useStreaming;
+    private final int shingleSize;
+    private final int numTrees;
+    private final int treeSize;
+    private final int seed;
+    private String columns;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private boolean binary;
+    private int dimensions;
+
+    private ShingleCsv(String[] args) {
+        useStreaming = Boolean.parseBoolean(args[0]);
+        shingleSize = Integer.parseInt(args[1]);
+        numTrees = Integer.parseInt(args[2]);
+        treeSize = Integer.parseInt(args[3]);
+        seed = Integer.parseInt(args[4]);
+        for (int a = 5; a < args.length; a++) {
+            switch (args[a]) {
+                case "--columns":
+                    columns = args[++a];
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(args[++a]);
+                    break;
+                case "--binary":
+                    binary = true;
+                    break;
+                case "--dimensions":
+                    dimensions = Integer.parseInt(args[++a]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[a]);
+            }
+        }
+        if (workers < 1 || dimensions < 0) {
+            throw new IllegalArgumentException("Expected positive --workers and --dimensions");
+        }
+        if (binary && (!useStreaming || columns != null)) {
+            throw new IllegalArgumentException("--binary only supports streaming a single series");
+        }
+    }
+
+    /**
+     * Scores records of little-endian doubles read in chunks, writing each chunk's scores before reading on
+     *  so that scores keep flowing when input trickles in
+     */
+    private void scoreBinary(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        int width = Math.max(1, dimensions);
+        ShingledForest scalar = null;
+        MultiShingledForest multi = null;
+        if (dimensions == 0) {
+            scalar = new ShingledForest(new Random(seed), shingleSize, numTrees, treeSize);
+        } else {
+            multi = new MultiShingledForest(new Random(seed), shingleSize, dimensions, numTrees, treeSize);
+        }
+        // Room for at least one whole record
+        int capacity = Math.max(CHUNK_BYTES, width * Double.BYTES);
+        ByteBuffer input = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer output = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        double[] record = new double[width];
+        while (in.read(input) >= 0) {
+            input.flip();
+            while (input.remaining() >= width * Double.BYTES) {
+                for (int k = 0; k < width; k++) {
+                    record[k] = input.getDouble();
+                }
+                if (!output.hasRemaining()) {
+                    write(output, out);
+                }
+                output.putDouble(scalar != null ? scalar.addPoint(record[0]) : multi.addPoint(record));
+            }
+            // Keeps a partial record for the next read
+            input.compact();
+            write(output, out);
+        }
+        if (input.position() > 0) {
+            throw new IOException("Input ends with a partial record of " + input.position() + " bytes");
+        }
+    }
+
+    private static void write(ByteBuffer output, WritableByteChannel out) throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            out.write(output);
+        }
+        output.clear();
+    }
+
+    /**
+     * Reads the CSV once and scores the selected columns, a non-numeric first row is taken as a header
+     */
+    private void scoreColumns(String selection, InputStream in, PrintStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        String line = reader.readLine();
+        if (line == null) {
+            return;
+        }
+        String[] first = line.split(",", -1);
+        boolean header = !isNumeric(first);
+        int[] columns = parseColumns(selection, first.length);
+        StringBuilder head = new StringBuilder("\"x\"");
+        for (int c : columns) {
+            String name = header ? first[c].trim().replace("\"", "") : Integer.toString(c);
+            head.append(",\"value_").append(name).append("\",\"score_").append(name).append('"');
+        }
+        out.println(head);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, columns.length), (r) -> {
+            Thread t = new Thread(r, "shingle-csv");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (useStreaming) {
+                streamColumns(columns, header ? null : line, reader, out, executor);
+            } else {
+                batchColumns(columns, header ? null : line, reader, out, executor);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scores blocks of rows, each worker adds a block's values to its share of the column forests
+     */
+    private void streamColumns(int[] columns, String firstRow, BufferedReader reader, PrintStream out,
+            ExecutorService executor) throws IOException {
+        ShingledForest[] forests = new ShingledForest[columns.length];
+        for (int j = 0; j < columns.length; j++) {
+            forests[j] = new ShingledForest(new Random(seed + columns[j]), shingleSize, numTrees, treeSize);
+        }
+        double[][] values = new double[columns.length][BLOCK_ROWS];
+        double[][] scores = new double[columns.length][BLOCK_ROWS];
+        StringBuilder row = new StringBuilder();
+        // Same %f formatting as the single column output
+        Formatter formatter = new Formatter(row);
+        long index = 0;
+        String line = firstRow != null ? firstRow : reader.readLine();
+        while (line != null) {
+            int n = 0;
+            for (; n < BLOCK_ROWS && line != null; n++) {
+                parseRow(line, columns, values, n);
+                line = reader.readLine();
+            }
+            int rows = n;
+            List<Callable<Void>> tasks = new ArrayList<>();
+            int share = Math.min(workers, columns.length);
+            for (int w = 0; w < share; w++) {
+                int worker = w;
+                tasks.add(() -> {
+                    for (int j = worker; j < columns.length; j += share) {
+                        for (int i = 0; i < rows; i++) {
+                            scores[j][i] = forests[j].addPoint(values[j][i]);
+                        }
+                    }
+                    return null;
+                });
+            }
+            invokeAll(executor, tasks);
+            for (int i = 0; i < rows; i++) {
+                row.setLength(0);
+                row.append(index++);
+                for (int j = 0; j < columns.length; j++) {
+                    formatter.format(",%f,%f", values[j][i], scores[j][i]);
+                }
+                out.println(row);
+            }
+        }
+    }
+
+    /**
+     * Builds one batch forest per column in parallel, then outputs them row by row as the single column mode does
+     */
+    private void batchColumns(int[] columns, String firstRow, BufferedReader reader, PrintStream out,
+            ExecutorService executor) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        double[][] holder = new double[columns.length][1];
+        String line = firstRow != null ? firstRow : reader.readLine();
+        for (; line != null; line = reader.readLine()) {
+            parseRow(line, columns, holder, 0);
+            double[] r = new double[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                r[j] = holder[j][0];
+            }
+            rows.add(r);
+        }
+        ShingledForest[] forests = new ShingledForest[columns.length];
+        double[][] series = new double[columns.length][rows.size()];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int j = 0; j < columns.length; j++) {
+            int column = j;
+            for (int i = 0; i < rows.size(); i++) {
+                series[j][i] = rows.get(i)[j];
+            }
+            tasks.add(() -> {
+                forests[column] = new ShingledForest(new Random(seed + columns[column]), shingleSize, numTrees,
+                        treeSize, series[column]);
+                return null;
+            });
+        }
+        invokeAll(executor, tasks);
+        StringBuilder row = new StringBuilder();
+        // Same %f formatting as the single column output
+        Formatter formatter = new Formatter(row);
+        for (int i = 0; i < rows.size() - 1 - shingleSize; i++) {
+            row.setLength(0);
+            row.append(i);
+            for (int j = 0; j < columns.length; j++) {
+                formatter.format(",%f,%f", series[j][i + shingleSize], forests[j].getCollusiveDisplacement(i));
+            }
+            out.println(row);
+        }
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void parseRow(String line, int[] columns, double[][] values, int i) {
+        String[] fields = line.split(",", -1);
+        for (int j = 0; j < columns.length; j++) {
+            if (columns[j] >= fields.length) {
+                throw new IllegalArgumentException("Missing column " + columns[j] + ": " + line);
+            }
+            values[j][i] = Double.parseDouble(fields[columns[j]].trim());
+        }
+    }
+
+    private static boolean isNumeric(String[] fields) {
+        try {
+            for (String f : fields) {
+                Double.parseDouble(f.trim());
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int[] parseColumns(String selection, int count) {
+        if (selection.equals("all")) {
+            int[] columns = new int[count];
+            for (int c = 0; c < count; c++) {
+                columns[c] = c;
+            }
+            return columns;
+        }
+        String[] parts = selection.split(",");
+        int[] columns = new int[parts.length];
+        for (int j = 0; j < parts.length; j++) {
+            columns[j] = Integer.parseInt(parts[j].trim());
+            if (columns[j] < 0 || columns[j] >= count) {
+                throw new IllegalArgumentException("No column " + columns[j] + " in " + count + " columns");
             }
         }
+        return columns;
     }
-}
\ No newline at end of file
+}
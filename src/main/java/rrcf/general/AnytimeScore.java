@@ -0,0 +1,24 @@
+package rrcf.general;
+
+/**
+ * Collusive displacement estimated from a random subset of trees, see Forest.getCollusiveDisplacement(key, tolerance)
+ */
+public class AnytimeScore {
+    // Mean collusive displacement over the trees used
+    public final double score;
+    // Half width of the confidence interval around score, 0 when every tree was used
+    public final double halfWidth;
+    // Number of trees evaluated
+    public final int trees;
+
+    public AnytimeScore(double score, double halfWidth, int trees) {
+        this.score = score;
+        this.halfWidth = halfWidth;
+        this.trees = trees;
+    }
+
+    @Override
+    public String toString() {
+        return score + " ± " + halfWidth + " (" + trees + " trees)";
+    }
+}
@@ -0,0 +1,288 @@
+package rrcf.general;
+
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Forest of feature-bagged trees: each tree is assigned a random subset of the dimensions and only stores
+ *  points, boxes and cuts in that subspace, so per-tree memory and box work scale with the subset size
+ * Scores average the trees as usual, attribution is mapped back to the full dimensions
+ * The forest also keeps the window's whole points once, so trees added or shed (addTrees, setLatencyBudget)
+ *  can catch up with the window in their own subspace
+ * Neighbour and density queries scan the window's whole points, imputation follows each tree in its subspace
+ *  and votes for whole points of the window
+ */
+public class BaggedForest extends Forest implements Serializable {
+    private int dimensions;
+    // Dimensions kept by each tree, ascending
+    private int[][] features;
+    // Whole points of the window, point k at k % window.length, at least treeSize long
+    private double[][] window;
+
+    public BaggedForest(Random random, int numTrees, int size, int dimensions, int featuresPerTree) {
+        super(random, numTrees, size);
+        assert featuresPerTree > 0 && featuresPerTree <= dimensions;
+        this.dimensions = dimensions;
+        features = new int[numTrees][];
+        int[] all = new int[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            all[d] = d;
+        }
+        for (int i = 0; i < numTrees; i++) {
+            features[i] = drawFeatures(random, all, featuresPerTree);
+        }
+        window = new double[size][];
+    }
+
+    /**
+     * Picks a subset of the dimensions with a partial Fisher-Yates shuffle of all
+     */
+    private static int[] drawFeatures(Random random, int[] all, int featuresPerTree) {
+        for (int j = 0; j < featuresPerTree; j++) {
+            int k = j + random.nextInt(all.length - j);
+            int swap = all[j];
+            all[j] = all[k];
+            all[k] = swap;
+        }
+        int[] subset = Arrays.copyOf(all, featuresPerTree);
+        Arrays.sort(subset);
+        return subset;
+    }
+
+    public BaggedForest(int numTrees, int size, int dimensions, int featuresPerTree) {
+        this(new Random(), numTrees, size, dimensions, featuresPerTree);
+    }
+
+    /**
+     * Dimensions kept by tree i, ascending
+     */
+    public int[] getFeatures(int i) {
+        return features[i].clone();
+    }
+
+    @Override
+    public double addPoint(double[] point) {
+        assert point.length == dimensions;
+        int key = getCurrentIndex();
+        if (window.length < getTreeSize()) {
+            // The tree size grew, keeps the points still in the window at their new positions
+            double[][] grown = new double[getTreeSize()][];
+            for (int k = Math.max(0, key - window.length); k < key; k++) {
+                grown[k % grown.length] = window[k % window.length];
+            }
+            window = grown;
+        }
+        window[key % window.length] = point;
+        return super.addPoint(point);
+    }
+
+    /**
+     * Projections are rejected with IllegalArgumentException: features are drawn over the input dimensions,
+     *  and picking a subset of them per tree already keeps the trees small
+     */
+    @Override
+    public void setProjection(RandomProjection projection) {
+        if (projection != null) {
+            throw new IllegalArgumentException("A BaggedForest can't project its points");
+        }
+    }
+
+    private double[] project(int i, double[] point) {
+        int[] keep = features[i];
+        double[] projected = new double[keep.length];
+        for (int j = 0; j < keep.length; j++) {
+            projected[j] = point[keep[j]];
+        }
+        return projected;
+    }
+
+    @Override
+    protected double updateTree(int i, double[] point, int slot) {
+        return super.updateTree(i, project(i, point), -1);
+    }
+
+    @Override
+    protected void insertWindowPoint(int i, Tree t, int key) {
+        t.insertPoint(project(i, window[key % window.length]), key);
+    }
+
+    /**
+     * Adds trees with new random subsets of the dimensions, they catch up with the window on this thread
+     *  a few points at a time as points are added, the executor isn't used
+     */
+    @Override
+    public void addTrees(int n, Executor executor) {
+        assert n > 0;
+        Random random = trees[0].getRandom();
+        int[] all = new int[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            all[d] = d;
+        }
+        int[][] grown = Arrays.copyOf(features, trees.length + n);
+        for (int j = trees.length; j < grown.length; j++) {
+            grown[j] = drawFeatures(random, all, features[0].length);
+        }
+        features = grown;
+        addLaggingTrees(n);
+    }
+
+    @Override
+    public void removeTrees(int n) {
+        super.removeTrees(n);
+        features = Arrays.copyOf(features, trees.length);
+    }
+
+    @Override
+    public double[] getAttribution(Object key) {
+        int n = getActiveTrees();
+        double[] attribution = new double[dimensions];
+        for (int i = 0; i < n; i++) {
+            double[] tree = readTree(i, trees[i], (t) -> t.getAttribution(key));
+            for (int j = 0; j < tree.length; j++) {
+                attribution[features[i][j]] += tree[j] / n;
+            }
+        }
+        return attribution;
+    }
+
+    /**
+     * The k points of the window closest to a point, nearest first, found by scanning the window's whole points
+     * Duplicates count once per copy (Neighbor.num) as in Tree.nearestNeighbors
+     */
+    @Override
+    public List<Neighbor> nearestNeighbors(double[] point, int k) {
+        return nearestNeighbors(point, k, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Approximate k nearest points: only the newest maxNodes points of the window are scanned
+     */
+    @Override
+    public List<Neighbor> nearestNeighbors(double[] point, int k, int maxNodes) {
+        assert k > 0 && maxNodes > 0 && point.length == dimensions;
+        int end = getCurrentIndex();
+        Map<DoubleBuffer, Neighbor> distinct = new HashMap<>();
+        for (int key = end - Math.min(trees[0].size(), maxNodes); key < end; key++) {
+            double[] p = window[key % window.length];
+            Neighbor n = distinct.get(DoubleBuffer.wrap(p));
+            if (n != null) {
+                n.num++;
+            } else {
+                distinct.put(DoubleBuffer.wrap(p), new Neighbor(p, distance(point, p), 1));
+            }
+        }
+        List<Neighbor> neighbors = new ArrayList<>(distinct.values());
+        neighbors.sort((a, b) -> Double.compare(a.distance, b.distance));
+        // Keeps the nearest points until they hold k
+        int count = 0;
+        int kept = 0;
+        while (kept < neighbors.size() && count < k) {
+            count += neighbors.get(kept++).num;
+        }
+        return new ArrayList<>(neighbors.subList(0, kept));
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double distance = 0;
+        for (int d = 0; d < a.length; d++) {
+            distance += (a[d] - b[d]) * (a[d] - b[d]);
+        }
+        return Math.sqrt(distance);
+    }
+
+    @Override
+    public double density(double[] point, int k) {
+        return density(nearestNeighbors(point, k), trees[0].size(), dimensions);
+    }
+
+    /**
+     * Completes a point with missing dimensions with the most likely values given the window
+     * Each tree spreads the point's projection over its leaves with the missing dimensions free
+     *  (see Tree.mapCandidateLeaves) and shares each leaf's probability among the window points projected
+     *  into it, the missing values are taken from the window point with the highest total probability
+     * @param missing Indices of the missing dimensions, their values in point are ignored
+     * @param maxBranches Per tree budget of cuts on missing dimensions where both sides are followed
+     * @return Copy of point with the missing dimensions filled in
+     */
+    @Override
+    public double[] impute(double[] point, int[] missing, int maxBranches) {
+        assert point.length == dimensions;
+        double[] imputed = point.clone();
+        if (missing.length == 0) {
+            return imputed;
+        }
+        boolean[] isMissing = new boolean[dimensions];
+        for (int d : missing) {
+            isMissing[d] = true;
+        }
+        Map<DoubleBuffer, double[]> votes = new HashMap<>();
+        double best = 0;
+        double[] bestPoint = null;
+        Tree[] trees = this.trees;
+        int n = Math.min(getActiveTrees(), trees.length);
+        int end = getCurrentIndex();
+        int start = end - trees[0].size();
+        for (int i = 0; i < n; i++) {
+            int[] keep = features[i];
+            boolean[] treeMissing = new boolean[keep.length];
+            for (int j = 0; j < keep.length; j++) {
+                treeMissing[j] = isMissing[keep[j]];
+            }
+            double[] projected = project(i, point);
+            // Probability of each leaf per point it holds
+            Map<DoubleBuffer, Double> leaves = readTree(i, trees[i], (tree) -> {
+                Map<DoubleBuffer, Double> reached = new HashMap<>();
+                tree.mapCandidateLeaves(projected, treeMissing, maxBranches, (leaf, probability) -> {
+                    reached.merge(DoubleBuffer.wrap(tree.getPoint(leaf)), probability / leaf.num, Double::sum);
+                });
+                return reached;
+            });
+            for (int key = start; key < end; key++) {
+                double[] p = window[key % window.length];
+                Double probability = leaves.get(DoubleBuffer.wrap(project(i, p)));
+                if (probability != null) {
+                    double[] total = votes.computeIfAbsent(DoubleBuffer.wrap(p), (k) -> new double[1]);
+                    total[0] += probability;
+                    if (total[0] > best) {
+                        best = total[0];
+                        bestPoint = p;
+                    }
+                }
+            }
+        }
+        if (bestPoint != null) {
+            for (int d : missing) {
+                imputed[d] = bestPoint[d];
+            }
+        }
+        return imputed;
+    }
+
+    @Override
+    public long estimateMemoryBytes() {
+        long bytes = super.estimateMemoryBytes() + JvmLayout.referenceArray(features.length)
+                + JvmLayout.referenceArray(window.length);
+        for (int[] f : features) {
+            bytes += JvmLayout.intArray(f.length);
+        }
+        // Trees hold projected copies, the whole points are only kept here
+        for (double[] point : window) {
+            if (point != null) {
+                bytes += JvmLayout.doubleArray(point.length);
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    protected long estimateShallowBytes() {
+        return JvmLayout.object(10, 7, 3);
+    }
+}
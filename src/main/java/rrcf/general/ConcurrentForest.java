@@ -0,0 +1,78 @@
+package rrcf.general;
+
+import java.io.Serializable;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Forest that can be queried by many threads while a single thread adds points
+ * Each tree is guarded by a StampedLock: the writer locks one tree at a time while updating it,
+ *  readers use optimistic reads and only fall back to the read lock when they overlapped a write
+ * Only one thread, the writer, may call addPoint or change the trees (addTrees, removeTrees, catchUp,
+ *  setTreeSize, setLatencyBudget) at a time, the tree array and the locks are replaced as it grows
+ */
+public class ConcurrentForest extends Forest implements Serializable {
+    private TreeLocks locks;
+
+    public ConcurrentForest(Random random, int numTrees, int size, double[][] points, PointStore store) {
+        super(random, numTrees, size, points, store);
+        locks = new TreeLocks(numTrees);
+    }
+
+    public ConcurrentForest(Random random, int numTrees, int size, double[][] points) {
+        this(random, numTrees, size, points, null);
+    }
+
+    public ConcurrentForest(Random random, int numTrees, int size) {
+        this(random, numTrees, size, new double[0][0]);
+    }
+
+    public ConcurrentForest(int numTrees, int size) {
+        this(new Random(), numTrees, size);
+    }
+
+    @Override
+    protected double updateTree(int i, double[] point, int slot) {
+        long stamp = locks.lockWrite(i);
+        try {
+            return super.updateTree(i, point, slot);
+        } finally {
+            locks.unlockWrite(i, stamp);
+        }
+    }
+
+    @Override
+    protected void writeTree(int i, Consumer<Tree> writer) {
+        long stamp = locks.lockWrite(i);
+        try {
+            super.writeTree(i, writer);
+        } finally {
+            locks.unlockWrite(i, stamp);
+        }
+    }
+
+    @Override
+    protected int readCollusiveDisplacement(int i, Tree tree, Object key) {
+        return locks.getCollusiveDisplacement(i, tree, key);
+    }
+
+    @Override
+    protected <T> T readTree(int i, Tree tree, Function<Tree, T> reader) {
+        return locks.read(i, tree, reader);
+    }
+
+    @Override
+    protected void reserveTrees(int numTrees) {
+        locks.ensureCapacity(numTrees);
+    }
+
+    /**
+     * Runs a side-effect free reader against tree i, concurrently with the writer
+     * The result is computed from a state of the tree between two of its updates
+     */
+    public <T> T read(int i, Function<Tree, T> reader) {
+        Tree[] trees = this.trees;
+        return locks.read(i, trees[i], reader);
+    }
+}
@@ -0,0 +1,75 @@
+package rrcf.general;
+
+import java.io.Serializable;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * ShingledForest that can be queried by many threads while a single thread adds values
+ * See ConcurrentForest for the locking scheme
+ */
+public class ConcurrentShingledForest extends ShingledForest implements Serializable {
+    private TreeLocks locks;
+
+    public ConcurrentShingledForest(Random random, int shingleSize, int numTrees, int treeSize, double[] data,
+            PointStore store) {
+        super(random, shingleSize, numTrees, treeSize, data, store);
+        locks = new TreeLocks(numTrees);
+    }
+
+    public ConcurrentShingledForest(Random random, int shingleSize, int numTrees, int treeSize, double[] data) {
+        this(random, shingleSize, numTrees, treeSize, data, null);
+    }
+
+    public ConcurrentShingledForest(Random random, int shingleSize, int numTrees, int treeSize) {
+        this(random, shingleSize, numTrees, treeSize, new double[0]);
+    }
+
+    public ConcurrentShingledForest(int shingleSize, int numTrees, int treeSize) {
+        this(new Random(), shingleSize, numTrees, treeSize);
+    }
+
+    @Override
+    protected double updateTree(int i, double[] point, int slot) {
+        long stamp = locks.lockWrite(i);
+        try {
+            return super.updateTree(i, point, slot);
+        } finally {
+            locks.unlockWrite(i, stamp);
+        }
+    }
+
+    @Override
+    protected void writeTree(int i, Consumer<Tree> writer) {
+        long stamp = locks.lockWrite(i);
+        try {
+            super.writeTree(i, writer);
+        } finally {
+            locks.unlockWrite(i, stamp);
+        }
+    }
+
+    @Override
+    protected int readCollusiveDisplacement(int i, Tree tree, Object key) {
+        return locks.getCollusiveDisplacement(i, tree, key);
+    }
+
+    @Override
+    protected <T> T readTree(int i, Tree tree, Function<Tree, T> reader) {
+        return locks.read(i, tree, reader);
+    }
+
+    @Override
+    protected void reserveTrees(int numTrees) {
+        locks.ensureCapacity(numTrees);
+    }
+
+    /**
+     * Runs a side-effect free reader against tree i, concurrently with the writer
+     */
+    public <T> T read(int i, Function<Tree, T> reader) {
+        Tree[] trees = this.trees;
+        return locks.read(i, trees[i], reader);
+    }
+}
@@ -0,0 +1,252 @@
+package rrcf.general;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * ShingledForest whose state survives a crash, kept in a directory of snapshots and a write-ahead log
+ * Every ingested value is appended to the log, which is fsynced every `syncEvery` values as one
+ *  checksummed frame; every `snapshotEvery` values the forest (including its RNG) is written with
+ *  ShingledForestCodec and a new log is started
+ * Reopening loads the last snapshot and replays the log after it, which gives exactly the forest that
+ *  ingested every synced value; values after the last sync may be lost
+ *
+ * Snapshots are decoded onto the heap as a plain ShingledForest, so only such forests are accepted: a
+ *  subclass (e.g. ConcurrentShingledForest), a PointStore or a projection would be lost on recovery
+ *
+ * Files: snapshot-{sequence}.bin holds the forest after `sequence` values, and wal-{sequence}.log
+ *  the values ingested after it, as frames of [int count][count doubles][int crc32], little endian
+ */
+public class DurableShingledForest implements Closeable {
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String LOG = "wal-";
+
+    private final Path dir;
+    private final int syncEvery;
+    private final long snapshotEvery;
+    private final ByteBuffer frame;
+    private final CRC32 crc = new CRC32();
+    private ShingledForest forest;
+    private FileChannel log;
+    // Values ingested since the forest was created
+    private long sequence;
+    private long snapshotSequence;
+    private int pending;
+
+    private DurableShingledForest(Path dir, int syncEvery, long snapshotEvery) {
+        assert syncEvery > 0 && snapshotEvery > 0;
+        this.dir = dir;
+        this.syncEvery = syncEvery;
+        this.snapshotEvery = snapshotEvery;
+        frame = ByteBuffer.allocateDirect(Integer.BYTES * 2 + syncEvery * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        frame.position(Integer.BYTES);
+    }
+
+    /**
+     * Recovers the forest kept in dir, or starts a new one from create if dir holds none
+     * The recovered forest is a heap ShingledForest whatever create returns, create is only called for a new dir
+     * @param create Supplies a plain heap ShingledForest, anything else is rejected with IllegalArgumentException
+     * @param syncEvery Number of values per fsync of the log
+     * @param snapshotEvery Number of values between snapshots, which bounds the log replayed on recovery
+     */
+    public static DurableShingledForest open(Path dir, Supplier<ShingledForest> create, int syncEvery,
+            long snapshotEvery) throws IOException {
+        Files.createDirectories(dir);
+        DurableShingledForest durable = new DurableShingledForest(dir, syncEvery, snapshotEvery);
+        long latest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT + "*.bin")) {
+            for (Path file : files) {
+                latest = Math.max(latest, sequenceOf(file, SNAPSHOT, ".bin"));
+            }
+        }
+        if (latest < 0) {
+            ShingledForest forest = create.get();
+            if (forest.getClass() != ShingledForest.class || forest.getPointStore() != null
+                    || forest.getProjection() != null) {
+                throw new IllegalArgumentException("Only plain heap ShingledForests can be recovered from snapshots");
+            }
+            durable.forest = forest;
+            // The initial state is a snapshot too, so an unseeded RNG is recovered exactly
+            durable.snapshot();
+        } else {
+            durable.forest = ShingledForestCodec.decode(Files.readAllBytes(snapshotFile(dir, latest)));
+            durable.sequence = latest;
+            durable.snapshotSequence = latest;
+            durable.replay(logFile(dir, latest));
+            durable.deleteBefore(latest);
+        }
+        return durable;
+    }
+
+    private static Path snapshotFile(Path dir, long sequence) {
+        return dir.resolve(String.format("%s%020d.bin", SNAPSHOT, sequence));
+    }
+
+    private static Path logFile(Path dir, long sequence) {
+        return dir.resolve(String.format("%s%020d.log", LOG, sequence));
+    }
+
+    private static long sequenceOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * Adds the values of the valid frames of a log to the forest, truncates anything after them
+     * (a frame torn by the crash) and keeps the log open for appending
+     */
+    private void replay(Path file) throws IOException {
+        log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer bytes = ByteBuffer.allocate((int) log.size()).order(ByteOrder.LITTLE_ENDIAN);
+        while (bytes.hasRemaining() && log.read(bytes) >= 0) {
+            // Read the whole log
+        }
+        bytes.flip();
+        int valid = 0;
+        while (bytes.remaining() >= Integer.BYTES * 2) {
+            int count = bytes.getInt(valid);
+            if (count <= 0 || count > (bytes.remaining() - Integer.BYTES * 2) / Double.BYTES) {
+                break;
+            }
+            int length = Integer.BYTES * 2 + count * Double.BYTES;
+            crc.reset();
+            ByteBuffer values = bytes.duplicate();
+            values.position(valid);
+            values.limit(valid + length - Integer.BYTES);
+            crc.update(values);
+            if ((int) crc.getValue() != bytes.getInt(valid + length - Integer.BYTES)) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                forest.addPoint(bytes.getDouble(valid + Integer.BYTES + i * Double.BYTES));
+            }
+            sequence += count;
+            valid += length;
+            bytes.position(valid);
+        }
+        log.truncate(valid);
+        log.position(valid);
+    }
+
+    public ShingledForest getForest() {
+        return forest;
+    }
+
+    /**
+     * Number of values ingested since the forest was created, including recovered ones
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Adds a value to the forest and the log, syncing or snapshotting when due
+     * @return Average collusive displacement of the resulting shingle
+     */
+    public double addPoint(double value) throws IOException {
+        double score = forest.addPoint(value);
+        frame.putDouble(value);
+        sequence++;
+        if (++pending == syncEvery) {
+            sync();
+        }
+        if (sequence - snapshotSequence >= snapshotEvery) {
+            snapshot();
+        }
+        return score;
+    }
+
+    /**
+     * Writes the values added since the last sync to the log as one frame and fsyncs it
+     */
+    public void sync() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        frame.putInt(0, pending);
+        crc.reset();
+        ByteBuffer values = frame.duplicate();
+        values.flip();
+        crc.update(values);
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        while (frame.hasRemaining()) {
+            log.write(frame);
+        }
+        log.force(false);
+        frame.clear();
+        frame.position(Integer.BYTES);
+        pending = 0;
+    }
+
+    /**
+     * Writes a snapshot of the forest, starts a new log and deletes the older snapshots and logs
+     */
+    public void snapshot() throws IOException {
+        if (log != null) {
+            sync();
+            log.close();
+        }
+        Path file = snapshotFile(dir, sequence);
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Shed and added trees are brought up to date, so the snapshot keeps every tree
+            forest.catchUp();
+            ByteBuffer bytes = ByteBuffer.wrap(ShingledForestCodec.encode(forest));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logFile(dir, sequence), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        syncDirectory();
+        snapshotSequence = sequence;
+        deleteBefore(sequence);
+    }
+
+    /**
+     * Makes the rename and the new log durable, not supported on every platform
+     */
+    private void syncDirectory() {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException e) {
+            // Directories can't be opened for fsync on this platform
+        }
+    }
+
+    private void deleteBefore(long sequence) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SNAPSHOT) && name.endsWith(".bin") && sequenceOf(file, SNAPSHOT, ".bin") < sequence
+                        || name.startsWith(LOG) && name.endsWith(".log") && sequenceOf(file, LOG, ".log") < sequence
+                        || name.endsWith(".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs the log and closes it, without taking a snapshot
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        log.close();
+    }
+}
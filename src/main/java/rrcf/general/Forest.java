@@ -1,26 +1,126 @@
 package rrcf.general;
 
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Represents a collection of trees
  * Handles point addition and score averaging
+ * Trees and the window size can be changed while streaming, and trees can be shed under load (setLatencyBudget):
+ *  trees [0, getActiveTrees()) are up to date and scored, the others catch up with the window a few points
+ *  at a time and rejoin once they hold it
  */
 public class Forest implements Serializable {
-    public Tree[] trees;
+    // Window points a lagging tree catches up by per added point, without a latency budget
+    private static final int CATCH_UP_KEYS = 16;
+    // With a latency budget, most window points caught up by per added point
+    private static final int MAX_CATCH_UP_KEYS = 64;
+    // Added points between two changes of the number of active trees, so latency reflects the last change
+    private static final int ADJUST_INTERVAL = 16;
+    // Fewest trees an anytime score is estimated from, per tree scores are heavy tailed and a few trees
+    //  agreeing by chance look like zero variance
+    private static final int MIN_ANYTIME_TREES = 16;
+    // Standard normal quantile of a two-sided 95% confidence interval
+    private static final double Z_95 = 1.96;
+
+    // Replaced, never resized in place, by the writer: readers of concurrent forests take it once and
+    //  only use trees below activeTrees of that copy
+    public volatile Tree[] trees;
     private int treeSize;
     private int currentIndex;
+    // Optional off-heap storage shared by all trees, each point is stored once
+    private PointStore store;
+    // Optional projection applied to points before they reach the trees
+    private RandomProjection projection;
+    // Reused projection output when points go to the store, which copies them
+    private transient double[] projected;
+    // Optional cache of per-tree results for repeated points, not serialized
+    private transient ScoreCache cache;
+    // Cache entry of the point being added
+    private transient ScoreCache.Entry cacheEntry;
+    // Churn per window point after which a tree is compacted, 0 to only compact on demand
+    private double compactionThreshold;
+    // Next tree checked for compaction
+    private int compactionCursor;
+    // Trees before this index are up to date, the rest are catching up (shed or newly added)
+    private int activeTrees;
+    // Next window key each lagging tree needs, keys below it down to next - size are in the tree
+    private int[] laggingNext;
+    // Trees being built in the background from a window snapshot, not serialized
+    private transient List<Warmup> warmups;
+    // Load shedding: latency budget per added point in nanoseconds, 0 disables
+    private long latencyBudget;
+    private int minActiveTrees;
+    // Smoothed nanoseconds spent adding a point to the active trees
+    private double latency;
+    private int sinceAdjust;
 
-    public Forest(Random random, int numTrees, int size, double[][] points) {
+    /**
+     * Tree built in the background from the window before key end
+     */
+    private static final class Warmup {
+        final CompletableFuture<Tree> tree;
+        final int end;
+
+        Warmup(CompletableFuture<Tree> tree, int end) {
+            this.tree = tree;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param store Off-heap storage for the window's points, or null to keep them on heap
+     */
+    public Forest(Random random, int numTrees, int size, double[][] points, PointStore store) {
+        this.store = store;
+        int[] slots = null;
+        if (store != null) {
+            slots = new int[points.length];
+            for (int i = 0; i < points.length; i++) {
+                slots[i] = store.add(points[i]);
+            }
+        }
         trees = new Tree[numTrees];
         for (int i = 0; i < numTrees; i++) {
-            trees[i] = new Tree(random, points);
+            trees[i] = new Tree(random, points, store, slots);
         }
-        currentIndex = 0;
+        if (store != null) {
+            // Trees retain the slots their leaves use
+            for (int slot : slots) {
+                store.release(slot);
+            }
+        }
+        // Batch points are keyed 0..n-1 by the trees, streamed points continue after them
+        currentIndex = points.length;
         treeSize = size;
+        activeTrees = numTrees;
+        laggingNext = new int[numTrees];
     }
     
+    public Forest(Random random, int numTrees, int size, double[][] points) {
+        this(random, numTrees, size, points, null);
+    }
+
+    public Forest(Random random, int numTrees, int size, PointStore store) {
+        this(random, numTrees, size, new double[0][0], store);
+    }
+
     public Forest(Random random, int numTrees, int size) {
         this(random, numTrees, size, new double[0][0]);
     }
@@ -29,6 +129,17 @@ public class Forest implements Serializable {
         this(new Random(), numTrees, size);
     }
 
+    /**
+     * Forest around existing trees, continuing the stream at currentIndex
+     */
+    Forest(Tree[] trees, int size, int currentIndex) {
+        this.trees = trees;
+        this.treeSize = size;
+        this.currentIndex = currentIndex;
+        activeTrees = trees.length;
+        laggingNext = new int[trees.length];
+    }
+
     @Override
     public String toString() {
         String[] vals = new String[trees.length];
@@ -38,24 +149,651 @@ public class Forest implements Serializable {
         return String.join("\n", vals);
     }
 
+    /**
+     * Estimated retained heap size of the forest in bytes
+     * Trees share one Random and, when points are added through the forest, one array per point,
+     * so those are only counted once
+     */
+    public long estimateMemoryBytes() {
+        long bytes = estimateShallowBytes() + JvmLayout.referenceArray(trees.length) + JvmLayout.random()
+                + JvmLayout.intArray(laggingNext.length);
+        if (store != null) {
+            bytes += store.estimateMemoryBytes();
+        }
+        if (projection != null) {
+            bytes += projection.estimateMemoryBytes();
+            if (projected != null) {
+                bytes += JvmLayout.doubleArray(projected.length);
+            }
+        }
+        if (cache != null) {
+            bytes += cache.estimateMemoryBytes();
+        }
+        Set<double[]> points = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Tree tree : trees) {
+            bytes += tree.estimateStructureBytes();
+            if (tree.size() > 0) {
+                tree.mapLeaves((leaf) -> {
+                    if (leaf.point != null) {
+                        points.add(leaf.point[0]);
+                    }
+                });
+            }
+        }
+        for (double[] point : points) {
+            bytes += JvmLayout.doubleArray(point.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimated size of the forest object itself
+     */
+    protected long estimateShallowBytes() {
+        return JvmLayout.object(8, 6, 3);
+    }
+
+    /**
+     * Average collusive displacement over the active trees
+     * In forests read concurrently each tree is read consistently, but trees may be read on either side of
+     *  a concurrent addPoint
+     */
     public double getCollusiveDisplacement(Object key) {
+        Tree[] trees = this.trees;
+        int n = Math.min(activeTrees, trees.length);
         double accum = 0;
-        for (Tree tree : trees) {
-            accum += tree.getCollusiveDisplacement(key);
+        for (int i = 0; i < n; i++) {
+            accum += readCollusiveDisplacement(i, trees[i], key);
+        }
+        return accum / n;
+    }
+
+    /**
+     * Anytime estimate of getCollusiveDisplacement(key) for read-only scoring: trees are evaluated in random order
+     *  and evaluation stops once a nominal 95% confidence interval of the running mean is within tolerance
+     * The interval uses the finite population correction, as trees are sampled without replacement, so it
+     *  shrinks to 0 with every tree and tolerance 0 gives the exact average
+     * The quantile is widened to Student's t for small samples, and at least MIN_ANYTIME_TREES trees are evaluated
+     * The interval is approximate: codisp is heavy-tailed and the sample variance of few trees is often low,
+     *  so it covers the exact average less often than 95% (about 88% of estimates within tolerance in
+     *  AnytimeScoreBenchmark), a smaller tolerance buys coverage back
+     */
+    public AnytimeScore getCollusiveDisplacement(Object key, double tolerance) {
+        Tree[] trees = this.trees;
+        int n = Math.min(activeTrees, trees.length);
+        assert n > 0;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Welford's running mean and sum of squared deviations
+        double mean = 0;
+        double squares = 0;
+        for (int used = 1;; used++) {
+            // Next tree of a Fisher-Yates shuffle drawn as it goes
+            int j = used - 1 + random.nextInt(n - used + 1);
+            int tree = order[j];
+            order[j] = order[used - 1];
+            double codisp = readCollusiveDisplacement(tree, trees[tree], key);
+            double delta = codisp - mean;
+            mean += delta / used;
+            squares += delta * (codisp - mean);
+            if (used == n) {
+                return new AnytimeScore(mean, 0, n);
+            }
+            if (used >= MIN_ANYTIME_TREES) {
+                double variance = squares / (used - 1);
+                // First order expansion of the t quantile with used - 1 degrees of freedom
+                double t = Z_95 + (Z_95 * Z_95 * Z_95 + Z_95) / (4 * (used - 1));
+                double halfWidth = t * Math.sqrt(variance / used * (n - used) / (n - 1));
+                if (halfWidth <= tolerance) {
+                    return new AnytimeScore(mean, halfWidth, used);
+                }
+            }
+        }
+    }
+
+    /**
+     * Average collusive displacement of a key apportioned across dimensions, see Tree.addAttribution
+     * @return Attribution of each dimension, summing to getCollusiveDisplacement(key)
+     */
+    public double[] getAttribution(Object key) {
+        Tree[] trees = this.trees;
+        int n = Math.min(activeTrees, trees.length);
+        double[] attribution = new double[trees[0].getDimensions()];
+        for (int i = 0; i < n; i++) {
+            // A tree's own array, since a reader may be run again after a concurrent write
+            double[] tree = readTree(i, trees[i], (t) -> t.getAttribution(key));
+            for (int d = 0; d < attribution.length; d++) {
+                attribution[d] += tree[d];
+            }
+        }
+        for (int i = 0; i < attribution.length; i++) {
+            attribution[i] /= n;
         }
-        return accum / trees.length;
+        return attribution;
+    }
+
+    /**
+     * The k points of the window closest to a point, nearest first, see Tree.nearestNeighbors
+     * Every tree holds the whole window, so searching one tree gives the exact neighbours
+     */
+    public List<Neighbor> nearestNeighbors(double[] point, int k) {
+        return readTree(0, trees[0], (t) -> t.nearestNeighbors(point, k));
+    }
+
+    /**
+     * Approximate k nearest points, visiting at most maxNodes nodes of one tree, see Tree.nearestNeighbors
+     */
+    public List<Neighbor> nearestNeighbors(double[] point, int k, int maxNodes) {
+        return readTree(0, trees[0], (t) -> t.nearestNeighbors(point, k, maxNodes));
+    }
+
+    /**
+     * k-nearest-neighbour estimate of the window's probability density at a point:
+     *  the fraction of the window within the distance r of the k-th neighbour, divided by the volume of that ball
+     * @return Density, infinite if the k nearest points are all equal to the point
+     */
+    public double density(double[] point, int k) {
+        // Size read with the neighbours, from the same state of the tree
+        int[] size = { 0 };
+        List<Neighbor> neighbors = readTree(0, trees[0], (t) -> {
+            size[0] = t.size();
+            return t.nearestNeighbors(point, k);
+        });
+        return density(neighbors, size[0], point.length);
+    }
+
+    static double density(List<Neighbor> neighbors, int size, int ndim) {
+        if (neighbors.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        for (Neighbor n : neighbors) {
+            count += n.num;
+        }
+        double radius = neighbors.get(neighbors.size() - 1).distance;
+        // log of the unit ball volume, from V(d) = V(d - 2) * 2pi / d with V(0) = 1 and V(1) = 2
+        double logVolume = ndim % 2 == 0 ? 0 : Math.log(2);
+        for (int d = ndim % 2 == 0 ? 2 : 3; d <= ndim; d += 2) {
+            logVolume += Math.log(2 * Math.PI / d);
+        }
+        return Math.exp(Math.log(count) - Math.log(size) - logVolume - ndim * Math.log(radius));
+    }
+
+    /**
+     * Completes a point with missing dimensions with the most likely values given the window
+     * Each tree spreads the point over its leaves (see Tree.mapCandidateLeaves), leaves with equal points
+     *  are pooled over trees and the missing values are taken from the point with the highest total probability
+     * @param missing Indices of the missing dimensions, their values in point are ignored
+     * @param maxBranches Per tree budget of cuts on missing dimensions where both sides are followed
+     * @return Copy of point with the missing dimensions filled in
+     */
+    public double[] impute(double[] point, int[] missing, int maxBranches) {
+        double[] imputed = point.clone();
+        if (missing.length == 0) {
+            return imputed;
+        }
+        boolean[] isMissing = new boolean[point.length];
+        for (int d : missing) {
+            isMissing[d] = true;
+        }
+        Map<DoubleBuffer, double[]> votes = new HashMap<>();
+        double best = 0;
+        double[] bestPoint = null;
+        Tree[] trees = this.trees;
+        int n = Math.min(activeTrees, trees.length);
+        for (int i = 0; i < n; i++) {
+            Map<DoubleBuffer, Double> treeVotes = readTree(i, trees[i], (tree) -> {
+                Map<DoubleBuffer, Double> leaves = new HashMap<>();
+                tree.mapCandidateLeaves(point, isMissing, maxBranches, (leaf, probability) -> {
+                    leaves.merge(DoubleBuffer.wrap(tree.getPoint(leaf)), probability, Double::sum);
+                });
+                return leaves;
+            });
+            for (Map.Entry<DoubleBuffer, Double> vote : treeVotes.entrySet()) {
+                double[] total = votes.computeIfAbsent(vote.getKey(), (key) -> new double[1]);
+                total[0] += vote.getValue();
+                if (total[0] > best) {
+                    best = total[0];
+                    bestPoint = vote.getKey().array();
+                }
+            }
+        }
+        if (bestPoint != null) {
+            for (int d : missing) {
+                imputed[d] = bestPoint[d];
+            }
+        }
+        return imputed;
+    }
+
+    /**
+     * Imputation without a budget, following both sides of every cut on a missing dimension
+     */
+    public double[] impute(double[] point, int[] missing) {
+        return impute(point, missing, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Runs a writer against tree i, overridden by forests that are read concurrently
+     */
+    protected void writeTree(int i, Consumer<Tree> writer) {
+        writer.accept(trees[i]);
+    }
+
+    /**
+     * Compacts every tree now, see Tree.compact
+     */
+    public void compact() {
+        for (int i = 0; i < trees.length; i++) {
+            writeTree(i, Tree::compact);
+        }
+    }
+
+    /**
+     * Compacts each tree once it has added or removed churn * treeSize leaves since its last compaction, 0 disables
+     * One tree is checked per added point, so compactions of different trees are spread out
+     */
+    public void setCompactionThreshold(double churn) {
+        assert churn >= 0;
+        compactionThreshold = churn;
+    }
+
+    /**
+     * Collusive displacement of a key in tree i, overridden by forests that are read concurrently
+     * @param tree Tree i of the array the caller read, which the writer may have replaced since
+     */
+    protected int readCollusiveDisplacement(int i, Tree tree, Object key) {
+        return tree.getCollusiveDisplacement(key);
+    }
+
+    /**
+     * Runs a side-effect free reader against tree i, overridden by forests that are read concurrently
+     * @param tree Tree i of the array the caller read, which the writer may have replaced since
+     */
+    protected <T> T readTree(int i, Tree tree, Function<Tree, T> reader) {
+        return reader.apply(tree);
+    }
+
+    /**
+     * Called by the writer before the forest grows to numTrees trees, overridden by forests keeping
+     *  per-tree state that readers use
+     */
+    protected void reserveTrees(int numTrees) {
     }
 
     public double addPoint(double[] point) {
+        long start = latencyBudget > 0 ? System.nanoTime() : 0;
+        if (projection != null) {
+            if (store == null) {
+                point = projection.project(point);
+            } else {
+                if (projected == null) {
+                    projected = new double[projection.getOutputDimensions()];
+                }
+                point = projection.project(point, projected);
+            }
+        }
         double accum = 0;
-        for (Tree t : trees) {
-            if (t.size() >= treeSize) {
-                t.forgetPoint(currentIndex - treeSize);
+        int slot = store == null ? -1 : store.add(point);
+        if (cache != null) {
+            cacheEntry = cache.lookup(point, trees.length);
+        }
+        for (int i = 0; i < activeTrees; i++) {
+            accum += updateTree(i, point, slot);
+        }
+        if (slot >= 0) {
+            store.release(slot);
+        }
+        cacheEntry = null;
+        if (compactionThreshold > 0) {
+            int i = compactionCursor % trees.length;
+            compactionCursor = (i + 1) % trees.length;
+            if (trees[i].getChurn() >= compactionThreshold * treeSize) {
+                writeTree(i, Tree::compact);
             }
-            t.insertPoint(point, currentIndex);
-            accum += t.getCollusiveDisplacement(currentIndex);
         }
         currentIndex++;
-        return accum / trees.length;
+        double score = accum / activeTrees;
+        if (warmups != null && !warmups.isEmpty()) {
+            installWarmups();
+        }
+        if (latencyBudget > 0) {
+            adjustActiveTrees(System.nanoTime() - start);
+        } else if (activeTrees < trees.length && catchUp(CATCH_UP_KEYS)) {
+            activeTrees++;
+        }
+        return score;
+    }
+
+    /**
+     * Adds trees warmed in the background from the current window by an executor, or on this thread one
+     *  window point at a time as they catch up when the window is kept in a PointStore
+     * New trees only count towards scores once they hold the current window, see getActiveTrees
+     */
+    public void addTrees(int n, Executor executor) {
+        assert n > 0;
+        if (store != null) {
+            addLaggingTrees(n);
+            return;
+        }
+        Random random = trees[0].getRandom();
+        int start = currentIndex - trees[0].size();
+        // Points are immutable and shared by the trees, so the snapshot only copies references
+        double[][] points = new double[currentIndex - start][];
+        Map<Object, Leaf> leaves = trees[0].getLeavesMap();
+        for (int k = start; k < currentIndex; k++) {
+            points[k - start] = leaves.get(k).point[0];
+        }
+        if (warmups == null) {
+            warmups = new ArrayList<>();
+        }
+        for (int j = 0; j < n; j++) {
+            // Seeded here so the trees don't depend on which thread builds them
+            Random treeRandom = new Random(random.nextLong());
+            warmups.add(new Warmup(CompletableFuture.supplyAsync(() -> {
+                Tree tree = new Tree(treeRandom);
+                for (int k = 0; k < points.length; k++) {
+                    tree.insertPoint(points[k], start + k);
+                }
+                return tree;
+            }, executor), currentIndex));
+        }
+    }
+
+    public void addTrees(int n) {
+        addTrees(n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Appends n empty trees, which catch up with the window on the adding thread a few points at a time
+     */
+    protected void addLaggingTrees(int n) {
+        Random random = trees[0].getRandom();
+        Tree[] added = new Tree[n];
+        for (int j = 0; j < n; j++) {
+            added[j] = new Tree(new Random(random.nextLong()), store);
+        }
+        appendTrees(added, currentIndex - trees[0].size());
+    }
+
+    /**
+     * Removes the last n trees at once, lagging trees first, keeping at least one
+     */
+    public void removeTrees(int n) {
+        assert n >= 0 && n < trees.length;
+        activeTrees = Math.min(activeTrees, trees.length - n);
+        trees = Arrays.copyOf(trees, trees.length - n);
+        laggingNext = Arrays.copyOf(laggingNext, trees.length);
+        minActiveTrees = Math.min(minActiveTrees, trees.length);
+    }
+
+    /**
+     * Number of trees being warmed in the background
+     */
+    public int getPendingTrees() {
+        return warmups == null ? 0 : warmups.size();
+    }
+
+    /**
+     * Waits for trees being warmed and catches every tree up with the window, so that all trees are scored
+     */
+    public void catchUp() {
+        if (warmups != null) {
+            for (Warmup w : warmups) {
+                w.tree.join();
+            }
+            installWarmups();
+        }
+        while (activeTrees < trees.length) {
+            catchUp(Integer.MAX_VALUE);
+            activeTrees++;
+        }
+    }
+
+    /**
+     * Changes the number of points kept by each tree
+     * Shrinking forgets the oldest points of the active trees now, growing lets the window fill up with new points
+     */
+    public void setTreeSize(int size) {
+        assert size > 0;
+        int oldest = currentIndex - trees[0].size();
+        treeSize = size;
+        for (int i = 0; i < activeTrees; i++) {
+            writeTree(i, (t) -> {
+                for (int k = oldest; k < currentIndex - treeSize; k++) {
+                    t.forgetPoint(k);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sheds trees while adding a point takes longer than a budget, scoring with fewer trees, and restores them
+     *  when there is spare time: shed trees are brought back up to date with the spare time first
+     * @param nanos Smoothed latency budget per added point in nanoseconds, 0 disables shedding
+     * @param minTrees Number of trees kept under any load
+     */
+    public void setLatencyBudget(long nanos, int minTrees) {
+        assert nanos >= 0 && minTrees > 0 && minTrees <= trees.length;
+        latencyBudget = nanos;
+        minActiveTrees = minTrees;
+        latency = 0;
+        sinceAdjust = 0;
+    }
+
+    /**
+     * Number of up-to-date trees, which are the ones scored, the others are shed or still warming
+     */
+    public int getActiveTrees() {
+        return activeTrees;
+    }
+
+    public int getNumTrees() {
+        return trees.length;
+    }
+
+    private void adjustActiveTrees(long elapsed) {
+        latency = latency == 0 ? elapsed : latency + (elapsed - latency) / ADJUST_INTERVAL;
+        sinceAdjust++;
+        double perTree = latency / activeTrees;
+        if (latency > latencyBudget) {
+            if (activeTrees > minActiveTrees && sinceAdjust >= ADJUST_INTERVAL) {
+                activeTrees--;
+                laggingNext[activeTrees] = currentIndex;
+                latency -= perTree;
+                sinceAdjust = 0;
+            }
+        } else if (activeTrees < trees.length) {
+            // Catching up a point costs about as much as updating a tree, spare time below 80% of the budget is used
+            double spare = 0.8 * latencyBudget - latency;
+            int keys = (int) Math.min(MAX_CATCH_UP_KEYS, spare / perTree);
+            if (keys > 0 && catchUp(keys) && spare > perTree && sinceAdjust >= ADJUST_INTERVAL) {
+                activeTrees++;
+                latency += perTree;
+                sinceAdjust = 0;
+            }
+        }
+    }
+
+    /**
+     * Moves the first lagging tree towards the window: forgets its points older than the window,
+     *  then inserts the window points it misses, see insertWindowPoint
+     * @param keys Most points forgotten or inserted
+     * @return Whether the tree holds the window
+     */
+    private boolean catchUp(int keys) {
+        int i = activeTrees;
+        int windowStart = currentIndex - trees[0].size();
+        writeTree(i, (t) -> {
+            int next = laggingNext[i];
+            for (int step = 0; step < keys; step++) {
+                if (t.size() > 0 && next - t.size() < windowStart) {
+                    t.forgetPoint(next - t.size());
+                    continue;
+                }
+                // Points that left the window while the tree lagged are skipped
+                next = Math.max(next, windowStart);
+                if (next >= currentIndex) {
+                    break;
+                }
+                insertWindowPoint(i, t, next);
+                next++;
+            }
+            laggingNext[i] = next;
+        });
+        Tree t = trees[i];
+        return laggingNext[i] >= currentIndex && (t.size() == 0 || laggingNext[i] - t.size() >= windowStart);
+    }
+
+    /**
+     * Inserts window point key into lagging tree i, overridden by forests whose trees don't hold whole points
+     * The point is the one tree 0 holds, shared by reference or slot
+     */
+    protected void insertWindowPoint(int i, Tree t, int key) {
+        Leaf leaf = trees[0].getLeavesMap().get(key);
+        if (leaf.point != null) {
+            t.insertPoint(leaf.point[0], key);
+        } else {
+            t.insertStoredPoint(leaf.slot, key);
+        }
+    }
+
+    /**
+     * Appends the trees whose background build finished, they catch up from the end of their snapshot
+     */
+    private void installWarmups() {
+        Iterator<Warmup> it = warmups.iterator();
+        while (it.hasNext()) {
+            Warmup w = it.next();
+            if (w.tree.isDone()) {
+                it.remove();
+                appendTrees(new Tree[] { w.tree.join() }, w.end);
+            }
+        }
+    }
+
+    private void appendTrees(Tree[] added, int next) {
+        int n = trees.length;
+        reserveTrees(n + added.length);
+        Tree[] grown = Arrays.copyOf(trees, n + added.length);
+        laggingNext = Arrays.copyOf(laggingNext, grown.length);
+        for (int j = 0; j < added.length; j++) {
+            grown[n + j] = added[j];
+            laggingNext[n + j] = next;
+        }
+        // Published once filled in
+        trees = grown;
+    }
+
+    /**
+     * Adds the current point to one tree, forgetting the oldest point if the tree is full
+     * @param slot Slot of the point in the forest's store, or -1 without a store
+     * @return Collusive displacement of the new point in the tree
+     */
+    protected double updateTree(int i, double[] point, int slot) {
+        Tree t = trees[i];
+        if (cacheEntry != null) {
+            return updateTreeCached(i, point, slot, cacheEntry);
+        }
+        if (t.size() >= treeSize) {
+            t.forgetPoint(currentIndex - treeSize);
+        }
+        if (slot < 0) {
+            t.insertPoint(point, currentIndex);
+        } else {
+            t.insertStoredPoint(slot, currentIndex);
+        }
+        return t.getCollusiveDisplacement(currentIndex);
+    }
+
+    /**
+     * updateTree reusing the leaf and score remembered for the point while the tree hasn't changed since
+     */
+    private double updateTreeCached(int i, double[] point, int slot, ScoreCache.Entry entry) {
+        Tree t = trees[i];
+        cache.recordLookup();
+        boolean full = t.size() >= treeSize;
+        Leaf leaf = entry.hasLeaf(i, t) ? entry.leaves[i] : null;
+        if (leaf != null && full && leaf.num > 1 && t.getLeavesMap().get(currentIndex - treeSize) == leaf) {
+            // Replacing the oldest point with an equal one leaves the tree unchanged, as long as the leaf has other
+            //  copies: forgetting its only copy removes the leaf and the insert draws a new random cut
+            t.renamePoint(currentIndex - treeSize, currentIndex);
+        } else {
+            if (full) {
+                t.forgetPoint(currentIndex - treeSize);
+                if (!entry.hasLeaf(i, t)) {
+                    leaf = null;
+                }
+            }
+            if (leaf != null) {
+                t.insertDuplicate(leaf, currentIndex);
+            } else if (slot < 0) {
+                t.insertPoint(point, currentIndex);
+            } else {
+                t.insertStoredPoint(slot, currentIndex);
+            }
+        }
+        if (leaf != null && entry.versions[i] == t.getVersion()) {
+            cache.recordScoreHit();
+            return entry.scores[i];
+        }
+        if (leaf != null) {
+            cache.recordLeafHit();
+        } else {
+            leaf = t.getLeavesMap().get(currentIndex);
+        }
+        double score = t.getCollusiveDisplacement(leaf);
+        entry.update(i, t, leaf, score);
+        return score;
+    }
+
+    /**
+     * Remembers per-tree results for recently added points so repeated points reuse work, or stops with null
+     * Worthwhile for streams with long runs of repeated points, e.g. flat-lined sensors, scores are unchanged
+     */
+    public void setScoreCache(ScoreCache cache) {
+        this.cache = cache;
+    }
+
+    public ScoreCache getScoreCache() {
+        return cache;
+    }
+
+    /**
+     * Projects the points added from now on into fewer dimensions, which is only allowed before any point is added
+     * Trees, the point store and point queries (attribution, neighbours, density, imputation)
+     *  then work in the projected space, use getProjection().project to map query points
+     */
+    public void setProjection(RandomProjection projection) {
+        for (Tree tree : trees) {
+            assert tree.size() == 0;
+        }
+        assert store == null || store.getDimensions() == projection.getOutputDimensions();
+        this.projection = projection;
+    }
+
+    public RandomProjection getProjection() {
+        return projection;
+    }
+
+    public PointStore getPointStore() {
+        return store;
+    }
+
+    /**
+     * Number of points kept by each tree
+     */
+    public int getTreeSize() {
+        return treeSize;
+    }
+
+    /**
+     * Index the next added point will be stored under
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
     }
 }
\ No newline at end of file
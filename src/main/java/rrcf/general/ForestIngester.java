@@ -0,0 +1,234 @@
+package rrcf.general;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Front-end feeding points from many producer threads into a single forest
+ * Points go through a bounded lock-free queue and are drained in batches by a writer thread,
+ *  which is the only thread touching the forest, so producers never contend on the trees
+ * Scores are delivered on the writer thread, through a callback or a future
+ * A point whose scoring or callback throws is reported through its error callback or future and draining
+ *  goes on, the forest may then have been updated by some of its trees only
+ * What happens when the queue is full is chosen by a Backpressure policy
+ */
+public class ForestIngester implements AutoCloseable {
+    public enum Backpressure {
+        /** Producers wait for room in the queue */
+        BLOCK,
+        /** Points offered to a full queue are dropped */
+        DROP,
+        /**
+         * Once the queue is 3/4 full points are admitted with a probability falling linearly to 0 at full,
+         * which thins the stream instead of cutting off its most recent part
+         */
+        SAMPLE
+    }
+
+    private static final class Pending {
+        final double[] point;
+        final DoubleConsumer onScore;
+        // Null to only count failures
+        final Consumer<Throwable> onError;
+
+        Pending(double[] point, DoubleConsumer onScore, Consumer<Throwable> onError) {
+            this.point = point;
+            this.onScore = onScore;
+            this.onError = onError;
+        }
+    }
+
+    private final Forest forest;
+    private final MpscQueue<Pending> queue;
+    private final Backpressure backpressure;
+    private final int batchSize;
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long processed;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    /**
+     * Starts the writer thread, after which the forest must only be used through the ingester until closed
+     * @param capacity Queue capacity, rounded up to a power of 2
+     * @param batchSize Maximum number of points drained from the queue at a time
+     */
+    public ForestIngester(Forest forest, int capacity, int batchSize, Backpressure backpressure) {
+        assert batchSize > 0;
+        this.forest = forest;
+        this.queue = new MpscQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.backpressure = backpressure;
+        writer = new Thread(this::drain, "forest-ingester");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public ForestIngester(Forest forest, int capacity, Backpressure backpressure) {
+        this(forest, capacity, 256, backpressure);
+    }
+
+    /**
+     * Queues a point, onScore is called on the writer thread with its average collusive displacement
+     * Callbacks must be quick, they hold up the writer
+     * @param onError Called on the writer thread instead if scoring the point or onScore throws, may be null
+     * @return false if the point was dropped by the backpressure policy, in which case no callback is called
+     */
+    public boolean offer(double[] point, DoubleConsumer onScore, Consumer<Throwable> onError) {
+        if (closed) {
+            throw new IllegalStateException("Ingester is closed");
+        }
+        Pending pending = new Pending(point, onScore, onError);
+        boolean queued;
+        switch (backpressure) {
+            case BLOCK:
+                queued = queue.offer(pending);
+                while (!queued) {
+                    if (closed) {
+                        throw new IllegalStateException("Ingester is closed");
+                    }
+                    LockSupport.parkNanos(1000);
+                    queued = queue.offer(pending);
+                }
+                break;
+            case SAMPLE:
+                int free = queue.capacity() - queue.size();
+                int band = queue.capacity() / 4;
+                queued = (free >= band || ThreadLocalRandom.current().nextInt(band) < free) && queue.offer(pending);
+                break;
+            default:
+                queued = queue.offer(pending);
+        }
+        if (!queued) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Queues a point, failures are only counted, see getFailed
+     */
+    public boolean offer(double[] point, DoubleConsumer onScore) {
+        return offer(point, onScore, null);
+    }
+
+    /**
+     * Queues a point
+     * @return Future of its average collusive displacement, failed with a RejectedExecutionException if dropped
+     */
+    public CompletableFuture<Double> submit(double[] point) {
+        CompletableFuture<Double> future = new CompletableFuture<>();
+        if (!offer(point, future::complete, future::completeExceptionally)) {
+            future.completeExceptionally(new RejectedExecutionException("Queue full"));
+        }
+        return future;
+    }
+
+    private void drain() {
+        Pending[] batch = new Pending[batchSize];
+        while (true) {
+            int n = 0;
+            Pending p;
+            while (n < batchSize && (p = queue.poll()) != null) {
+                batch[n++] = p;
+            }
+            if (n == 0) {
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                // Producers unpark the writer after publishing, the flag is rechecked to not miss a wakeup
+                parked = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, 1000000);
+                }
+                parked = false;
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                Pending pending = batch[i];
+                batch[i] = null;
+                try {
+                    pending.onScore.accept(forest.addPoint(pending.point));
+                } catch (Throwable t) {
+                    // One bad point or callback must not stop the writer, producers and futures wait on it
+                    fail(pending, t);
+                }
+            }
+            processed += n;
+        }
+    }
+
+    private void fail(Pending pending, Throwable t) {
+        failed.incrementAndGet();
+        if (pending.onError != null) {
+            try {
+                pending.onError.accept(t);
+            } catch (Throwable ignored) {
+                // Already counted
+            }
+        }
+    }
+
+    /**
+     * Stops accepting points, waits for the queued ones to be scored and stops the writer
+     * Producers should have stopped first, a point offered while closing may be neither scored nor rejected
+     * Afterwards the forest can be used directly again
+     * An interrupt doesn't cut the wait short, since the forest is only safe to use once the writer stopped,
+     *  the thread's interrupt status is restored afterwards
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of points whose scoring or callback threw
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of points dropped by the backpressure policy
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of points added to the forest, only exact after close
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Number of points waiting in the queue
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+}
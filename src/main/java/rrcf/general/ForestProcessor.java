@@ -0,0 +1,277 @@
+package rrcf.general;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Flow stage scoring a stream with a forest, so it can sit in a reactive pipeline
+ * Upstream is asked for items in batches, and only again once scores were taken downstream, so at most
+ *  bufferSize items are buffered and a slow subscriber slows down the publisher instead of growing a queue
+ * Buffered items are scored in batches by a drain task on an executor, no thread is held while there is
+ *  nothing to do so many streams can share a pool. Drain tasks never overlap, but may run on different threads
+ * The forest must not be used elsewhere while subscribed, a single downstream subscriber is supported
+ */
+public class ForestProcessor<T> implements Flow.Processor<T, Score> {
+    private final ToDoubleFunction<T> scorer;
+    private final Executor executor;
+    private final MpscQueue<T> queue;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private final AtomicReference<Flow.Subscriber<? super Score>> subscriber = new AtomicReference<>();
+    private volatile Flow.Subscription upstream;
+    // Set once the subscriber's onSubscribe has returned, so no signal overlaps it
+    private volatile Flow.Subscriber<? super Score> downstream;
+    private volatile boolean upstreamDone;
+    private volatile boolean cancelled;
+    // Owned by the drain task
+    private final Object[] batch;
+    private boolean terminated;
+    private long index;
+    private int consumed;
+
+    /**
+     * @param scorer Adds an item to a forest and returns its score, only called by the drain task
+     * @param batchSize Number of items requested from upstream and scored at a time
+     * @param bufferSize Maximum number of buffered items, rounded up to a power of 2
+     */
+    public ForestProcessor(ToDoubleFunction<T> scorer, Executor executor, int batchSize, int bufferSize) {
+        assert batchSize > 0 && bufferSize >= batchSize;
+        this.scorer = scorer;
+        this.executor = executor;
+        queue = new MpscQueue<>(bufferSize);
+        batch = new Object[batchSize];
+    }
+
+    /**
+     * Processor for a scalar stream, shingled by the forest
+     */
+    public static ForestProcessor<Double> shingled(ShingledForest forest, Executor executor) {
+        return new ForestProcessor<>(forest::addPoint, executor, 64, 256);
+    }
+
+    public static ForestProcessor<Double> shingled(ShingledForest forest) {
+        return shingled(forest, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Processor for a stream of points
+     */
+    public static ForestProcessor<double[]> multivariate(Forest forest, Executor executor) {
+        return new ForestProcessor<>(forest::addPoint, executor, 64, 256);
+    }
+
+    public static ForestProcessor<double[]> multivariate(Forest forest) {
+        return multivariate(forest, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(queue.capacity());
+    }
+
+    @Override
+    public void onNext(T item) {
+        Objects.requireNonNull(item);
+        if (!queue.offer(item)) {
+            upstream.cancel();
+            onError(new IllegalStateException("More items received than requested"));
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error.compareAndSet(null, throwable);
+        upstreamDone = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        schedule();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Score> s) {
+        Objects.requireNonNull(s);
+        if (!subscriber.compareAndSet(null, s)) {
+            s.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("ForestProcessor supports a single subscriber"));
+            return;
+        }
+        s.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error.compareAndSet(null, new IllegalArgumentException("Non-positive request " + n));
+                    cancelUpstream();
+                } else {
+                    demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                cancelUpstream();
+                schedule();
+            }
+        });
+        downstream = s;
+        schedule();
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription s = upstream;
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    /**
+     * Runs the drain task unless it's already running, in which case it loops again
+     */
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        do {
+            try {
+                drainBatches();
+            } catch (Throwable t) {
+                // Only a subscriber that throws, against the spec, gets here, ends the stream
+                fail(t);
+            } finally {
+                // Otherwise a throw would leave wip set and no drain task would ever be scheduled again
+                missed = wip.addAndGet(-missed);
+            }
+        } while (missed != 0);
+    }
+
+    private void fail(Throwable t) {
+        if (terminated) {
+            return;
+        }
+        cancelUpstream();
+        terminate();
+        try {
+            downstream.onError(t);
+        } catch (Throwable ignored) {
+            // Nothing left to signal
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drainBatches() {
+        Flow.Subscriber<? super Score> s = downstream;
+        if (terminated) {
+            // Drops items that arrived after the end
+            terminate();
+            return;
+        }
+        if (s == null) {
+            return;
+        }
+        if (cancelled) {
+            terminate();
+            return;
+        }
+        Throwable t = error.get();
+        if (t != null) {
+            terminate();
+            s.onError(t);
+            return;
+        }
+        long requested = demand.get();
+        long emitted = 0;
+        while (emitted < requested) {
+            int n = 0;
+            T item;
+            while (n < batch.length && emitted + n < requested && (item = queue.poll()) != null) {
+                batch[n++] = item;
+            }
+            if (n == 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                item = (T) batch[i];
+                batch[i] = null;
+                double score;
+                try {
+                    score = scorer.applyAsDouble(item);
+                } catch (Throwable e) {
+                    // Errors too, e.g. a failed assert on a point of the wrong dimension
+                    fail(e);
+                    return;
+                }
+                s.onNext(new Score(index++, score));
+            }
+            emitted += n;
+            consumed += n;
+            // Asking for whole batches keeps request calls, and the publisher's work per call, amortized
+            if (consumed >= batch.length && !upstreamDone) {
+                upstream.request(consumed);
+                consumed = 0;
+            }
+            if (cancelled) {
+                terminate();
+                return;
+            }
+        }
+        if (emitted > 0 && requested != Long.MAX_VALUE) {
+            demand.addAndGet(-emitted);
+        }
+        if (upstreamDone && error.get() == null && queue.isEmpty()) {
+            terminate();
+            s.onComplete();
+        }
+    }
+
+    private void terminate() {
+        terminated = true;
+        while (queue.poll() != null) {
+            // Drop buffered items
+        }
+    }
+
+    /**
+     * Number of items received and not scored yet
+     */
+    public int getBuffered() {
+        return queue.size();
+    }
+
+    /**
+     * Number of items scored
+     */
+    public long getScored() {
+        return index;
+    }
+}
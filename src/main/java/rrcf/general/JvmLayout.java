@@ -0,0 +1,112 @@
+package rrcf.general;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Object layout constants of the running JVM, used to estimate retained heap sizes
+ * Assumes a HotSpot-like layout: mark word + class pointer header, fields packed
+ * after the header and every object aligned to 8 bytes
+ */
+public final class JvmLayout {
+    public static final int REFERENCE;
+    public static final int OBJECT_HEADER;
+    public static final int ARRAY_HEADER;
+    private static final int ALIGNMENT = 8;
+
+    static {
+        boolean compressedOops = Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+        boolean compressedClassPointers = compressedOops;
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            compressedOops = Boolean.parseBoolean(hotspot.getVMOption("UseCompressedOops").getValue());
+            compressedClassPointers = Boolean.parseBoolean(
+                    hotspot.getVMOption("UseCompressedClassPointers").getValue());
+        } catch (RuntimeException | LinkageError e) {
+            // Not a HotSpot VM, keep the heap size based guess
+        }
+        REFERENCE = compressedOops ? 4 : 8;
+        OBJECT_HEADER = compressedClassPointers ? 12 : 16;
+        ARRAY_HEADER = (int) align(OBJECT_HEADER + 4);
+    }
+
+    private JvmLayout() {
+    }
+
+    public static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Size of an object with the given number of reference, 4-byte and 8-byte fields
+     */
+    public static long object(int references, int ints, int longs) {
+        return align(OBJECT_HEADER + (long) references * REFERENCE + ints * 4L + longs * 8L);
+    }
+
+    public static long doubleArray(int length) {
+        return align(ARRAY_HEADER + length * 8L);
+    }
+
+    public static long longArray(int length) {
+        return align(ARRAY_HEADER + length * 8L);
+    }
+
+    public static long intArray(int length) {
+        return align(ARRAY_HEADER + length * 4L);
+    }
+
+    public static long referenceArray(int length) {
+        return align(ARRAY_HEADER + (long) length * REFERENCE);
+    }
+
+    /**
+     * A boxed Double or Long
+     */
+    public static long boxedLong() {
+        return object(0, 0, 1);
+    }
+
+    /**
+     * A boxed Integer
+     */
+    public static long boxedInt() {
+        return object(0, 1, 0);
+    }
+
+    /**
+     * java.util.Random and its AtomicLong seed
+     */
+    public static long random() {
+        return object(1, 1, 1) + object(0, 0, 1);
+    }
+
+    /**
+     * A HashMap with `size` entries: the map, its table and entry nodes, but not keys or values
+     */
+    public static long hashMap(int size) {
+        long map = object(4, 4, 0);
+        if (size == 0) {
+            return map;
+        }
+        int capacity = 16;
+        while (size > capacity * 3 / 4) {
+            capacity *= 2;
+        }
+        long entry = object(3, 1, 0);
+        return map + referenceArray(capacity) + entry * size;
+    }
+
+    /**
+     * An ArrayDeque created with room for `initialCapacity` elements, holding `size` boxed doubles
+     * Follows the growth policy of JDK 9+ (grow by ~2x while small, then by 1.5x)
+     */
+    public static long boxedDoubleDeque(int size, int initialCapacity) {
+        int capacity = initialCapacity + 1;
+        while (capacity < size + 1) {
+            capacity += capacity < 64 ? capacity + 2 : capacity >> 1;
+        }
+        return object(1, 2, 0) + referenceArray(capacity) + boxedLong() * size;
+    }
+}
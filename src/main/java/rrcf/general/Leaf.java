@@ -8,6 +8,8 @@ import java.io.Serializable;
  */
 public class Leaf extends Node implements Serializable {
     public int depth;
+    // Slot of the point in the tree's PointStore, or -1 if the point is on heap
+    public int slot = -1;
 
     public Leaf(double[] p, int d) {
         point = new double[1][p.length];
@@ -15,4 +17,13 @@ public class Leaf extends Node implements Serializable {
         depth = d;
         num = 1;
     }
+
+    /**
+     * Leaf whose point is kept in a PointStore, point is null
+     */
+    public Leaf(int s, int d) {
+        slot = s;
+        depth = d;
+        num = 1;
+    }
 }
\ No newline at end of file
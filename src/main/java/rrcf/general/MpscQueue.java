@@ -0,0 +1,78 @@
+package rrcf.general;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer
+ * Producers claim a position by CAS on the tail, then publish the element into its slot
+ * The consumer owns the head and treats a null slot as not yet published
+ */
+class MpscQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity Rounded up to a power of 2
+     */
+    MpscQueue(int capacity) {
+        assert capacity > 0 && capacity <= 1 << 30;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds an element from any thread
+     * @return false if the queue is full
+     */
+    boolean offer(E e) {
+        while (true) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                buffer.lazySet((int) t & mask, e);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element, only called from the consumer thread
+     * @return null if the queue is empty or the oldest element is still being published
+     */
+    E poll() {
+        long h = head.get();
+        int index = (int) h & mask;
+        E e = buffer.get(index);
+        if (e == null) {
+            return null;
+        }
+        buffer.lazySet(index, null);
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * Number of claimed positions, including elements still being published
+     */
+    int size() {
+        long h = head.get();
+        return (int) (tail.get() - h);
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+}
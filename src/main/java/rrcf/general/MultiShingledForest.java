@@ -0,0 +1,106 @@
+package rrcf.general;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Represents a forest with support for shingling multivariate streams
+ * Each tick adds one sample of `channels` values, and the last `shingleSize` samples
+ *  are concatenated (oldest first) into a point of shingleSize * channels dimensions
+ * The samples are kept in an interleaved primitive ring buffer, so adding a sample
+ *  only allocates the shingled point stored by the trees
+ */
+public class MultiShingledForest extends Forest implements Serializable {
+    private int shingleSize;
+    private int channels;
+    // Sample i of the ring occupies [i * channels, (i + 1) * channels)
+    private double[] buffer;
+    // Ring slot the next sample is written to, which is also the oldest sample once full
+    private int next;
+    // Number of samples buffered, up to shingleSize
+    private int count;
+
+    public MultiShingledForest(Random random, int shingleSize, int channels, int numTrees, int treeSize,
+            double[][] data) {
+        super(random, numTrees, treeSize, shinglePoints(shingleSize, channels, data));
+        this.shingleSize = shingleSize;
+        this.channels = channels;
+        buffer = new double[shingleSize * channels];
+        for (int i = Math.max(0, data.length - shingleSize); i < data.length; i++) {
+            bufferSample(data[i]);
+        }
+    }
+
+    public MultiShingledForest(Random random, int shingleSize, int channels, int numTrees, int treeSize) {
+        this(random, shingleSize, channels, numTrees, treeSize, new double[0][channels]);
+    }
+
+    public MultiShingledForest(int shingleSize, int channels, int numTrees, int treeSize) {
+        this(new Random(), shingleSize, channels, numTrees, treeSize);
+    }
+
+    private static double[][] shinglePoints(int shingleSize, int channels, double[][] data) {
+        if (data.length < shingleSize) {
+            return new double[0][shingleSize * channels];
+        }
+        double[][] shingled = new double[data.length - shingleSize + 1][shingleSize * channels];
+        for (int i = 0; i < shingled.length; i++) {
+            for (int s = 0; s < shingleSize; s++) {
+                assert data[i + s].length == channels;
+                System.arraycopy(data[i + s], 0, shingled[i], s * channels, channels);
+            }
+        }
+        return shingled;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getShingleSize() {
+        return shingleSize;
+    }
+
+    /**
+     * Adds a sample of `channels` values to the stream
+     * @return Average collusive displacement of the resulting shingle, or 0 while the first shingle fills up
+     */
+    @Override
+    public double addPoint(double[] sample) {
+        bufferSample(sample);
+        if (count < shingleSize) {
+            return 0;
+        }
+        return super.addPoint(shingle());
+    }
+
+    private void bufferSample(double[] sample) {
+        assert sample.length == channels;
+        System.arraycopy(sample, 0, buffer, next * channels, channels);
+        next = next + 1 == shingleSize ? 0 : next + 1;
+        if (count < shingleSize) {
+            count++;
+        }
+    }
+
+    /**
+     * Unrolls the ring buffer into a new point, oldest sample first
+     */
+    private double[] shingle() {
+        double[] point = new double[buffer.length];
+        int split = next * channels;
+        System.arraycopy(buffer, split, point, 0, buffer.length - split);
+        System.arraycopy(buffer, 0, point, buffer.length - split, split);
+        return point;
+    }
+
+    @Override
+    public long estimateMemoryBytes() {
+        return super.estimateMemoryBytes() + JvmLayout.doubleArray(buffer.length);
+    }
+
+    @Override
+    protected long estimateShallowBytes() {
+        return JvmLayout.object(9, 10, 3);
+    }
+}
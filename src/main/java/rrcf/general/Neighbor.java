@@ -0,0 +1,18 @@
+package rrcf.general;
+
+/**
+ * A point of a tree's window found by a nearest neighbour search
+ */
+public class Neighbor {
+    public double[] point;
+    // Euclidean distance to the query
+    public double distance;
+    // Number of copies of the point in the window
+    public int num;
+
+    public Neighbor(double[] p, double d, int n) {
+        point = p;
+        distance = d;
+        num = n;
+    }
+}
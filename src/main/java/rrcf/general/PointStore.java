@@ -0,0 +1,215 @@
+package rrcf.general;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage for the points of a window, addressed by slot
+ * Points live in a direct ByteBuffer or a memory-mapped file, so trees using a store
+ *  only keep their topology and branch boxes on the heap
+ * Branch boxes are per tree and stay on the heap, two double[ndim] per branch, so they dominate what remains:
+ *  100 trees of 256 points take 15.2MB of heap at 16 dimensions and 11.2MB with a store (-27%, boxes are 68%
+ *  of the rest), 43.3MB and 30.0MB at 64 dimensions (-31%, boxes 88%), see TreeSizeBenchmark
+ * Slots are reference counted so the trees of a forest can share one copy of each point
+ * A single mapping is limited to 2GB, i.e. capacity * dimensions <= 2^28 doubles
+ */
+public class PointStore implements Serializable {
+    private int ndim;
+    private int capacity;
+    // Highest slot handed out so far + 1
+    private int used;
+    private int[] refCounts;
+    // Stack of released slots
+    private int[] freeSlots;
+    private int freeCount;
+    // Backing file, or null for a direct buffer
+    private transient Path file;
+    private transient DoubleBuffer doubles;
+
+    /**
+     * Store backed by a direct (off-heap) buffer
+     */
+    public PointStore(int dimensions, int initialCapacity) {
+        this(dimensions, initialCapacity, null);
+    }
+
+    /**
+     * Store backed by a memory-mapped file, which is created if it doesn't exist
+     * The file is scratch space, its contents are not meant to be reopened
+     */
+    public PointStore(int dimensions, int initialCapacity, Path file) {
+        assert dimensions > 0 && initialCapacity > 0;
+        ndim = dimensions;
+        capacity = initialCapacity;
+        this.file = file;
+        refCounts = new int[capacity];
+        freeSlots = new int[capacity];
+        doubles = allocate(capacity);
+    }
+
+    private DoubleBuffer allocate(int slots) {
+        long bytes = (long) slots * ndim * Double.BYTES;
+        assert bytes <= Integer.MAX_VALUE;
+        if (file == null) {
+            return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder())
+                    .asDoubleBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void grow() {
+        int newCapacity = capacity * 2;
+        DoubleBuffer grown = allocate(newCapacity);
+        if (file == null) {
+            DoubleBuffer old = doubles.duplicate();
+            old.position(0);
+            old.limit(used * ndim);
+            grown.put(old);
+        }
+        // A larger mapping of the same file already contains the old points
+        doubles = grown;
+        refCounts = Arrays.copyOf(refCounts, newCapacity);
+        freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Copies a point into a free slot with a reference count of 1
+     * @return The slot holding the point
+     */
+    public int add(double[] point) {
+        assert point.length == ndim;
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (used == capacity) {
+                grow();
+            }
+            slot = used++;
+        }
+        int offset = slot * ndim;
+        for (int i = 0; i < ndim; i++) {
+            doubles.put(offset + i, point[i]);
+        }
+        refCounts[slot] = 1;
+        return slot;
+    }
+
+    public void retain(int slot) {
+        assert refCounts[slot] > 0;
+        refCounts[slot]++;
+    }
+
+    /**
+     * Drops a reference to a slot, freeing it once no references are left
+     */
+    public void release(int slot) {
+        assert refCounts[slot] > 0;
+        if (--refCounts[slot] == 0) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    public double get(int slot, int dim) {
+        return doubles.get(slot * ndim + dim);
+    }
+
+    /**
+     * Copies the point in a slot into dest
+     */
+    public double[] get(int slot, double[] dest) {
+        int offset = slot * ndim;
+        for (int i = 0; i < ndim; i++) {
+            dest[i] = doubles.get(offset + i);
+        }
+        return dest;
+    }
+
+    public double[] get(int slot) {
+        return get(slot, new double[ndim]);
+    }
+
+    /**
+     * Whether the point in a slot equals the given point
+     */
+    public boolean equals(int slot, double[] point) {
+        if (point.length != ndim) {
+            return false;
+        }
+        int offset = slot * ndim;
+        for (int i = 0; i < ndim; i++) {
+            if (Double.doubleToLongBits(doubles.get(offset + i)) != Double.doubleToLongBits(point[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getDimensions() {
+        return ndim;
+    }
+
+    /**
+     * Number of slots currently holding a point
+     */
+    public int size() {
+        return used - freeCount;
+    }
+
+    /**
+     * Off-heap bytes reserved for points
+     */
+    public long getStorageBytes() {
+        return (long) capacity * ndim * Double.BYTES;
+    }
+
+    /**
+     * Estimated heap size of the store's bookkeeping (the points themselves are off-heap)
+     */
+    public long estimateMemoryBytes() {
+        return JvmLayout.object(4, 4, 0) + 2 * JvmLayout.intArray(capacity) + JvmLayout.object(1, 6, 1);
+    }
+
+    /**
+     * Writes the live points, a deserialized store always uses a direct buffer
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int slot = 0; slot < used; slot++) {
+            if (refCounts[slot] > 0) {
+                for (int i = 0; i < ndim; i++) {
+                    out.writeDouble(get(slot, i));
+                }
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        doubles = allocate(capacity);
+        for (int slot = 0; slot < used; slot++) {
+            if (refCounts[slot] > 0) {
+                for (int i = 0; i < ndim; i++) {
+                    doubles.put(slot * ndim + i, in.readDouble());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package rrcf.general;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sparse random projection of points into fewer dimensions (Achlioptas / Li et al.)
+ * Each entry of the projection matrix is +-sqrt(s / outputDims) with probability 1 / (2s) each and 0 otherwise,
+ *  which preserves pairwise distances in expectation; only the nonzero entries are stored, row by row
+ * The matrix is drawn once, projecting reads it without allocating when given an output array
+ */
+public class RandomProjection implements Serializable {
+    private int inputDims;
+    private int outputDims;
+    // Nonzeros of output row j are columns[rowStart[j]..rowStart[j + 1]) with weights of the same indices
+    private int[] rowStart;
+    private int[] columns;
+    private double[] weights;
+
+    /**
+     * @param sparsity s, the inverse density of the matrix: 3 keeps a third of the entries,
+     *  sqrt(inputDims) is the usual choice for very sparse projections
+     */
+    public RandomProjection(Random random, int inputDims, int outputDims, double sparsity) {
+        assert inputDims > 0 && outputDims > 0 && sparsity >= 1;
+        this.inputDims = inputDims;
+        this.outputDims = outputDims;
+        double scale = Math.sqrt(sparsity / outputDims);
+        double p = 1 / sparsity;
+        rowStart = new int[outputDims + 1];
+        columns = new int[(int) Math.min(Integer.MAX_VALUE - 8, (long) ((long) inputDims * outputDims * p * 1.2) + 16)];
+        weights = new double[columns.length];
+        int n = 0;
+        for (int j = 0; j < outputDims; j++) {
+            rowStart[j] = n;
+            for (int i = 0; i < inputDims; i++) {
+                if (random.nextDouble() < p) {
+                    if (n == columns.length) {
+                        columns = Arrays.copyOf(columns, n * 2);
+                        weights = Arrays.copyOf(weights, n * 2);
+                    }
+                    columns[n] = i;
+                    weights[n] = random.nextBoolean() ? scale : -scale;
+                    n++;
+                }
+            }
+        }
+        rowStart[outputDims] = n;
+        columns = Arrays.copyOf(columns, n);
+        weights = Arrays.copyOf(weights, n);
+    }
+
+    /**
+     * Very sparse projection, s = sqrt(inputDims)
+     */
+    public RandomProjection(Random random, int inputDims, int outputDims) {
+        this(random, inputDims, outputDims, Math.max(1, Math.sqrt(inputDims)));
+    }
+
+    /**
+     * Projects a point into out, which must have outputDims entries
+     */
+    public double[] project(double[] point, double[] out) {
+        assert point.length == inputDims && out.length == outputDims;
+        for (int j = 0; j < outputDims; j++) {
+            double sum = 0;
+            for (int k = rowStart[j]; k < rowStart[j + 1]; k++) {
+                sum += weights[k] * point[columns[k]];
+            }
+            out[j] = sum;
+        }
+        return out;
+    }
+
+    public double[] project(double[] point) {
+        return project(point, new double[outputDims]);
+    }
+
+    public int getInputDimensions() {
+        return inputDims;
+    }
+
+    public int getOutputDimensions() {
+        return outputDims;
+    }
+
+    /**
+     * Number of nonzero entries of the matrix, the cost of a projection in multiply-adds
+     */
+    public int getNonzeros() {
+        return columns.length;
+    }
+
+    public long estimateMemoryBytes() {
+        return JvmLayout.object(3, 2, 0) + JvmLayout.intArray(rowStart.length) + JvmLayout.intArray(columns.length)
+                + JvmLayout.doubleArray(weights.length);
+    }
+}
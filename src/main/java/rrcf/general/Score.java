@@ -0,0 +1,20 @@
+package rrcf.general;
+
+/**
+ * Score of the index-th item of a stream, emitted by ForestProcessor
+ */
+public class Score {
+    public final long index;
+    // Average collusive displacement
+    public final double score;
+
+    public Score(long index, double score) {
+        this.index = index;
+        this.score = score;
+    }
+
+    @Override
+    public String toString() {
+        return index + ": " + score;
+    }
+}
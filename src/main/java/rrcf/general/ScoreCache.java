@@ -0,0 +1,141 @@
+package rrcf.general;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers each tree's leaf and score for recently added points, see Forest.setScoreCache
+ * Entries are kept for the most recently used points, keyed by point contents
+ * A point that doesn't reuse work causes a real update, which stales the scores of every other point in that tree,
+ *  so capacity should cover the distinct points that repeat within a window
+ * A leaf is reused while its tree's structure version is unchanged, skipping the search for the point,
+ *  and a score while the tree's version is unchanged, skipping the codisp walk
+ * Not thread safe, it is only used by the thread adding points
+ */
+public class ScoreCache {
+    private final Map<DoubleBuffer, Entry> entries;
+    private long lookups;
+    private long leafHits;
+    private long scoreHits;
+
+    static class Entry {
+        final double[] point;
+        final Leaf[] leaves;
+        final long[] structureVersions;
+        final long[] versions;
+        final double[] scores;
+
+        Entry(double[] point, int numTrees) {
+            this.point = point.clone();
+            leaves = new Leaf[numTrees];
+            structureVersions = new long[numTrees];
+            versions = new long[numTrees];
+            scores = new double[numTrees];
+            Arrays.fill(structureVersions, -1);
+            Arrays.fill(versions, -1);
+        }
+
+        /**
+         * Whether the leaf remembered for tree i is still in the tree
+         */
+        boolean hasLeaf(int i, Tree tree) {
+            return structureVersions[i] == tree.getStructureVersion();
+        }
+
+        void update(int i, Tree tree, Leaf leaf, double score) {
+            leaves[i] = leaf;
+            structureVersions[i] = tree.getStructureVersion();
+            versions[i] = tree.getVersion();
+            scores[i] = score;
+        }
+    }
+
+    /**
+     * @param capacity Number of distinct points remembered, the least recently used is dropped beyond it
+     */
+    public ScoreCache(int capacity) {
+        assert capacity > 0;
+        entries = new LinkedHashMap<DoubleBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DoubleBuffer, ScoreCache.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Entry for a point, created if the point isn't remembered
+     */
+    Entry lookup(double[] point, int numTrees) {
+        Entry entry = entries.get(DoubleBuffer.wrap(point));
+        if (entry == null || entry.leaves.length != numTrees) {
+            entry = new Entry(point, numTrees);
+            // Keyed by the entry's copy, the caller may reuse its array
+            entries.put(DoubleBuffer.wrap(entry.point), entry);
+        }
+        return entry;
+    }
+
+    void recordLookup() {
+        lookups++;
+    }
+
+    void recordLeafHit() {
+        leafHits++;
+    }
+
+    void recordScoreHit() {
+        scoreHits++;
+    }
+
+    /**
+     * Number of per-tree updates that went through the cache
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Updates that reused a leaf but had to recompute the score
+     */
+    public long getLeafHits() {
+        return leafHits;
+    }
+
+    /**
+     * Updates that reused both the leaf and the score, leaving the tree unchanged
+     */
+    public long getScoreHits() {
+        return scoreHits;
+    }
+
+    /**
+     * Fraction of updates that reused any work
+     */
+    public double getHitRate() {
+        return lookups == 0 ? 0 : (double) (leafHits + scoreHits) / lookups;
+    }
+
+    public void resetStatistics() {
+        lookups = 0;
+        leafHits = 0;
+        scoreHits = 0;
+    }
+
+    /**
+     * Estimated retained heap size in bytes, leaves are counted with their trees
+     */
+    public long estimateMemoryBytes() {
+        // LinkedHashMap entries carry two more references than HashMap's, DoubleBuffer keys wrap the entry's point
+        long bytes = JvmLayout.object(1, 0, 3) + JvmLayout.hashMap(entries.size())
+                + entries.size() * (2L * JvmLayout.REFERENCE + JvmLayout.object(3, 6, 0));
+        for (Entry entry : entries.values()) {
+            int n = entry.leaves.length;
+            bytes += JvmLayout.object(5, 0, 0) + JvmLayout.doubleArray(entry.point.length)
+                    + JvmLayout.referenceArray(n) + 2 * JvmLayout.longArray(n) + JvmLayout.doubleArray(n);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,141 @@
+package rrcf.general;
+
+import java.io.Serializable;
+
+/**
+ * Turns raw scores into normalized scores and anomaly flags without keeping score history
+ * Keeps a time-decayed quantile sketch of recent scores: log-spaced bins (relative accuracy as in DDSketch)
+ *  whose weights halve every halfLife updates, so memory is constant and the threshold follows drift
+ * A score is normalized by the current quantile of the scores before it, values above 1 are anomalies
+ * Thread safe, one instance can be shared by the forests of series whose scores are comparable
+ *  (same tree size and number of trees)
+ */
+public class ScoreThreshold implements Serializable {
+    // Scores below are counted in bin 0, scores above in the last bin
+    private static final double MIN_VALUE = 1e-3;
+    private static final double MAX_VALUE = 1e9;
+    // Weights are kept relative to a growing scale, renormalized before they overflow
+    private static final double RENORMALIZE = 1e100;
+
+    private final double quantile;
+    private final double growth;
+    private final double logGamma;
+    private final double gamma;
+    private final int warmup;
+    // Decayed weight per bin, in units of the current scale
+    private final double[] bins;
+    private double total;
+    private double scale = 1;
+    // Bin holding the quantile and the weight of the bins below it
+    private int thresholdBin;
+    private double below;
+    private long updates;
+
+    /**
+     * @param quantile Quantile of recent scores used as threshold, e.g. 0.99
+     * @param halfLife Number of updates after which a score counts half
+     * @param relativeAccuracy Relative error of the threshold
+     * @param warmup Number of updates before scores are normalized, 0 is returned until then
+     */
+    public ScoreThreshold(double quantile, double halfLife, double relativeAccuracy, int warmup) {
+        assert quantile > 0 && quantile < 1 && halfLife > 0 && relativeAccuracy > 0 && relativeAccuracy < 1;
+        this.quantile = quantile;
+        this.warmup = warmup;
+        growth = Math.pow(2, 1 / halfLife);
+        gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        logGamma = Math.log(gamma);
+        bins = new double[2 + (int) Math.ceil(Math.log(MAX_VALUE / MIN_VALUE) / logGamma)];
+    }
+
+    public ScoreThreshold(double quantile, double halfLife) {
+        this(quantile, halfLife, 0.01, 100);
+    }
+
+    /**
+     * Adds a score to the sketch
+     * @return Score divided by the threshold before it was added, 0 during warmup
+     */
+    public synchronized double update(double score) {
+        double normalized = updates < warmup ? 0 : score / getThresholdUnsynchronized();
+        updates++;
+        scale *= growth;
+        if (scale > RENORMALIZE) {
+            renormalize();
+        }
+        int bin = bin(score);
+        bins[bin] += scale;
+        total += scale;
+        if (bin < thresholdBin) {
+            below += scale;
+        }
+        // Moves the threshold bin back to the first one whose cumulative weight reaches the quantile
+        double target = quantile * total;
+        while (thresholdBin < bins.length - 1 && below + bins[thresholdBin] < target) {
+            below += bins[thresholdBin];
+            thresholdBin++;
+        }
+        while (thresholdBin > 0 && below >= target) {
+            thresholdBin--;
+            below -= bins[thresholdBin];
+        }
+        return normalized;
+    }
+
+    /**
+     * Whether a normalized score returned by update is anomalous
+     */
+    public static boolean isAnomaly(double normalized) {
+        return normalized > 1;
+    }
+
+    /**
+     * Current threshold, the quantile of recent scores within the relative accuracy
+     */
+    public synchronized double getThreshold() {
+        return getThresholdUnsynchronized();
+    }
+
+    private double getThresholdUnsynchronized() {
+        if (thresholdBin == 0) {
+            return MIN_VALUE;
+        }
+        // Interpolated geometrically within the bin (MIN_VALUE * gamma^(i-1), MIN_VALUE * gamma^i] by the
+        //  weight needed to reach the quantile, so the flagged fraction doesn't jump by a whole bin
+        double fraction = bins[thresholdBin] > 0 ? (quantile * total - below) / bins[thresholdBin] : 1;
+        return MIN_VALUE * Math.pow(gamma, thresholdBin - 1 + Math.max(0, Math.min(1, fraction)));
+    }
+
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    private int bin(double score) {
+        if (!(score > MIN_VALUE)) {
+            return 0;
+        }
+        return Math.min(bins.length - 1, Math.max(1, (int) Math.ceil(Math.log(score / MIN_VALUE) / logGamma)));
+    }
+
+    /**
+     * Rescales the weights to the current scale, which also clears rounding drift in below
+     */
+    private void renormalize() {
+        total = 0;
+        below = 0;
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] /= scale;
+            total += bins[i];
+            if (i < thresholdBin) {
+                below += bins[i];
+            }
+        }
+        scale = 1;
+    }
+
+    /**
+     * Estimated retained heap size in bytes
+     */
+    public long estimateMemoryBytes() {
+        return JvmLayout.object(1, 2, 8) + JvmLayout.doubleArray(bins.length);
+    }
+}
@@ -16,8 +16,12 @@ public class ShingledForest extends Forest implements Serializable {
     private int shingleSize;
     private Deque<Double> buffer;
 
-    public ShingledForest(Random random, int shingleSize, int numTrees, int treeSize, double[] data) {
-        super(random, numTrees, treeSize, shinglePoints(shingleSize, data));
+    /**
+     * @param store Off-heap storage for the window's shingles, or null to keep them on heap
+     */
+    public ShingledForest(Random random, int shingleSize, int numTrees, int treeSize, double[] data,
+            PointStore store) {
+        super(random, numTrees, treeSize, shinglePoints(shingleSize, data), store);
         this.shingleSize = shingleSize;
         buffer = new ArrayDeque<>();
         for (int i = 0; i < shingleSize; i++) {
@@ -30,6 +34,14 @@ public class ShingledForest extends Forest implements Serializable {
         }
     }
 
+    public ShingledForest(Random random, int shingleSize, int numTrees, int treeSize, double[] data) {
+        this(random, shingleSize, numTrees, treeSize, data, null);
+    }
+
+    public ShingledForest(Random random, int shingleSize, int numTrees, int treeSize, PointStore store) {
+        this(random, shingleSize, numTrees, treeSize, new double[0], store);
+    }
+
     public ShingledForest(Random random, int shingleSize, int numTrees, int treeSize) {
         this(random, shingleSize, numTrees, treeSize, new double[0]);
     }
@@ -38,6 +50,39 @@ public class ShingledForest extends Forest implements Serializable {
         this(new Random(), shingleSize, numTrees, treeSize);
     }
 
+    /**
+     * Forest around existing trees, with the last values of the stream in `buffered`
+     */
+    ShingledForest(Tree[] trees, int shingleSize, int treeSize, int currentIndex, double[] buffered) {
+        super(trees, treeSize, currentIndex);
+        this.shingleSize = shingleSize;
+        buffer = new ArrayDeque<>();
+        for (double value : buffered) {
+            buffer.addLast(value);
+        }
+    }
+
+    public int getShingleSize() {
+        return shingleSize;
+    }
+
+    /**
+     * The last (up to shingleSize) values of the stream, oldest first
+     */
+    double[] getBuffered() {
+        return unboxArray(buffer.toArray(new Double[buffer.size()]));
+    }
+
+    @Override
+    public long estimateMemoryBytes() {
+        return super.estimateMemoryBytes() + JvmLayout.boxedDoubleDeque(buffer.size(), 16);
+    }
+
+    @Override
+    protected long estimateShallowBytes() {
+        return JvmLayout.object(9, 7, 3);
+    }
+
     private static double[][] shinglePoints(int shingleSize, double[] data) {
         if (data.length < shingleSize) {
             return new double[0][shingleSize];
@@ -0,0 +1,417 @@
+package rrcf.general;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import rrcf.general.Tree.Cut;
+
+/**
+ * Compact snapshot encoding of a ShingledForest
+ * Every leaf of a shingled forest is a window of the same scalar stream, so instead of
+ *  storing a shingle per leaf and a box per branch:
+ * - The raw stream covering the window is stored once, XOR compressed (Gorilla style)
+ * - Each tree is stored as a preorder sequence of cuts (dimension + XOR compressed value)
+ *   and leaves (stream offsets of the keys they hold)
+ * - Bounding boxes and leaf depths are recomputed on load
+ * The shared Random is included, and the own Random of trees that have one (added by Forest.addTrees),
+ *  so a decoded forest continues exactly like the original
+ * Leaves are decoded onto the heap, whether or not the original used a PointStore
+ * Every tree has to hold the window, forests with shed or added trees still catching up are rejected
+ *
+ * Layout: header, Random, raw window, buffered tail, then one tree after another, each preceded by
+ *  a bit telling whether it shares the first tree's Random or is followed by its own (version 2+)
+ */
+public final class ShingledForestCodec {
+    private static final int MAGIC = 0x52524346;
+    private static final int VERSION = 2;
+
+    private ShingledForestCodec() {
+    }
+
+    public static byte[] encode(ShingledForest forest) {
+        // Leaves are rebuilt from the raw stream, which only gives the tree points without a projection
+        if (forest.getProjection() != null) {
+            throw new IllegalArgumentException("Forests with a projection can't be encoded");
+        }
+        // Trees catching up with the window (shed or warming) hold other points than the window's
+        if (forest.getActiveTrees() < forest.getNumTrees() || forest.getPendingTrees() > 0) {
+            throw new IllegalArgumentException("Forests with trees catching up can't be encoded, call catchUp() first");
+        }
+        BitOutput out = new BitOutput();
+        int shingleSize = forest.getShingleSize();
+        Tree[] trees = forest.trees;
+        out.writeBits(MAGIC, 32);
+        out.writeBits(VERSION, 8);
+        out.writeVarint(shingleSize);
+        out.writeVarint(forest.getTreeSize());
+        out.writeVarint(trees.length);
+        out.writeVarint(forest.getCurrentIndex());
+
+        Random shared = trees.length > 0 ? trees[0].getRandom() : new Random();
+        writeRandom(shared, out);
+
+        // Raw stream values covering every shingle in the window
+        int start = Integer.MAX_VALUE;
+        int end = Integer.MIN_VALUE;
+        Map<Object, Leaf> leaves = trees.length > 0 ? trees[0].getLeavesMap() : new HashMap<>();
+        for (Object key : leaves.keySet()) {
+            start = Math.min(start, (Integer) key);
+            end = Math.max(end, (Integer) key);
+        }
+        double[] raw = new double[leaves.isEmpty() ? 0 : end - start + shingleSize];
+        for (Map.Entry<Object, Leaf> entry : leaves.entrySet()) {
+            double[] point = trees[0].getPoint(entry.getValue());
+            System.arraycopy(point, 0, raw, (Integer) entry.getKey() - start, shingleSize);
+        }
+        out.writeVarint(leaves.isEmpty() ? 0 : start);
+        out.writeVarint(raw.length);
+        XorEncoder values = new XorEncoder(out);
+        for (double v : raw) {
+            values.write(v);
+        }
+
+        double[] buffered = forest.getBuffered();
+        out.writeVarint(buffered.length);
+        values = new XorEncoder(out);
+        for (double v : buffered) {
+            values.write(v);
+        }
+
+        int keyBits = bitsFor(raw.length - shingleSize);
+        int dimBits = bitsFor(shingleSize - 1);
+        for (Tree tree : trees) {
+            // Keys held by each leaf
+            Map<Leaf, List<Integer>> keys = new IdentityHashMap<>();
+            for (Map.Entry<Object, Leaf> entry : tree.getLeavesMap().entrySet()) {
+                keys.computeIfAbsent(entry.getValue(), (l) -> new ArrayList<>()).add((Integer) entry.getKey());
+            }
+            out.writeBit(tree.getRandom() == shared);
+            if (tree.getRandom() != shared) {
+                writeRandom(tree.getRandom(), out);
+            }
+            out.writeBit(tree.getRoot() != null);
+            if (tree.getRoot() != null) {
+                encodeNode(tree.getRoot(), keys, start, keyBits, dimBits, new XorEncoder(out), out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void encodeNode(Node node, Map<Leaf, List<Integer>> keys, int start, int keyBits, int dimBits,
+            XorEncoder cuts, BitOutput out) {
+        if (node instanceof Branch) {
+            Branch b = (Branch) node;
+            out.writeBit(true);
+            out.writeBits(b.cut.dim, dimBits);
+            cuts.write(b.cut.value);
+            encodeNode(b.left, keys, start, keyBits, dimBits, cuts, out);
+            encodeNode(b.right, keys, start, keyBits, dimBits, cuts, out);
+        } else {
+            List<Integer> leafKeys = keys.get((Leaf) node);
+            out.writeBit(false);
+            out.writeVarint(leafKeys.size() - 1);
+            for (int key : leafKeys) {
+                out.writeBits(key - start, keyBits);
+            }
+        }
+    }
+
+    public static ShingledForest decode(byte[] bytes) {
+        BitInput in = new BitInput(bytes);
+        if (in.readBits(32) != MAGIC) {
+            throw new IllegalArgumentException("Not a shingled forest snapshot");
+        }
+        int version = (int) in.readBits(8);
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        }
+        int shingleSize = in.readVarint();
+        int treeSize = in.readVarint();
+        int numTrees = in.readVarint();
+        int currentIndex = in.readVarint();
+
+        Random random = readRandom(in);
+
+        int start = in.readVarint();
+        double[] raw = new double[in.readVarint()];
+        XorDecoder values = new XorDecoder(in);
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = values.read();
+        }
+        double[] buffered = new double[in.readVarint()];
+        values = new XorDecoder(in);
+        for (int i = 0; i < buffered.length; i++) {
+            buffered[i] = values.read();
+        }
+
+        // One point array per shingle, shared by all trees like points added through the forest
+        double[][] shingles = new double[Math.max(0, raw.length - shingleSize + 1)][];
+        int keyBits = bitsFor(raw.length - shingleSize);
+        int dimBits = bitsFor(shingleSize - 1);
+        Tree[] trees = new Tree[numTrees];
+        for (int t = 0; t < numTrees; t++) {
+            // Version 1 snapshots only have the shared Random
+            Random treeRandom = version < 2 || in.readBit() ? random : readRandom(in);
+            Map<Object, Leaf> leaves = new HashMap<>();
+            Node root = null;
+            if (in.readBit()) {
+                root = decodeNode(in, 0, leaves, raw, shingles, shingleSize, start, keyBits, dimBits,
+                        new XorDecoder(in));
+            }
+            trees[t] = new Tree(treeRandom, root, leaves, shingleSize);
+        }
+        return new ShingledForest(trees, shingleSize, treeSize, currentIndex, buffered);
+    }
+
+    private static Node decodeNode(BitInput in, int depth, Map<Object, Leaf> leaves, double[] raw,
+            double[][] shingles, int shingleSize, int start, int keyBits, int dimBits, XorDecoder cuts) {
+        if (in.readBit()) {
+            int dim = (int) in.readBits(dimBits);
+            Cut cut = new Cut(dim, cuts.read());
+            Node left = decodeNode(in, depth + 1, leaves, raw, shingles, shingleSize, start, keyBits, dimBits, cuts);
+            Node right = decodeNode(in, depth + 1, leaves, raw, shingles, shingleSize, start, keyBits, dimBits, cuts);
+            Branch branch = new Branch(cut, left, right, left.num + right.num);
+            left.parent = branch;
+            right.parent = branch;
+            return branch;
+        }
+        int num = in.readVarint() + 1;
+        Leaf leaf = null;
+        for (int i = 0; i < num; i++) {
+            int offset = (int) in.readBits(keyBits);
+            if (leaf == null) {
+                if (shingles[offset] == null) {
+                    shingles[offset] = new double[shingleSize];
+                    System.arraycopy(raw, offset, shingles[offset], 0, shingleSize);
+                }
+                leaf = new Leaf(shingles[offset], depth);
+                leaf.num = num;
+            }
+            leaves.put(start + offset, leaf);
+        }
+        return leaf;
+    }
+
+    /**
+     * Number of bits needed to store values in [0, max]
+     */
+    private static int bitsFor(int max) {
+        return max <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(max);
+    }
+
+    private static void writeRandom(Random random, BitOutput out) {
+        byte[] bytes = serializeRandom(random);
+        out.writeVarint(bytes.length);
+        for (byte b : bytes) {
+            out.writeBits(b & 0xFF, 8);
+        }
+    }
+
+    private static Random readRandom(BitInput in) {
+        byte[] bytes = new byte[in.readVarint()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) in.readBits(8);
+        }
+        return deserializeRandom(bytes);
+    }
+
+    private static byte[] serializeRandom(Random random) {
+        try {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            ObjectOutputStream o = new ObjectOutputStream(b);
+            o.writeObject(random);
+            o.close();
+            return b.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Random deserializeRandom(byte[] bytes) {
+        try {
+            return (Random) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Gorilla XOR compression of a sequence of doubles
+     * Each value is XORed with the previous one: identical values take 1 bit, values sharing
+     *  sign, exponent and leading mantissa bits only store the differing bits
+     */
+    static class XorEncoder {
+        private BitOutput out;
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+        private boolean first = true;
+
+        XorEncoder(BitOutput out) {
+            this.out = out;
+        }
+
+        void write(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.writeBits(bits, 64);
+                first = false;
+                previous = bits;
+                return;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+            int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                // Fits in the previous meaningful window
+                out.writeBit(false);
+                out.writeBits(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                leading = lead;
+                trailing = trail;
+                int length = 64 - lead - trail;
+                out.writeBit(true);
+                out.writeBits(lead, 5);
+                out.writeBits(length - 1, 6);
+                out.writeBits(xor >>> trail, length);
+            }
+        }
+    }
+
+    static class XorDecoder {
+        private BitInput in;
+        private long previous;
+        private int leading;
+        private int trailing;
+        private boolean first = true;
+
+        XorDecoder(BitInput in) {
+            this.in = in;
+        }
+
+        double read() {
+            if (first) {
+                first = false;
+                previous = in.readBits(64);
+            } else if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(5);
+                    int length = (int) in.readBits(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                previous ^= in.readBits(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    static class BitOutput {
+        private byte[] bytes = new byte[1024];
+        private int size;
+        // Bits not yet flushed to bytes, `used` of them
+        private int current;
+        private int used;
+
+        void writeBit(boolean bit) {
+            writeBits(bit ? 1 : 0, 1);
+        }
+
+        /**
+         * Writes the lowest n bits of value, most significant first
+         */
+        void writeBits(long value, int n) {
+            while (n > 0) {
+                int take = Math.min(n, 8 - used);
+                int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+                current = (current << take) | chunk;
+                used += take;
+                n -= take;
+                if (used == 8) {
+                    if (size == bytes.length) {
+                        bytes = Arrays.copyOf(bytes, size * 2);
+                    }
+                    bytes[size++] = (byte) current;
+                    current = 0;
+                    used = 0;
+                }
+            }
+        }
+
+        /**
+         * Non-negative int in 7 bit groups, each followed by a continuation bit
+         */
+        void writeVarint(int value) {
+            assert value >= 0;
+            do {
+                writeBits(value & 0x7F, 7);
+                value >>>= 7;
+                writeBit(value != 0);
+            } while (value != 0);
+        }
+
+        byte[] toByteArray() {
+            if (used > 0) {
+                // Pad the last byte with zeros
+                writeBits(0, 8 - used);
+            }
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    static class BitInput {
+        private byte[] bytes;
+        private long position;
+
+        BitInput(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        long readBits(int n) {
+            long value = 0;
+            while (n > 0) {
+                int offset = (int) (position & 7);
+                int take = Math.min(n, 8 - offset);
+                int b = bytes[(int) (position >>> 3)] & 0xFF;
+                value = (value << take) | ((b >>> (8 - offset - take)) & ((1 << take) - 1));
+                position += take;
+                n -= take;
+            }
+            return value;
+        }
+
+        int readVarint() {
+            int value = 0;
+            int shift = 0;
+            boolean more;
+            do {
+                value |= (int) readBits(7) << shift;
+                shift += 7;
+                more = readBit();
+            } while (more);
+            return value;
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package rrcf.general;
 
 import java.util.Map;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
 import java.io.Serializable;
 
 /**
@@ -30,10 +35,39 @@ public class Tree implements Serializable {
     // Allows leaves to be accessed with external key
     private Map<Object, Leaf> leavesMap;
     private Random random;
+    // Optional off-heap storage of leaf points, leaves hold a slot instead of a point when set
+    private PointStore store;
+    // Scratch space for reading stored points, unused without a store
+    private double[][] leafBoxA;
+    private double[][] leafBoxB;
+    private double[] insertedPoint;
+    private double[] removedPoint;
+    // Bumped when leaves or branches are added or removed
+    private long structureVersion;
+    // Bumped on any change, including leaf counts of duplicates
+    private long version;
+    // Structure version right after the last compaction
+    private long compactedVersion;
 
     public Tree(Random r, double[][] points) {
+        this(r, points, null, null);
+    }
+
+    /**
+     * Builds a tree whose leaves reference points in a store
+     * slots[i] is the slot holding points[i], each leaf retains the slot it references
+     */
+    Tree(Random r, double[][] points, PointStore store, int[] slots) {
         leavesMap = new HashMap<>();
         random = r;
+        this.store = store;
+        if (store != null) {
+            ndim = store.getDimensions();
+            leafBoxA = new double[1][ndim];
+            leafBoxB = new double[1][ndim];
+            insertedPoint = new double[ndim];
+            removedPoint = new double[ndim];
+        }
         if (points.length == 0) {
             return;
         }
@@ -43,7 +77,28 @@ public class Tree implements Serializable {
         }
         // Has to be before tree building
         ndim = points[0].length;
-        root = buildTreeDown(points, indices, 0);
+        root = buildTreeDown(points, indices, slots, 0);
+    }
+
+    /**
+     * Empty tree keeping its leaf points in an off-heap store, branch boxes stay on the heap (see PointStore)
+     */
+    public Tree(Random r, PointStore store) {
+        this(r, new double[0][0], store, null);
+    }
+
+    /**
+     * Tree from an already linked structure (parents, counts and leaf depths set)
+     * Branch bounding boxes are recomputed from the leaves
+     */
+    Tree(Random r, Node root, Map<Object, Leaf> leaves, int ndim) {
+        this(r);
+        this.root = root;
+        this.ndim = ndim;
+        leavesMap = leaves;
+        if (root != null) {
+            mapBranches((branch) -> branch.point = mergeChildrenBoxes(branch));
+        }
     }
 
     public Tree(double[][] points) {
@@ -58,7 +113,7 @@ public class Tree implements Serializable {
         this(new Random());
     }
 
-    private Node buildTreeDown(double[][] points, int[] indices, int depth) {
+    private Node buildTreeDown(double[][] points, int[] indices, int[] slots, int depth) {
         // TODO: Somewhat inefficient, potentially improve?
         double[][] box = getBoxFromPoints(points);
         // Check if the array is all duplicates and return a leaf if it is
@@ -69,7 +124,7 @@ public class Tree implements Serializable {
 
             // All duplicates found
             if (i == box[0].length - 1) {
-                Leaf leaf = new Leaf(box[0], depth);
+                Leaf leaf = createLeaf(box[0], slots == null ? -1 : slots[indices[0]], depth);
                 leaf.num = points.length;
                 for (int d : indices) {
                     leavesMap.put(d, leaf);
@@ -105,8 +160,8 @@ public class Tree implements Serializable {
                 rightIndex++;
             }
         }
-        Node left = buildTreeDown(leftP, leftI, depth + 1);
-        Node right = buildTreeDown(rightP, rightI, depth + 1);
+        Node left = buildTreeDown(leftP, leftI, slots, depth + 1);
+        Node right = buildTreeDown(rightP, rightI, slots, depth + 1);
         Branch branch = new Branch(c, left, right, left.num + right.num);
         branch.point = mergeChildrenBoxes(branch);
         left.parent = branch;
@@ -128,6 +183,52 @@ public class Tree implements Serializable {
         return leavesMap.size();
     }
 
+    /**
+     * Estimated retained heap size of the tree in bytes, computed from node counts,
+     * dimensionality and the JVM's object layout
+     * Includes the tree's Random and the leaf point arrays, or the heap part of its point store
+     */
+    public long estimateMemoryBytes() {
+        long[] leaves = { 0 };
+        if (root != null) {
+            mapLeaves((leaf) -> leaves[0] += leaf.point == null ? 0 : 1);
+        }
+        long bytes = estimateStructureBytes() + JvmLayout.random() + leaves[0] * JvmLayout.doubleArray(ndim);
+        return store == null ? bytes : bytes + store.estimateMemoryBytes();
+    }
+
+    /**
+     * Estimated heap size of the tree excluding its Random, leaf point arrays and point store,
+     * which may be shared with other trees
+     */
+    long estimateStructureBytes() {
+        long bytes = JvmLayout.object(8, 1, 3) + JvmLayout.hashMap(leavesMap.size());
+        if (store != null) {
+            bytes += 2 * (JvmLayout.referenceArray(1) + 2 * JvmLayout.doubleArray(ndim));
+        }
+        for (Object key : leavesMap.keySet()) {
+            // Integers in [-128, 127] are cached by autoboxing
+            if (!(key instanceof Integer) || (Integer) key < -128 || (Integer) key > 127) {
+                bytes += JvmLayout.boxedInt();
+            }
+        }
+        if (root == null) {
+            return bytes;
+        }
+        long[] counts = { 0, 0, 0 };
+        mapLeaves((leaf) -> {
+            counts[0]++;
+            counts[2] += leaf.point == null ? 0 : 1;
+        });
+        mapBranches((branch) -> counts[1]++);
+        // Leaf: parent, point; num, depth, slot + the single element wrapper around the point, if on heap
+        long leafBytes = JvmLayout.object(2, 3, 0);
+        // Branch: parent, point, cut, left, right; num + the bounding box + the cut
+        long branchBytes = JvmLayout.object(5, 1, 0) + JvmLayout.referenceArray(2) + 2 * JvmLayout.doubleArray(ndim)
+                + JvmLayout.object(0, 1, 1);
+        return bytes + counts[0] * leafBytes + counts[2] * JvmLayout.referenceArray(1) + counts[1] * branchBytes;
+    }
+
     /**
      * Prints a node to provided string
      * Updates the given string array: { depth, tree } strings
@@ -141,7 +242,7 @@ public class Tree implements Serializable {
             depthAndTreeString[0] = depthAndTreeString[0].substring(0, depthAndTreeString[0].length() - 4);
         };
         if (node instanceof Leaf) {
-            depthAndTreeString[1] += String.format("(%s)\n", Arrays.toString(node.point[0]));
+            depthAndTreeString[1] += String.format("(%s)\n", Arrays.toString(leafBox((Leaf) node, leafBoxA)[0]));
         } else if (node instanceof Branch) {
             Branch b = (Branch)node;
             depthAndTreeString[1] += String.format("%c+ cut: (%d, %f), box: (%s, %s)\n", 9472, b.cut.dim, b.cut.value, Arrays.toString(b.point[0]), Arrays.toString(b.point[b.point.length - 1]));
@@ -196,6 +297,7 @@ public class Tree implements Serializable {
      */
     public Node forgetPoint(Object index) {
         Node leaf = leavesMap.get(index);
+        version++;
 
         // If duplicate points exist, decrease num for all nodes above
         if (leaf.num > 1) {
@@ -203,10 +305,14 @@ public class Tree implements Serializable {
             return leavesMap.remove(index);
         }
 
+        structureVersion++;
         // If leaf is root
         if (root.equals(leaf)) {
             root = null;
-            ndim = -1;
+            if (store == null) {
+                ndim = -1;
+            }
+            releaseLeaf((Leaf) leaf);
             return leavesMap.remove(index);
         }
 
@@ -220,6 +326,7 @@ public class Tree implements Serializable {
             leaf.parent = null; // In case the returned node is used somehow
             root = sibling;
             increaseLeafDepth(-1, sibling);
+            releaseLeaf((Leaf) leaf);
             return leavesMap.remove(index);
         }
 
@@ -238,17 +345,41 @@ public class Tree implements Serializable {
         // Update leaf counts for each branch
         updateLeafCountUpwards(parent, -1);
         // Update bounding boxes
-        shrinkBoxUp(parent, leaf.point[0]);
+        double[] point = store == null ? leaf.point[0] : store.get(((Leaf) leaf).slot, removedPoint);
+        shrinkBoxUp(parent, point);
+        releaseLeaf((Leaf) leaf);
         return leavesMap.remove(index);
     }
 
     /**
      * Insert a point into the tree with a given index and create a new leaf
+     * With a point store, the point is copied into the store
      */
     public Leaf insertPoint(double[] point, Object index) {
+        if (store != null) {
+            int slot = store.add(point);
+            Leaf leaf = insertPoint(point, index, slot);
+            store.release(slot);
+            return leaf;
+        }
+        return insertPoint(point, index, -1);
+    }
+
+    /**
+     * Insert a point already held by the tree's point store
+     * A new leaf retains the slot, a duplicate of an existing leaf doesn't
+     */
+    public Leaf insertStoredPoint(int slot, Object index) {
+        assert store != null;
+        return insertPoint(store.get(slot, insertedPoint), index, slot);
+    }
+
+    private Leaf insertPoint(double[] point, Object index, int slot) {
+        version++;
         // If no points, set necessary variables
         if (root == null) {
-            Leaf leaf = new Leaf(point, 0);
+            structureVersion++;
+            Leaf leaf = createLeaf(point, slot, 0);
             root = leaf;
             ndim = point.length;
             return leavesMap.put(index, leaf);
@@ -267,6 +398,7 @@ public class Tree implements Serializable {
         }
 
         // No duplicates found, continue
+        structureVersion++;
         Node node = root;
         Branch parent = null;
         Leaf leaf = null;
@@ -274,14 +406,14 @@ public class Tree implements Serializable {
         boolean useLeftSide = false;
         // Traverse tree until insertion spot found
         for (int i = 0; i < size(); i++) {
-            double[][] bbox = node.point;
+            double[][] bbox = boxOf(node, leafBoxA);
             Cut c = insertPointCut(point, bbox);
             if (c.value < bbox[0][c.dim]) {
-                leaf = new Leaf(point, i);
+                leaf = createLeaf(point, slot, i);
                 branch = new Branch(c, leaf, node, leaf.num + node.num);
                 break;
             } else if (c.value >= bbox[bbox.length - 1][c.dim] && point[c.dim] > c.value) {
-                leaf = new Leaf(point, i);
+                leaf = createLeaf(point, slot, i);
                 branch = new Branch(c, node, leaf, leaf.num + node.num);
                 break;
             } else {
@@ -320,6 +452,211 @@ public class Tree implements Serializable {
         return leaf;
     }
 
+    /**
+     * Inserts a point known to equal an existing leaf's point, skipping the search for it
+     */
+    void insertDuplicate(Leaf leaf, Object index) {
+        assert !leavesMap.containsKey(index);
+        version++;
+        updateLeafCountUpwards(leaf, 1);
+        leavesMap.put(index, leaf);
+    }
+
+    /**
+     * Moves a point to a new key, which leaves the tree unchanged
+     */
+    void renamePoint(Object from, Object to) {
+        assert !leavesMap.containsKey(to);
+        leavesMap.put(to, leavesMap.remove(from));
+    }
+
+    /**
+     * Reallocates the nodes in a locality-friendly order: breadth-first for the top levels, which every descent
+     *  goes through, then each subtree below them depth-first, so the nodes of a descent were allocated close together
+     * A branch's cut and box are allocated right after it, leaf points stay shared with other trees
+     * Leaves are replaced, Leaf references held outside the tree become stale (the structure version changes)
+     */
+    public void compact(int topLevels) {
+        if (root == null) {
+            return;
+        }
+        IdentityHashMap<Leaf, Leaf> copies = new IdentityHashMap<>(leavesMap.size());
+        // Old nodes with their copies, whose children are still to be copied
+        ArrayDeque<Node> olds = new ArrayDeque<>();
+        ArrayDeque<Node> news = new ArrayDeque<>();
+        Node oldRoot = root;
+        root = copyNode(oldRoot, null, copies);
+        olds.add(oldRoot);
+        news.add(root);
+        for (int level = 1; level < topLevels && !olds.isEmpty(); level++) {
+            for (int n = olds.size(); n > 0; n--) {
+                Node old = olds.poll();
+                Node copy = news.poll();
+                if (old instanceof Branch) {
+                    Branch b = (Branch) old;
+                    Branch c = (Branch) copy;
+                    c.left = copyNode(b.left, c, copies);
+                    c.right = copyNode(b.right, c, copies);
+                    olds.add(b.left);
+                    news.add(c.left);
+                    olds.add(b.right);
+                    news.add(c.right);
+                }
+            }
+        }
+
+        // Subtrees below in preorder, the stack holds old nodes to copy with the copy of their parent
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        ArrayDeque<Branch> parents = new ArrayDeque<>();
+        while (!olds.isEmpty()) {
+            Node old = olds.poll();
+            Node copy = news.poll();
+            if (old instanceof Branch) {
+                stack.push(((Branch) old).right);
+                parents.push((Branch) copy);
+                stack.push(((Branch) old).left);
+                parents.push((Branch) copy);
+            }
+            while (!stack.isEmpty()) {
+                Node child = stack.pop();
+                Branch parent = parents.pop();
+                Node childCopy = copyNode(child, parent, copies);
+                if (child == child.parent.left) {
+                    parent.left = childCopy;
+                } else {
+                    parent.right = childCopy;
+                }
+                if (child instanceof Branch) {
+                    stack.push(((Branch) child).right);
+                    parents.push((Branch) childCopy);
+                    stack.push(((Branch) child).left);
+                    parents.push((Branch) childCopy);
+                }
+            }
+        }
+
+        for (Map.Entry<Object, Leaf> entry : leavesMap.entrySet()) {
+            entry.setValue(copies.get(entry.getValue()));
+        }
+        structureVersion++;
+        compactedVersion = structureVersion;
+    }
+
+    /**
+     * Compacts with the top 6 levels (63 branches) laid out breadth-first
+     */
+    public void compact() {
+        compact(6);
+    }
+
+    private static Node copyNode(Node node, Branch parent, IdentityHashMap<Leaf, Leaf> copies) {
+        Node copy;
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf l = new Leaf(leaf.slot, leaf.depth);
+            if (leaf.point != null) {
+                l.point = new double[][] { leaf.point[0] };
+            }
+            copies.put(leaf, l);
+            copy = l;
+        } else {
+            Branch branch = (Branch) node;
+            Branch b = new Branch(new Cut(branch.cut.dim, branch.cut.value), null, null, 0);
+            b.point = new double[][] { branch.point[0].clone(), branch.point[branch.point.length - 1].clone() };
+            copy = b;
+        }
+        copy.num = node.num;
+        copy.parent = parent;
+        return copy;
+    }
+
+    /**
+     * Number of leaves and branches added or removed since the last compaction (or creation)
+     */
+    public long getChurn() {
+        return structureVersion - compactedVersion;
+    }
+
+    /**
+     * Counter that changes whenever leaves or branches are added or removed, leaves stay valid while it doesn't
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * Counter that changes whenever a point is inserted or forgotten, scores stay valid while it doesn't
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Creates a leaf for a point, referencing its slot if the tree uses a point store
+     */
+    private Leaf createLeaf(double[] point, int slot, int depth) {
+        if (store == null) {
+            return new Leaf(point, depth);
+        }
+        store.retain(slot);
+        return new Leaf(slot, depth);
+    }
+
+    /**
+     * Drops a removed leaf's reference to its stored point
+     */
+    private void releaseLeaf(Leaf leaf) {
+        if (store != null) {
+            store.release(leaf.slot);
+        }
+    }
+
+    /**
+     * Bounding box of a node, a stored leaf's point is read into the given scratch box
+     */
+    private double[][] boxOf(Node node, double[][] scratch) {
+        if (node.point != null) {
+            return node.point;
+        }
+        return leafBox((Leaf) node, scratch);
+    }
+
+    private double[][] leafBox(Leaf leaf, double[][] scratch) {
+        if (leaf.point != null) {
+            return leaf.point;
+        }
+        store.get(leaf.slot, scratch[0]);
+        return scratch;
+    }
+
+    /**
+     * The point stored in a leaf
+     * Returns the leaf's own array when on heap, or a copy read from the point store
+     */
+    public double[] getPoint(Leaf leaf) {
+        return leaf.point != null ? leaf.point[0] : store.get(leaf.slot);
+    }
+
+    public PointStore getPointStore() {
+        return store;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    Map<Object, Leaf> getLeavesMap() {
+        return leavesMap;
+    }
+
+    Random getRandom() {
+        return random;
+    }
+
+    public int getDimensions() {
+        return ndim;
+    }
+
     /**
      * Gets the sibling of a node
      */
@@ -393,11 +730,12 @@ public class Tree implements Serializable {
      * Get bounding box of branch based on its children
      */
     private double[][] mergeChildrenBoxes(Branch node) {
+        double[][] left = boxOf(node.left, leafBoxA);
+        double[][] right = boxOf(node.right, leafBoxB);
         double[][] box = new double[2][ndim];
         for (int i = 0; i < ndim; i++) {
-            box[0][i] = Math.min(node.left.point[0][i], node.right.point[0][i]);
-            box[1][i] = Math.max(node.left.point[node.left.point.length - 1][i],
-                    node.right.point[node.right.point.length - 1][i]);
+            box[0][i] = Math.min(left[0][i], right[0][i]);
+            box[1][i] = Math.max(left[left.length - 1][i], right[right.length - 1][i]);
         }
         return box;
     }
@@ -483,12 +821,223 @@ public class Tree implements Serializable {
         return maxResult;
     }
 
+    /**
+     * Wrapper for attribution by leaf
+     */
+    public double[] getAttribution(Object key) {
+        double[] attribution = new double[ndim];
+        addAttribution(leavesMap.get(key), attribution);
+        return attribution;
+    }
+
+    /**
+     * Collusive displacement of a leaf apportioned across dimensions, in the same walk up the tree
+     * The level giving the displacement is where the leaf's subtree got cut off from its sibling, so the score is
+     *  split by how far apart the two boxes are in each dimension, i.e. how likely a random cut on that dimension
+     *  was to separate them
+     * @param dest Attribution of each dimension is added to it, the added values sum to the collusive displacement
+     * @return Collusive displacement of the leaf
+     */
+    public int addAttribution(Leaf leaf, double[] dest) {
+        if (leaf.equals(root)) {
+            return 0;
+        }
+
+        Node node = leaf;
+        Node maxNode = null;
+        int maxResult = -1;
+        while (node.parent != null) {
+            Node sibling = getSibling(node);
+            int displacement = sibling.num / node.num;
+            if (displacement > maxResult) {
+                maxResult = displacement;
+                maxNode = node;
+            }
+            node = node.parent;
+        }
+        if (maxResult == 0) {
+            return 0;
+        }
+
+        Node sibling = getSibling(maxNode);
+        double total = 0;
+        for (int i = 0; i < ndim; i++) {
+            total += boxGap(maxNode, sibling, i);
+        }
+        if (total == 0) {
+            // Only possible with equal cut values, credit the cut dimension
+            dest[maxNode.parent.cut.dim] += maxResult;
+            return maxResult;
+        }
+        for (int i = 0; i < ndim; i++) {
+            dest[i] += maxResult * boxGap(maxNode, sibling, i) / total;
+        }
+        return maxResult;
+    }
+
+    /**
+     * Distance between the boxes of two nodes along a dimension, 0 if they overlap
+     * Reads the boxes in place so concurrent readers don't share scratch space
+     */
+    private double boxGap(Node a, Node b, int dim) {
+        return Math.max(0, boxMin(b, dim) - boxMax(a, dim)) + Math.max(0, boxMin(a, dim) - boxMax(b, dim));
+    }
+
+    private double boxMin(Node node, int dim) {
+        if (node.point != null) {
+            return node.point[0][dim];
+        }
+        return store.get(((Leaf) node).slot, dim);
+    }
+
+    private double boxMax(Node node, int dim) {
+        if (node.point != null) {
+            return node.point[node.point.length - 1][dim];
+        }
+        return store.get(((Leaf) node).slot, dim);
+    }
+
+    /**
+     * The k points of the window closest to a point, nearest first
+     * Duplicates count once per copy (Neighbor.num), so fewer than k neighbours are returned if some are duplicated
+     * Branch-and-bound search: the nearer child is searched first and subtrees whose bounding box
+     *  is farther than the current k-th neighbour are skipped
+     */
+    public List<Neighbor> nearestNeighbors(double[] point, int k) {
+        return nearestNeighbors(point, k, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Approximate k nearest points: the search stops after visiting maxNodes nodes
+     * As the nearer side of each cut is searched first, the neighbours found early are usually the nearest
+     */
+    public List<Neighbor> nearestNeighbors(double[] point, int k, int maxNodes) {
+        assert k > 0 && maxNodes > 0;
+        // Farthest candidate on top
+        PriorityQueue<Neighbor> candidates = new PriorityQueue<>(k + 1,
+                (a, b) -> Double.compare(b.distance, a.distance));
+        if (root != null) {
+            // Points held by the candidates, nodes left to visit
+            int[] count = { 0, maxNodes };
+            double distance = boxDistance(point, root, Double.POSITIVE_INFINITY);
+            nearestNeighbors(point, k, root, distance, candidates, count);
+        }
+        List<Neighbor> neighbors = new ArrayList<>(candidates);
+        neighbors.sort((a, b) -> Double.compare(a.distance, b.distance));
+        for (Neighbor n : neighbors) {
+            n.distance = Math.sqrt(n.distance);
+        }
+        return neighbors;
+    }
+
+    /**
+     * Candidates hold squared distances while searching, count is the number of points they hold
+     * @param distance Squared distance from the point to the node's box, computed by the parent
+     */
+    private void nearestNeighbors(double[] point, int k, Node node, double distance,
+            PriorityQueue<Neighbor> candidates, int[] count) {
+        if (count[1] == 0) {
+            return;
+        }
+        count[1]--;
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            candidates.add(new Neighbor(getPoint(leaf), distance, leaf.num));
+            count[0] += leaf.num;
+            // Drop the farthest candidates while the rest still hold k points
+            while (count[0] - candidates.peek().num >= k) {
+                count[0] -= candidates.poll().num;
+            }
+            return;
+        }
+        Branch b = (Branch) node;
+        double bound = bound(k, candidates, count);
+        double left = boxDistance(point, b.left, bound);
+        double right = boxDistance(point, b.right, bound);
+        Node near = left <= right ? b.left : b.right;
+        Node far = left <= right ? b.right : b.left;
+        if (Math.min(left, right) < bound) {
+            nearestNeighbors(point, k, near, Math.min(left, right), candidates, count);
+        }
+        // The bound may have tightened while searching the nearer child
+        if (Math.max(left, right) < bound(k, candidates, count)) {
+            nearestNeighbors(point, k, far, Math.max(left, right), candidates, count);
+        }
+    }
+
+    /**
+     * Squared distance a node has to be within to hold one of the k nearest points
+     */
+    private static double bound(int k, PriorityQueue<Neighbor> candidates, int[] count) {
+        return count[0] < k ? Double.POSITIVE_INFINITY : candidates.peek().distance;
+    }
+
+    /**
+     * Squared Euclidean distance from a point to the bounding box of a node
+     * Stops adding dimensions once past bound, since the node is pruned anyway
+     */
+    private double boxDistance(double[] point, Node node, double bound) {
+        double distance = 0;
+        if (node.point == null) {
+            int slot = ((Leaf) node).slot;
+            for (int i = 0; i < ndim && distance < bound; i++) {
+                double gap = store.get(slot, i) - point[i];
+                distance += gap * gap;
+            }
+            return distance;
+        }
+        double[] min = node.point[0];
+        double[] max = node.point[node.point.length - 1];
+        for (int i = 0; i < ndim && distance < bound; i++) {
+            double gap = min[i] > point[i] ? min[i] - point[i] : point[i] > max[i] ? point[i] - max[i] : 0;
+            distance += gap * gap;
+        }
+        return distance;
+    }
+
+    /**
+     * Leaves a point with missing dimensions could fall into, with the probability of each
+     * At cuts on a missing dimension both sides are followed, weighted by their share of the points,
+     *  and at other cuts the point's side is followed
+     * @param missing Whether each dimension is missing
+     * @param maxBranches Cuts at which both sides may be followed, past that only the side with more points is
+     * @param func Called with each leaf reached and its probability, the probabilities sum to 1
+     */
+    public void mapCandidateLeaves(double[] point, boolean[] missing, int maxBranches, ObjDoubleConsumer<Leaf> func) {
+        if (root != null) {
+            mapCandidateLeaves(point, missing, root, 1, new int[] { maxBranches }, func);
+        }
+    }
+
+    private void mapCandidateLeaves(double[] point, boolean[] missing, Node node, double weight, int[] budget,
+            ObjDoubleConsumer<Leaf> func) {
+        while (node instanceof Branch) {
+            Branch b = (Branch) node;
+            if (!missing[b.cut.dim]) {
+                node = point[b.cut.dim] <= b.cut.value ? b.left : b.right;
+            } else if (budget[0] > 0) {
+                budget[0]--;
+                // Heavier side first, so it gets the remaining budget
+                Node heavy = b.left.num >= b.right.num ? b.left : b.right;
+                Node light = heavy == b.left ? b.right : b.left;
+                mapCandidateLeaves(point, missing, heavy, weight * heavy.num / b.num, budget, func);
+                weight *= (double) light.num / b.num;
+                node = light;
+            } else {
+                node = b.left.num >= b.right.num ? b.left : b.right;
+            }
+        }
+        func.accept((Leaf) node, weight);
+    }
+
     /**
      * Returns a leaf containing a point if it exists
      */
     public Leaf findLeaf(double[] point) {
         Leaf nearest = query(point);
-        if (Arrays.equals(nearest.point[0], point)) {
+        boolean equal = nearest.point != null ? Arrays.equals(nearest.point[0], point)
+                : store.equals(nearest.slot, point);
+        if (equal) {
             return nearest;
         }
         return null;
@@ -0,0 +1,100 @@
+package rrcf.general;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * One StampedLock per tree of a forest, for a single writer and many readers
+ * The writer locks one tree at a time, so readers are only ever held up by the tree being updated
+ * Readers run optimistically without locking and only take the read lock when a write
+ *  overlapped their read (or the torn state made the reader throw)
+ * Any Throwable of the optimistic attempt is retried, not only exceptions and failed asserts: a torn state
+ *  can also end in e.g. a StackOverflowError, and a failure that isn't caused by the writer is thrown again
+ *  by the locked read
+ * The concurrent forests only lock through the Forest hooks (updateTree, writeTree, readTree and
+ *  readCollusiveDisplacement), every read method of Forest goes through them
+ */
+class TreeLocks implements Serializable {
+    // Only grows, copied on write, so a reader holding an older tree array always finds its trees' locks
+    private volatile StampedLock[] locks;
+
+    TreeLocks(int numTrees) {
+        locks = new StampedLock[0];
+        ensureCapacity(numTrees);
+    }
+
+    /**
+     * Adds locks up to numTrees trees, called by the writer before it publishes the grown tree array
+     * Locks of removed trees are kept for trees added later, a stale reader of a removed tree only retries
+     */
+    void ensureCapacity(int numTrees) {
+        StampedLock[] current = locks;
+        if (numTrees <= current.length) {
+            return;
+        }
+        StampedLock[] grown = Arrays.copyOf(current, numTrees);
+        for (int i = current.length; i < numTrees; i++) {
+            grown[i] = new StampedLock();
+        }
+        locks = grown;
+    }
+
+    long lockWrite(int i) {
+        return locks[i].writeLock();
+    }
+
+    void unlockWrite(int i, long stamp) {
+        locks[i].unlockWrite(stamp);
+    }
+
+    /**
+     * Runs a side-effect free reader against a tree and returns a result consistent with
+     * a state between two writes
+     */
+    <T> T read(int i, Tree tree, Function<Tree, T> reader) {
+        StampedLock lock = locks[i];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.apply(tree);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (Throwable t) {
+                // Read a half-updated tree, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.apply(tree);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Collusive displacement of a key in a tree, without allocating a reader
+     */
+    int getCollusiveDisplacement(int i, Tree tree, Object key) {
+        StampedLock lock = locks[i];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int result = tree.getCollusiveDisplacement(key);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (Throwable t) {
+                // Read a half-updated tree, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.getCollusiveDisplacement(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
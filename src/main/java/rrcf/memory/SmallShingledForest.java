@@ -7,6 +7,8 @@ import java.util.Arrays;
 import java.util.Random;
 import java.io.Serializable;
 
+import rrcf.general.JvmLayout;
+
 /**
  * NOTE: Doesn't seem to actually matter much in practice
  * This class should probably not be used
@@ -43,6 +45,18 @@ public class SmallShingledForest implements Serializable {
         return String.join("\n", vals);
     }
 
+    /**
+     * Estimated retained heap size of the forest in bytes
+     * @return Size of the trees, the shared Random and the buffered stream
+     */
+    public long estimateMemoryBytes() {
+        long bytes = JvmLayout.object(2, 2, 0) + JvmLayout.referenceArray(trees.length) + JvmLayout.random();
+        for (SmallTree tree : trees) {
+            bytes += tree.estimateMemoryBytes();
+        }
+        return bytes + JvmLayout.boxedDoubleDeque(buffer.size(), bufferLength);
+    }
+
     private double[] getFirstPoint() {
         return iteratorToShingle(buffer.iterator(), false);
     }
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.Random;
 import java.util.function.Consumer;
 
+import rrcf.general.JvmLayout;
 import rrcf.memory.SmallBranch;
 import rrcf.memory.SmallLeaf;
 import rrcf.memory.SmallNode;
@@ -187,6 +188,32 @@ public class SmallTree implements Serializable {
         return rootMaxPoint.clone();
     }
 
+    /**
+     * Estimates the retained heap size of the tree in bytes from its node counts,
+     * dimensionality and the JVM's object layout.
+     * Excludes the Random, which is usually shared between the trees of a forest.
+     * 
+     * @return Estimated size in bytes
+     */
+    public long estimateMemoryBytes() {
+        long bytes = JvmLayout.object(4, 1, 0);
+        if (root == null) {
+            return bytes;
+        }
+        long[] counts = { 0, 0 };
+        mapLeaves((leaf) -> counts[0]++);
+        mapBranches((branch) -> counts[1]++);
+        // Root bounding box
+        bytes += 2 * JvmLayout.doubleArray(dimension);
+        // Leaf: parent; num
+        long leafBytes = JvmLayout.object(1, 1, 0);
+        // Branch: parent, cut, left, right, 2 value arrays, 2 bitsets; num + arrays, bitsets and cut
+        long bitSetBytes = JvmLayout.object(1, 2, 0) + JvmLayout.longArray(Math.max(1, (dimension + 63) / 64));
+        long branchBytes = JvmLayout.object(8, 1, 0) + 2 * JvmLayout.doubleArray(dimension) + 2 * bitSetBytes
+                + JvmLayout.object(0, 1, 1);
+        return bytes + counts[0] * leafBytes + counts[1] * branchBytes;
+    }
+
     /**
      * Applies a function to all branch nodes in the tree.
      * Useful for operations that need to be performed on internal tree structure.
@@ -0,0 +1,331 @@
+package rrcf.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import rrcf.general.ShingledForest;
+
+/**
+ * HTTP service scoring many independent streams, each with its own ShingledForest
+ * Streams are created on first use, up to a limit, and identified by a path segment, requests to a stream
+ *  are serialized while different streams are scored in parallel
+ * Requests run on virtual threads when the JVM has them (21+), otherwise on a bounded pool
+ *
+ * Bodies and responses are plain text, values separated by whitespace or commas:
+ *  POST   /streams/{id}  values           -> one score per line, in order
+ *  GET    /streams/{id}                   -> number of values the stream has received
+ *  DELETE /streams/{id}                   -> drops the stream, number of values it had received
+ *  POST   /batch         lines "id value" -> lines "id score", values of a stream in order
+ * Requests that would create a stream past the limit get 429, in a batch after the streams before it were scored
+ *
+ * The JDK server leaves Nagle's algorithm on, which holds small responses back for a delayed ACK (~40ms),
+ *  deployments should start the JVM with -Dsun.net.httpserver.nodelay=true, it is JVM-wide so not set here
+ */
+public class ScoringService implements AutoCloseable {
+    public static final int DEFAULT_MAX_STREAMS = 100_000;
+
+    private static final class Stream {
+        final ShingledForest forest;
+        // Not synchronized, which pins a virtual thread to its carrier while blocked
+        final ReentrantLock lock = new ReentrantLock();
+        long received;
+        // Set under the lock when the stream is dropped, requests that looked it up before go to a new stream
+        boolean closed;
+
+        Stream(ShingledForest forest) {
+            this.forest = forest;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Supplier<ShingledForest> factory;
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private final int maxStreams;
+    // Streams created and not dropped, reserved before a stream is created so the limit holds under races
+    private final AtomicInteger streamCount = new AtomicInteger();
+    private final AtomicLong scored = new AtomicLong();
+
+    /**
+     * Starts serving on an address, port 0 picks a free port
+     * @param factory Creates the forest of a new stream
+     * @param executor Runs requests, see newExecutor, shut down on close
+     * @param maxStreams Number of streams kept at once, requests creating more are refused
+     */
+    public ScoringService(InetSocketAddress address, Supplier<ShingledForest> factory, ExecutorService executor,
+            int maxStreams) throws IOException {
+        assert maxStreams > 0;
+        this.factory = factory;
+        this.executor = executor;
+        this.maxStreams = maxStreams;
+        // A short accept backlog shows up as second-long connect retries under load
+        server = HttpServer.create(address, 1024);
+        server.createContext("/streams/", this::handleStream);
+        server.createContext("/batch", this::handleBatch);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public ScoringService(InetSocketAddress address, Supplier<ShingledForest> factory, ExecutorService executor)
+            throws IOException {
+        this(address, factory, executor, DEFAULT_MAX_STREAMS);
+    }
+
+    public ScoringService(InetSocketAddress address, Supplier<ShingledForest> factory) throws IOException {
+        this(address, factory, newExecutor(4 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Executor starting a virtual thread per task where available (JDK 21+)
+     * Otherwise a pool of poolSize threads with a bounded queue, which runs tasks on the submitting
+     *  (accepting) thread when full so that load is pushed back to clients
+     */
+    public static ExecutorService newExecutor(int poolSize) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(16 * poolSize), new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * Number of values scored across all streams
+     */
+    public long getScored() {
+        return scored.get();
+    }
+
+    private void handleStream(HttpExchange exchange) throws IOException {
+        try {
+            String id = exchange.getRequestURI().getPath().substring("/streams/".length());
+            if (id.isEmpty() || id.indexOf('/') >= 0) {
+                respond(exchange, 404, "Unknown path\n");
+                return;
+            }
+            switch (exchange.getRequestMethod()) {
+                case "POST":
+                    double[] values = parseValues(readBody(exchange));
+                    double[] scores = score(id, values);
+                    if (scores == null) {
+                        respond(exchange, 429, "Too many streams\n");
+                        return;
+                    }
+                    StringBuilder out = new StringBuilder(scores.length * 8);
+                    for (double s : scores) {
+                        out.append(s).append('\n');
+                    }
+                    respond(exchange, 200, out.toString());
+                    break;
+                case "GET":
+                    Stream stream = streams.get(id);
+                    if (stream == null) {
+                        respond(exchange, 404, "Unknown stream\n");
+                        return;
+                    }
+                    long received;
+                    boolean closed;
+                    stream.lock.lock();
+                    try {
+                        received = stream.received;
+                        closed = stream.closed;
+                    } finally {
+                        stream.lock.unlock();
+                    }
+                    if (closed) {
+                        respond(exchange, 404, "Unknown stream\n");
+                        return;
+                    }
+                    respond(exchange, 200, received + "\n");
+                    break;
+                case "DELETE":
+                    stream = streams.get(id);
+                    if (stream == null) {
+                        respond(exchange, 404, "Unknown stream\n");
+                        return;
+                    }
+                    // Waits for the request scoring the stream, requests waiting behind see it closed
+                    stream.lock.lock();
+                    try {
+                        closed = stream.closed;
+                        if (!closed) {
+                            stream.closed = true;
+                            streams.remove(id);
+                            streamCount.decrementAndGet();
+                        }
+                        received = stream.received;
+                    } finally {
+                        stream.lock.unlock();
+                    }
+                    if (closed) {
+                        respond(exchange, 404, "Unknown stream\n");
+                        return;
+                    }
+                    respond(exchange, 200, received + "\n");
+                    break;
+                default:
+                    respond(exchange, 405, "");
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Bad value: " + e.getMessage() + "\n");
+        }
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "");
+            return;
+        }
+        // Values grouped by stream in order of first appearance, scored one stream at a time
+        Map<String, List<Integer>> lines = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        try {
+            for (String line : readBody(exchange).split("\n")) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    respond(exchange, 400, "Expected \"id value\": " + line + "\n");
+                    return;
+                }
+                String id = line.substring(0, space);
+                lines.computeIfAbsent(id, (k) -> new ArrayList<>()).add(ids.size());
+                ids.add(id);
+                values.add(Double.parseDouble(line.substring(space + 1).trim()));
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Bad value: " + e.getMessage() + "\n");
+            return;
+        }
+        double[] scores = new double[ids.size()];
+        for (Map.Entry<String, List<Integer>> stream : lines.entrySet()) {
+            List<Integer> positions = stream.getValue();
+            double[] streamValues = new double[positions.size()];
+            for (int i = 0; i < streamValues.length; i++) {
+                streamValues[i] = values.get(positions.get(i));
+            }
+            double[] streamScores = score(stream.getKey(), streamValues);
+            if (streamScores == null) {
+                respond(exchange, 429, "Too many streams: " + stream.getKey() + "\n");
+                return;
+            }
+            for (int i = 0; i < streamScores.length; i++) {
+                scores[positions.get(i)] = streamScores[i];
+            }
+        }
+        StringBuilder out = new StringBuilder(scores.length * 16);
+        for (int i = 0; i < scores.length; i++) {
+            out.append(ids.get(i)).append(' ').append(scores[i]).append('\n');
+        }
+        respond(exchange, 200, out.toString());
+    }
+
+    /**
+     * Adds values to a stream, creating it if needed, holding the stream's lock for the whole batch
+     * @return Scores, null if the stream doesn't exist and there are already maxStreams
+     */
+    double[] score(String id, double[] values) {
+        double[] scores = new double[values.length];
+        while (true) {
+            Stream stream = streams.computeIfAbsent(id, (k) -> {
+                if (streamCount.incrementAndGet() > maxStreams) {
+                    streamCount.decrementAndGet();
+                    return null;
+                }
+                return new Stream(factory.get());
+            });
+            if (stream == null) {
+                return null;
+            }
+            stream.lock.lock();
+            try {
+                // Dropped since the lookup, the values go to the stream created in its place
+                if (stream.closed) {
+                    continue;
+                }
+                for (int i = 0; i < values.length; i++) {
+                    scores[i] = stream.forest.addPoint(values[i]);
+                }
+                stream.received += values.length;
+            } finally {
+                stream.lock.unlock();
+            }
+            scored.addAndGet(values.length);
+            return scores;
+        }
+    }
+
+    private static double[] parseValues(String body) {
+        String[] tokens = body.trim().split("[\\s,]+");
+        if (tokens.length == 1 && tokens[0].isEmpty()) {
+            return new double[0];
+        }
+        double[] values = new double[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Double.parseDouble(tokens[i]);
+        }
+        return values;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for running ones and shuts the executor down
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,99 @@
+package rrcf.shard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import rrcf.general.Forest;
+
+/**
+ * Worker process holding one shard of a ShardedForest, driven by the coordinator over stdin/stdout
+ * On startup it writes [long] the number of points in its forest, then requests are an opcode followed by
+ *  its arguments, big endian as written by DataOutputStream:
+ *  ADD      [int n][int dimensions][n * dimensions doubles] -> [n doubles] sums of the shard's tree codisps
+ *  SNAPSHOT [UTF path]                                      -> [byte 0] once the forest is written to path
+ *  CLOSE                                                    -> exits
+ * The forest is Java serialized with its RNG, so a worker restarted from a snapshot and given the same
+ *  points ends up in exactly the same state
+ *
+ * Args: numTrees treeSize seed snapshotPath, the snapshot is loaded if it exists
+ */
+public class ShardWorker {
+    static final int ADD = 1;
+    static final int SNAPSHOT = 2;
+    static final int CLOSE = 3;
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int numTrees = Integer.parseInt(args[0]);
+        int treeSize = Integer.parseInt(args[1]);
+        long seed = Long.parseLong(args[2]);
+        Path snapshot = Paths.get(args[3]);
+        Forest forest;
+        if (Files.exists(snapshot)) {
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                forest = (Forest) in.readObject();
+            }
+        } else {
+            forest = new Forest(new Random(seed), numTrees, treeSize);
+        }
+        // Nothing else may write to stdout, it carries responses
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in), 1 << 16));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+        out.writeLong(forest.getCurrentIndex());
+        out.flush();
+        while (true) {
+            int op;
+            try {
+                op = in.readByte();
+            } catch (EOFException e) {
+                // Coordinator went away
+                return;
+            }
+            switch (op) {
+                case ADD:
+                    int n = in.readInt();
+                    int dimensions = in.readInt();
+                    for (int i = 0; i < n; i++) {
+                        // Trees keep the point, so each one gets its own array
+                        double[] point = new double[dimensions];
+                        for (int d = 0; d < dimensions; d++) {
+                            point[d] = in.readDouble();
+                        }
+                        // Codisps are integers, so their sum is recovered exactly from the average
+                        out.writeDouble(Math.rint(forest.addPoint(point) * forest.getActiveTrees()));
+                    }
+                    out.flush();
+                    break;
+                case SNAPSHOT:
+                    Path path = Paths.get(in.readUTF());
+                    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+                    try (ObjectOutputStream file = new ObjectOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                        file.writeObject(forest);
+                    }
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    out.writeByte(0);
+                    out.flush();
+                    break;
+                case CLOSE:
+                    return;
+                default:
+                    throw new IOException("Unknown opcode " + op);
+            }
+        }
+    }
+}
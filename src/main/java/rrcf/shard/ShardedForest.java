@@ -0,0 +1,330 @@
+package rrcf.shard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forest whose trees are split across local worker processes (ShardWorker), so a stream can use more trees than
+ *  one JVM's heap and cores allow
+ * Each batch of points (split in chunks of MAX_BATCH) is written to every worker before any response is read,
+ *  so shards score in parallel, and the per-shard sums of tree codisps are added up and divided by the total
+ *  number of trees as Forest.addPoint does
+ * Workers talk over their stdin/stdout pipes and snapshot their shard to their own file in a directory
+ *  A worker that dies is restarted from its last snapshot and replays the batches it received since,
+ *  which restores exactly its state before the failure, then the current batch is sent again
+ *  Workers report how many points their snapshot holds, so batches a snapshot published just before a
+ *  failure already contains are not replayed
+ * Not thread safe
+ */
+public class ShardedForest implements AutoCloseable {
+    // Points between snapshots when not given, a restart replays at most this many
+    public static final long DEFAULT_SNAPSHOT_EVERY = 10_000;
+    // Points sent to a worker at a time: its reply fits in its 64KB output buffer, so a worker never blocks on
+    //  writing while the coordinator is still writing the batch, which would deadlock both
+    static final int MAX_BATCH = 8192;
+
+    private static final class Shard {
+        final int index;
+        final int numTrees;
+        final Path snapshot;
+        // Batches sent since the last snapshot, replayed on restart
+        final List<double[][]> log = new ArrayList<>();
+        // Points in the worker's forest when the log starts, i.e. in its last acknowledged snapshot
+        long logStart;
+        Process process;
+        DataInputStream in;
+        DataOutputStream out;
+        int restarts;
+
+        Shard(int index, int numTrees, Path snapshot) {
+            this.index = index;
+            this.numTrees = numTrees;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final Shard[] shards;
+    private final int numTrees;
+    private final int treeSize;
+    private final long seed;
+    private final List<String> jvmOptions;
+    private final long snapshotEvery;
+    private long sinceSnapshot;
+
+    /**
+     * Starts the workers, each loads its shard's snapshot from directory if there is one
+     * @param numTrees Total number of trees, split as evenly as possible, shard s is seeded with seed + s
+     * @param snapshotEvery Number of points between snapshots of every shard, which bounds the batches kept
+     *  for replay to snapshotEvery points plus one batch
+     * @param jvmOptions Options of the worker JVMs, e.g. -Xmx
+     */
+    public ShardedForest(int shards, int numTrees, int treeSize, long seed, Path directory, long snapshotEvery,
+            List<String> jvmOptions) throws IOException {
+        assert shards > 0 && numTrees >= shards && snapshotEvery > 0;
+        this.numTrees = numTrees;
+        this.treeSize = treeSize;
+        this.seed = seed;
+        this.snapshotEvery = snapshotEvery;
+        this.jvmOptions = new ArrayList<>(jvmOptions);
+        Files.createDirectories(directory);
+        this.shards = new Shard[shards];
+        for (int s = 0; s < shards; s++) {
+            int trees = numTrees / shards + (s < numTrees % shards ? 1 : 0);
+            this.shards[s] = new Shard(s, trees, directory.resolve("shard-" + s + ".ser"));
+            this.shards[s].logStart = start(this.shards[s]);
+        }
+    }
+
+    public ShardedForest(int shards, int numTrees, int treeSize, long seed, Path directory) throws IOException {
+        this(shards, numTrees, treeSize, seed, directory, DEFAULT_SNAPSHOT_EVERY, Collections.emptyList());
+    }
+
+    /**
+     * Adds a batch of points to every shard
+     * @return Average collusive displacement of each point over all trees
+     */
+    public double[] addPoints(double[][] points) {
+        double[] scores = new double[points.length];
+        for (int start = 0; start < points.length; start += MAX_BATCH) {
+            int end = Math.min(points.length, start + MAX_BATCH);
+            double[][] batch = new double[end - start][];
+            for (int i = start; i < end; i++) {
+                batch[i - start] = points[i].clone();
+            }
+            double[] sums = addBatch(batch);
+            for (int i = start; i < end; i++) {
+                scores[i] = sums[i - start] / numTrees;
+            }
+            sinceSnapshot += batch.length;
+            if (sinceSnapshot >= snapshotEvery) {
+                snapshot();
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Sends a batch to every shard and adds up their replies, restarting the shards that fail
+     * @return Sum of the tree codisps of each point
+     */
+    private double[] addBatch(double[][] batch) {
+        boolean[] failed = new boolean[shards.length];
+        for (Shard shard : shards) {
+            try {
+                send(shard, batch);
+            } catch (IOException e) {
+                failed[shard.index] = true;
+            }
+        }
+        double[] sums = new double[batch.length];
+        double[] reply = new double[batch.length];
+        for (Shard shard : shards) {
+            if (!failed[shard.index]) {
+                try {
+                    receive(shard, reply);
+                } catch (IOException e) {
+                    failed[shard.index] = true;
+                }
+            }
+            if (failed[shard.index]) {
+                // The part of the reply read before the failure is overwritten by the retry
+                try {
+                    restart(shard);
+                    send(shard, batch);
+                    receive(shard, reply);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Shard " + shard.index + " failed again after a restart", e);
+                }
+            }
+            // Only a complete reply is added
+            for (int i = 0; i < batch.length; i++) {
+                sums[i] += reply[i];
+            }
+            shard.log.add(batch);
+        }
+        return sums;
+    }
+
+    public double addPoint(double[] point) {
+        return addPoints(new double[][] { point })[0];
+    }
+
+    /**
+     * Snapshots every shard, after which restarts replay nothing
+     */
+    public void snapshot() {
+        for (Shard shard : shards) {
+            try {
+                shard.out.writeByte(ShardWorker.SNAPSHOT);
+                shard.out.writeUTF(shard.snapshot.toString());
+                shard.out.flush();
+            } catch (IOException e) {
+                // Snapshotted below once restarted
+            }
+        }
+        for (Shard shard : shards) {
+            try {
+                try {
+                    shard.in.readByte();
+                } catch (IOException e) {
+                    restart(shard);
+                    shard.out.writeByte(ShardWorker.SNAPSHOT);
+                    shard.out.writeUTF(shard.snapshot.toString());
+                    shard.out.flush();
+                    shard.in.readByte();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Shard " + shard.index + " failed again after a restart", e);
+            }
+            for (double[][] batch : shard.log) {
+                shard.logStart += batch.length;
+            }
+            shard.log.clear();
+        }
+        sinceSnapshot = 0;
+    }
+
+    /**
+     * Kills a shard's worker and starts a new one from its snapshot and replay log
+     */
+    public void restart(int shard) {
+        try {
+            restart(shards[shard]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void restart(Shard shard) throws IOException {
+        shard.process.destroyForcibly();
+        try {
+            shard.process.waitFor(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shard.restarts++;
+        long loaded = start(shard);
+        // The worker may have published a snapshot whose acknowledgement was lost, skips the batches it holds
+        long skip = loaded - shard.logStart;
+        for (double[][] batch : shard.log) {
+            if (skip >= batch.length) {
+                skip -= batch.length;
+                continue;
+            }
+            if (skip != 0) {
+                break;
+            }
+            send(shard, batch);
+            receive(shard, new double[batch.length]);
+        }
+        if (skip != 0) {
+            throw new IOException("Snapshot of shard " + shard.index + " holds " + loaded
+                    + " points, which doesn't match its replay log");
+        }
+    }
+
+    /**
+     * Starts a shard's worker
+     * @return Number of points in the forest it loaded
+     */
+    private long start(Shard shard) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(Integer.toString(shard.numTrees));
+        command.add(Integer.toString(treeSize));
+        command.add(Long.toString(seed + shard.index));
+        command.add(shard.snapshot.toString());
+        shard.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        shard.in = new DataInputStream(new BufferedInputStream(shard.process.getInputStream(), 1 << 16));
+        shard.out = new DataOutputStream(new BufferedOutputStream(shard.process.getOutputStream(), 1 << 16));
+        return shard.in.readLong();
+    }
+
+    private static void send(Shard shard, double[][] batch) throws IOException {
+        DataOutputStream out = shard.out;
+        out.writeByte(ShardWorker.ADD);
+        out.writeInt(batch.length);
+        out.writeInt(batch[0].length);
+        for (double[] point : batch) {
+            for (double v : point) {
+                out.writeDouble(v);
+            }
+        }
+        out.flush();
+    }
+
+    private static void receive(Shard shard, double[] reply) throws IOException {
+        for (int i = 0; i < reply.length; i++) {
+            reply[i] = shard.in.readDouble();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Number of trees of a shard
+     */
+    public int getTrees(int shard) {
+        return shards[shard].numTrees;
+    }
+
+    public int getNumTrees() {
+        return numTrees;
+    }
+
+    /**
+     * Process id of a shard's worker
+     */
+    public long getWorkerPid(int shard) {
+        return shards[shard].process.pid();
+    }
+
+    /**
+     * Number of times a shard's worker was restarted
+     */
+    public int getRestarts(int shard) {
+        return shards[shard].restarts;
+    }
+
+    /**
+     * Asks the workers to exit, killing those that don't within a few seconds, snapshots are kept
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            try {
+                shard.out.writeByte(ShardWorker.CLOSE);
+                shard.out.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+        for (Shard shard : shards) {
+            try {
+                if (!shard.process.waitFor(5, TimeUnit.SECONDS)) {
+                    shard.process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shard.process.destroyForcibly();
+            }
+        }
+    }
+}
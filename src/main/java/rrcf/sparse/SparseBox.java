@@ -0,0 +1,149 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Bounding box of a set of sparse points, stored for the dimensions where it isn't [0, 0]
+ * A dimension a point doesn't store is 0 for that point, so it pulls the box towards 0
+ * Boxes are immutable, operations return the same box when nothing changes
+ */
+public class SparseBox implements Serializable {
+    // Ascending
+    public final int[] dims;
+    public final double[] min;
+    public final double[] max;
+    // Dimensions whose span excludes 0, and whose span ends at 0
+    private final int offZero;
+    private final int zeroBound;
+
+    private SparseBox(int[] dims, double[] min, double[] max) {
+        this.dims = dims;
+        this.min = min;
+        this.max = max;
+        int off = 0;
+        int bound = 0;
+        for (int i = 0; i < dims.length; i++) {
+            if (min[i] > 0 || max[i] < 0) {
+                off++;
+            }
+            if (min[i] == 0 || max[i] == 0) {
+                bound++;
+            }
+        }
+        offZero = off;
+        zeroBound = bound;
+    }
+
+    /**
+     * Box of a single point, which shares the point's arrays
+     */
+    public static SparseBox of(SparsePoint p) {
+        return new SparseBox(p.indices, p.values, p.values);
+    }
+
+    public double min(int dim) {
+        int i = Arrays.binarySearch(dims, dim);
+        return i >= 0 ? min[i] : 0;
+    }
+
+    public double max(int dim) {
+        int i = Arrays.binarySearch(dims, dim);
+        return i >= 0 ? max[i] : 0;
+    }
+
+    /**
+     * Whether the point lies within the box, in time proportional to the point's nonzeros
+     */
+    public boolean contains(SparsePoint p) {
+        int matched = 0;
+        for (int j = 0; j < p.indices.length; j++) {
+            int i = Arrays.binarySearch(dims, p.indices[j]);
+            if (i < 0 || p.values[j] < min[i] || p.values[j] > max[i]) {
+                return false;
+            }
+            if (min[i] > 0 || max[i] < 0) {
+                matched++;
+            }
+        }
+        // Every dimension the point doesn't store is 0, so the box must span 0 there
+        return matched == offZero;
+    }
+
+    /**
+     * Whether a point within the box lies on its boundary in a dimension the box stores
+     */
+    public boolean touches(SparsePoint p) {
+        int matched = 0;
+        for (int j = 0; j < p.indices.length; j++) {
+            int i = Arrays.binarySearch(dims, p.indices[j]);
+            if (i < 0) {
+                continue;
+            }
+            if (p.values[j] == min[i] || p.values[j] == max[i]) {
+                return true;
+            }
+            if (min[i] == 0 || max[i] == 0) {
+                matched++;
+            }
+        }
+        // The point's 0s lie on the boundary of the remaining dimensions ending at 0
+        return matched < zeroBound;
+    }
+
+    /**
+     * Smallest box containing both boxes, merging the sorted dimensions of each
+     */
+    public static SparseBox union(SparseBox a, SparseBox b) {
+        int[] dims = new int[a.dims.length + b.dims.length];
+        double[] min = new double[dims.length];
+        double[] max = new double[dims.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.dims.length || j < b.dims.length) {
+            int da = i < a.dims.length ? a.dims[i] : Integer.MAX_VALUE;
+            int db = j < b.dims.length ? b.dims[j] : Integer.MAX_VALUE;
+            if (da == db) {
+                dims[n] = da;
+                min[n] = Math.min(a.min[i], b.min[j]);
+                max[n] = Math.max(a.max[i], b.max[j]);
+                i++;
+                j++;
+            } else if (da < db) {
+                // 0 on the other side
+                dims[n] = da;
+                min[n] = Math.min(a.min[i], 0);
+                max[n] = Math.max(a.max[i], 0);
+                i++;
+            } else {
+                dims[n] = db;
+                min[n] = Math.min(b.min[j], 0);
+                max[n] = Math.max(b.max[j], 0);
+                j++;
+            }
+            n++;
+        }
+        if (n < dims.length) {
+            dims = Arrays.copyOf(dims, n);
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+        }
+        return new SparseBox(dims, min, max);
+    }
+
+    public boolean sameAs(SparseBox b) {
+        return Arrays.equals(dims, b.dims) && Arrays.equals(min, b.min) && Arrays.equals(max, b.max);
+    }
+
+    /**
+     * Sum of the spans of all dimensions
+     */
+    public double range() {
+        double sum = 0;
+        for (int i = 0; i < dims.length; i++) {
+            sum += max[i] - min[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,19 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+
+import rrcf.general.Tree.Cut;
+
+public class SparseBranch extends SparseNode implements Serializable {
+    public Cut cut;
+    public SparseNode left;
+    public SparseNode right;
+    public SparseBox box;
+
+    public SparseBranch(Cut c, SparseNode l, SparseNode r, int n) {
+        cut = c;
+        left = l;
+        right = r;
+        num = n;
+    }
+}
@@ -0,0 +1,76 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+import rrcf.general.JvmLayout;
+
+/**
+ * Collection of sparse trees over a sliding window of sparse points, see general.Forest
+ */
+public class SparseForest implements Serializable {
+    public SparseTree[] trees;
+    private int treeSize;
+    private int currentIndex;
+
+    public SparseForest(Random random, int numTrees, int size) {
+        trees = new SparseTree[numTrees];
+        for (int i = 0; i < numTrees; i++) {
+            trees[i] = new SparseTree(random);
+        }
+        treeSize = size;
+    }
+
+    public SparseForest(int numTrees, int size) {
+        this(new Random(), numTrees, size);
+    }
+
+    public double getCollusiveDisplacement(Object key) {
+        double accum = 0;
+        for (SparseTree tree : trees) {
+            accum += tree.getCollusiveDisplacement(key);
+        }
+        return accum / trees.length;
+    }
+
+    /**
+     * Adds a point to every tree, forgetting the oldest point once the window is full
+     * @return Average collusive displacement of the point
+     */
+    public double addPoint(SparsePoint point) {
+        double accum = 0;
+        for (SparseTree t : trees) {
+            if (t.size() >= treeSize) {
+                t.forgetPoint(currentIndex - treeSize);
+            }
+            t.insertPoint(point, currentIndex);
+            accum += t.getCollusiveDisplacement(currentIndex);
+        }
+        currentIndex++;
+        return accum / trees.length;
+    }
+
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * Estimated retained heap size of the forest in bytes
+     * Points are shared by the trees and counted once
+     */
+    public long estimateMemoryBytes() {
+        long bytes = JvmLayout.object(1, 2, 0) + JvmLayout.referenceArray(trees.length) + JvmLayout.random();
+        Set<SparsePoint> points = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SparseTree tree : trees) {
+            bytes += tree.estimateStructureBytes();
+            tree.mapLeaves((leaf) -> points.add(leaf.point));
+        }
+        for (SparsePoint point : points) {
+            bytes += SparseTree.estimatePointBytes(point);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+
+/**
+ * Stores a single sparse point or duplicates of it
+ */
+public class SparseLeaf extends SparseNode implements Serializable {
+    public SparsePoint point;
+    public SparseBox box;
+
+    public SparseLeaf(SparsePoint p) {
+        point = p;
+        box = SparseBox.of(p);
+        num = 1;
+    }
+}
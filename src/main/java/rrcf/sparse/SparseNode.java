@@ -0,0 +1,9 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+
+public class SparseNode implements Serializable {
+    public SparseBranch parent;
+    // Number of points under the node
+    public int num;
+}
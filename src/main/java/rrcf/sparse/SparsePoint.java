@@ -0,0 +1,104 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Point of a high-dimensional space given by its nonzero entries
+ * Indices are strictly ascending, every other dimension is 0
+ */
+public class SparsePoint implements Serializable {
+    public final int[] indices;
+    public final double[] values;
+
+    /**
+     * Takes ownership of the arrays, zero values are dropped
+     */
+    public SparsePoint(int[] indices, double[] values) {
+        assert indices.length == values.length;
+        int n = 0;
+        for (int i = 0; i < indices.length; i++) {
+            assert i == 0 || indices[i] > indices[i - 1];
+            if (values[i] != 0) {
+                n++;
+            }
+        }
+        if (n < indices.length) {
+            int[] keptIndices = new int[n];
+            double[] keptValues = new double[n];
+            n = 0;
+            for (int i = 0; i < indices.length; i++) {
+                if (values[i] != 0) {
+                    keptIndices[n] = indices[i];
+                    keptValues[n++] = values[i];
+                }
+            }
+            indices = keptIndices;
+            values = keptValues;
+        }
+        this.indices = indices;
+        this.values = values;
+    }
+
+    public static SparsePoint of(double[] dense) {
+        int n = 0;
+        for (double v : dense) {
+            if (v != 0) {
+                n++;
+            }
+        }
+        int[] indices = new int[n];
+        double[] values = new double[n];
+        n = 0;
+        for (int i = 0; i < dense.length; i++) {
+            if (dense[i] != 0) {
+                indices[n] = i;
+                values[n++] = dense[i];
+            }
+        }
+        return new SparsePoint(indices, values);
+    }
+
+    /**
+     * Value of a dimension, 0 if it isn't stored
+     */
+    public double get(int dim) {
+        int i = Arrays.binarySearch(indices, dim);
+        return i >= 0 ? values[i] : 0;
+    }
+
+    public int nonzeros() {
+        return indices.length;
+    }
+
+    public double[] toDense(int dimensions) {
+        double[] dense = new double[dimensions];
+        for (int i = 0; i < indices.length; i++) {
+            dense[indices[i]] = values[i];
+        }
+        return dense;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SparsePoint)) {
+            return false;
+        }
+        SparsePoint p = (SparsePoint) o;
+        return Arrays.equals(indices, p.indices) && Arrays.equals(values, p.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(indices) + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < indices.length; i++) {
+            s.append(i > 0 ? ", " : "").append(indices[i]).append(": ").append(values[i]);
+        }
+        return s.append("}").toString();
+    }
+}
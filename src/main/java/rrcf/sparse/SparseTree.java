@@ -0,0 +1,329 @@
+package rrcf.sparse;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import rrcf.general.JvmLayout;
+import rrcf.general.Tree.Cut;
+
+/**
+ * Random cut tree over sparse points, see general.Tree for the algorithm
+ * Points and branch boxes only store nonzero dimensions (SparsePoint, SparseBox), so memory and work per point
+ *  scale with the nonzeros under a node instead of the dimension count, which doesn't need to be known
+ * Cuts pick a dimension weighted by its span like general.Tree, and dimensions that are 0 for the whole
+ *  subtree have no span; with the same Random both trees make the same cuts on the same points
+ */
+public class SparseTree implements Serializable {
+    private SparseNode root;
+    private Map<Object, SparseLeaf> leavesMap;
+    private Random random;
+
+    public SparseTree(Random r) {
+        random = r;
+        leavesMap = new HashMap<>();
+    }
+
+    public SparseTree() {
+        this(new Random());
+    }
+
+    /**
+     * Number of points stored in the tree
+     */
+    public int size() {
+        return leavesMap.size();
+    }
+
+    public void mapLeaves(Consumer<SparseLeaf> func) {
+        if (root != null) {
+            mapLeaves(func, root);
+        }
+    }
+
+    private void mapLeaves(Consumer<SparseLeaf> func, SparseNode n) {
+        if (n instanceof SparseLeaf) {
+            func.accept((SparseLeaf) n);
+        } else {
+            SparseBranch b = (SparseBranch) n;
+            mapLeaves(func, b.left);
+            mapLeaves(func, b.right);
+        }
+    }
+
+    private static SparseBox boxOf(SparseNode n) {
+        return n instanceof SparseLeaf ? ((SparseLeaf) n).box : ((SparseBranch) n).box;
+    }
+
+    /**
+     * Insert a point into the tree with a given index and create a new leaf
+     */
+    public SparseLeaf insertPoint(SparsePoint point, Object index) {
+        assert !leavesMap.containsKey(index);
+        if (root == null) {
+            SparseLeaf leaf = new SparseLeaf(point);
+            root = leaf;
+            leavesMap.put(index, leaf);
+            return leaf;
+        }
+
+        // Check for duplicates and only update counts if it exists
+        SparseLeaf duplicate = findLeaf(point);
+        if (duplicate != null) {
+            updateLeafCountUpwards(duplicate, 1);
+            leavesMap.put(index, duplicate);
+            return duplicate;
+        }
+
+        SparseLeaf leaf = new SparseLeaf(point);
+        SparseNode node = root;
+        SparseBranch parent = null;
+        SparseBranch branch;
+        boolean useLeftSide = false;
+        // Traverse tree until insertion spot found
+        while (true) {
+            SparseBox box = boxOf(node);
+            Cut c = insertCut(box, point);
+            if (c.value < box.min(c.dim)) {
+                branch = new SparseBranch(c, leaf, node, leaf.num + node.num);
+                break;
+            } else if (c.value >= box.max(c.dim) && point.get(c.dim) > c.value) {
+                branch = new SparseBranch(c, node, leaf, leaf.num + node.num);
+                break;
+            }
+            SparseBranch b = (SparseBranch) node;
+            parent = b;
+            useLeftSide = point.get(b.cut.dim) <= b.cut.value;
+            node = useLeftSide ? b.left : b.right;
+        }
+
+        node.parent = branch;
+        leaf.parent = branch;
+        branch.parent = parent;
+        if (parent != null) {
+            if (useLeftSide) {
+                parent.left = branch;
+            } else {
+                parent.right = branch;
+            }
+        } else {
+            root = branch;
+        }
+
+        updateLeafCountUpwards(parent, 1);
+        branch.box = SparseBox.union(boxOf(branch.left), boxOf(branch.right));
+        expandBoxUp(parent, leaf);
+        leavesMap.put(index, leaf);
+        return leaf;
+    }
+
+    /**
+     * Delete a leaf (found from index) from the tree and return deleted node
+     */
+    public SparseNode forgetPoint(Object index) {
+        SparseLeaf leaf = leavesMap.remove(index);
+
+        // If duplicate points exist, decrease num for all nodes above
+        if (leaf.num > 1) {
+            updateLeafCountUpwards(leaf, -1);
+            return leaf;
+        }
+        if (root == leaf) {
+            root = null;
+            return leaf;
+        }
+
+        SparseBranch parent = leaf.parent;
+        SparseNode sibling = parent.left == leaf ? parent.right : parent.left;
+        leaf.parent = null;
+        if (root == parent) {
+            sibling.parent = null;
+            root = sibling;
+            return leaf;
+        }
+
+        // Move sibling up a layer and link nodes
+        SparseBranch grandparent = parent.parent;
+        sibling.parent = grandparent;
+        if (parent == grandparent.left) {
+            grandparent.left = sibling;
+        } else {
+            grandparent.right = sibling;
+        }
+        updateLeafCountUpwards(grandparent, -1);
+        shrinkBoxUp(grandparent, leaf.point);
+        return leaf;
+    }
+
+    private void updateLeafCountUpwards(SparseNode node, int increment) {
+        while (node != null) {
+            node.num += increment;
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Grows ancestors' boxes to include a new point's box, stopping at the first one that already does
+     */
+    private void expandBoxUp(SparseBranch node, SparseLeaf leaf) {
+        while (node != null && !node.box.contains(leaf.point)) {
+            node.box = SparseBox.union(node.box, leaf.box);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Recomputes ancestors' boxes from their children after a removal
+     * Stops at the first one the point wasn't on the boundary of, or that is unchanged
+     */
+    private void shrinkBoxUp(SparseBranch node, SparsePoint point) {
+        while (node != null && node.box.touches(point)) {
+            SparseBox shrunk = SparseBox.union(boxOf(node.left), boxOf(node.right));
+            if (shrunk.sameAs(node.box)) {
+                return;
+            }
+            node.box = shrunk;
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Generates a random cut from the span of the union of a box and a point, dimensions are weighted by their span
+     * Walks the union twice instead of allocating it
+     */
+    private Cut insertCut(SparseBox box, SparsePoint point) {
+        double r = random.nextDouble() * unionSpan(box, point, Double.POSITIVE_INFINITY, null);
+        Cut[] cut = new Cut[1];
+        unionSpan(box, point, r, cut);
+        if (cut[0] == null) {
+            throw new AssertionError("Box has no span");
+        }
+        return cut[0];
+    }
+
+    /**
+     * Sums the spans of the union of a box and a point in ascending dimension order
+     * Stops at the first dimension where the sum exceeds the limit, storing the cut there
+     */
+    private static double unionSpan(SparseBox box, SparsePoint point, double limit, Cut[] cut) {
+        double spanSum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < box.dims.length || j < point.indices.length) {
+            int db = i < box.dims.length ? box.dims[i] : Integer.MAX_VALUE;
+            int dp = j < point.indices.length ? point.indices[j] : Integer.MAX_VALUE;
+            int dim;
+            double min;
+            double max;
+            if (db == dp) {
+                dim = db;
+                min = Math.min(box.min[i], point.values[j]);
+                max = Math.max(box.max[i], point.values[j]);
+                i++;
+                j++;
+            } else if (db < dp) {
+                // 0 in the point
+                dim = db;
+                min = Math.min(box.min[i], 0);
+                max = Math.max(box.max[i], 0);
+                i++;
+            } else {
+                // 0 in the box
+                dim = dp;
+                min = Math.min(point.values[j], 0);
+                max = Math.max(point.values[j], 0);
+                j++;
+            }
+            spanSum += max - min;
+            // Finds first value greater than chosen
+            if (spanSum > limit) {
+                cut[0] = new Cut(dim, min + spanSum - limit);
+                return spanSum;
+            }
+        }
+        return spanSum;
+    }
+
+    /**
+     * Finds the closest leaf to a point
+     */
+    public SparseLeaf query(SparsePoint point) {
+        SparseNode n = root;
+        while (n instanceof SparseBranch) {
+            SparseBranch b = (SparseBranch) n;
+            n = point.get(b.cut.dim) <= b.cut.value ? b.left : b.right;
+        }
+        return (SparseLeaf) n;
+    }
+
+    /**
+     * Returns a leaf containing a point if it exists
+     */
+    public SparseLeaf findLeaf(SparsePoint point) {
+        SparseLeaf nearest = query(point);
+        return nearest != null && nearest.point.equals(point) ? nearest : null;
+    }
+
+    public int getCollusiveDisplacement(Object key) {
+        return getCollusiveDisplacement(leavesMap.get(key));
+    }
+
+    /**
+     * See general.Tree.getCollusiveDisplacement
+     */
+    public int getCollusiveDisplacement(SparseLeaf leaf) {
+        if (leaf == root) {
+            return 0;
+        }
+        SparseNode node = leaf;
+        int maxResult = -1;
+        while (node.parent != null) {
+            SparseNode sibling = node.parent.left == node ? node.parent.right : node.parent.left;
+            maxResult = Math.max(maxResult, sibling.num / node.num);
+            node = node.parent;
+        }
+        return maxResult;
+    }
+
+    /**
+     * Estimated retained heap size of the tree in bytes, excluding the Random
+     * Leaves' points are counted here, their boxes share the points' arrays
+     */
+    public long estimateMemoryBytes() {
+        long[] bytes = { estimateStructureBytes() };
+        mapLeaves((leaf) -> bytes[0] += estimatePointBytes(leaf.point));
+        return bytes[0];
+    }
+
+    /**
+     * Estimated heap size of the tree excluding the Random and the leaves' points, which may be shared
+     * with other trees
+     */
+    long estimateStructureBytes() {
+        long[] bytes = { JvmLayout.object(3, 0, 0) + JvmLayout.hashMap(leavesMap.size())
+                + leavesMap.size() * JvmLayout.boxedInt() };
+        if (root != null) {
+            estimateNodeBytes(root, bytes);
+        }
+        return bytes[0];
+    }
+
+    static long estimatePointBytes(SparsePoint p) {
+        return JvmLayout.object(2, 0, 0) + JvmLayout.intArray(p.indices.length) + JvmLayout.doubleArray(p.values.length);
+    }
+
+    private void estimateNodeBytes(SparseNode n, long[] bytes) {
+        if (n instanceof SparseLeaf) {
+            // Leaf and its box
+            bytes[0] += JvmLayout.object(2, 1, 0) + JvmLayout.object(3, 0, 0);
+            return;
+        }
+        SparseBranch b = (SparseBranch) n;
+        bytes[0] += JvmLayout.object(5, 1, 0) + JvmLayout.object(0, 1, 1) + JvmLayout.object(3, 0, 0)
+                + JvmLayout.intArray(b.box.dims.length) + 2 * JvmLayout.doubleArray(b.box.dims.length);
+        estimateNodeBytes(b.left, bytes);
+        estimateNodeBytes(b.right, bytes);
+    }
+}
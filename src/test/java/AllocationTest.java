@@ -0,0 +1,243 @@
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import rrcf.general.Forest;
+import rrcf.general.Leaf;
+import rrcf.general.RandomProjection;
+import rrcf.general.ShingledForest;
+import rrcf.general.Tree;
+import rrcf.memory.SmallShingledForest;
+
+/**
+ * Guards the hot path against allocation regressions
+ * Each structure is warmed to steady state (full window, JIT compiled), then the bytes
+ * allocated by the current thread are averaged over a run of operations and compared to a budget
+ * Budgets are bytes per operation and have headroom over the measured values,
+ * so only real regressions (an extra array per level, boxing in a loop, ...) trip them
+ */
+public class AllocationTest {
+    private static final int DIMENSIONS = 8;
+    private static final int NUM_TREES = 10;
+    private static final int TREE_SIZE = 256;
+    private static final int WARMUP = 20000;
+    private static final int MEASURED = 5000;
+
+    // Per operation budgets (bytes) for a single tree of TREE_SIZE points of DIMENSIONS dimensions
+    private static final long TREE_INSERT_BUDGET = 5120;
+    private static final long TREE_FORGET_BUDGET = 1024;
+    private static final long TREE_CODISP_BUDGET = 32;
+    private static final long TREE_ATTRIBUTION_BUDGET = 32;
+    private static final long PROJECTION_BUDGET = 16;
+    // Per addPoint budgets (bytes) for a forest of NUM_TREES trees
+    private static final long FOREST_BUDGET = 60 * 1024;
+    private static final long SHINGLED_FOREST_BUDGET = 60 * 1024;
+    private static final long SMALL_SHINGLED_FOREST_BUDGET = 84 * 1024;
+
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void testTreeOperations() {
+        Random r = new Random(1);
+        Tree tree = new Tree(new Random(1));
+        int total = WARMUP + MEASURED;
+        double[][] points = randomPoints(r, total, DIMENSIONS);
+        // Keys are boxed up front so only the tree's own allocations are counted
+        Integer[] keys = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            keys[i] = i;
+        }
+
+        for (int i = 0; i < WARMUP; i++) {
+            if (tree.size() >= TREE_SIZE) {
+                tree.forgetPoint(keys[i - TREE_SIZE]);
+            }
+            tree.insertPoint(points[i], keys[i]);
+            tree.getCollusiveDisplacement(keys[i]);
+        }
+
+        long overhead = measurementOverhead();
+        long forget = 0;
+        long insert = 0;
+        long codisp = 0;
+        long attribution = 0;
+        double[] dest = new double[DIMENSIONS];
+        for (int i = WARMUP; i < total; i++) {
+            long start = allocated();
+            tree.forgetPoint(keys[i - TREE_SIZE]);
+            long afterForget = allocated();
+            Leaf leaf = tree.insertPoint(points[i], keys[i]);
+            long afterInsert = allocated();
+            tree.getCollusiveDisplacement(keys[i]);
+            long afterCodisp = allocated();
+            tree.addAttribution(leaf, dest);
+            long afterAttribution = allocated();
+            forget += afterForget - start - overhead;
+            insert += afterInsert - afterForget - overhead;
+            codisp += afterCodisp - afterInsert - overhead;
+            attribution += afterAttribution - afterCodisp - overhead;
+        }
+
+        Report report = new Report("Tree");
+        report.check("insertPoint", insert / (double) MEASURED, TREE_INSERT_BUDGET);
+        report.check("forgetPoint", forget / (double) MEASURED, TREE_FORGET_BUDGET);
+        report.check("getCollusiveDisplacement", codisp / (double) MEASURED, TREE_CODISP_BUDGET);
+        report.check("addAttribution", attribution / (double) MEASURED, TREE_ATTRIBUTION_BUDGET);
+        report.assertWithinBudget();
+    }
+
+    @Test
+    public void testForest() {
+        Random r = new Random(2);
+        Forest forest = new Forest(new Random(2), NUM_TREES, TREE_SIZE);
+        double[][] points = randomPoints(r, WARMUP + MEASURED, DIMENSIONS);
+        for (int i = 0; i < WARMUP; i++) {
+            forest.addPoint(points[i]);
+        }
+        long overhead = measurementOverhead();
+        long start = allocated();
+        for (int i = WARMUP; i < WARMUP + MEASURED; i++) {
+            forest.addPoint(points[i]);
+        }
+        long bytes = allocated() - start - overhead;
+
+        Report report = new Report("Forest");
+        report.check("addPoint", bytes / (double) MEASURED, FOREST_BUDGET);
+        report.assertWithinBudget();
+    }
+
+    @Test
+    public void testShingledForest() {
+        Random r = new Random(3);
+        ShingledForest forest = new ShingledForest(new Random(3), DIMENSIONS, NUM_TREES, TREE_SIZE);
+        double[] values = randomValues(r, WARMUP + MEASURED);
+        for (int i = 0; i < WARMUP; i++) {
+            forest.addPoint(values[i]);
+        }
+        long overhead = measurementOverhead();
+        long start = allocated();
+        for (int i = WARMUP; i < WARMUP + MEASURED; i++) {
+            forest.addPoint(values[i]);
+        }
+        long bytes = allocated() - start - overhead;
+
+        Report report = new Report("ShingledForest");
+        report.check("addPoint", bytes / (double) MEASURED, SHINGLED_FOREST_BUDGET);
+        report.assertWithinBudget();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSmallShingledForest() {
+        Random r = new Random(4);
+        SmallShingledForest forest = new SmallShingledForest(new Random(4), DIMENSIONS, NUM_TREES, TREE_SIZE);
+        double[] values = randomValues(r, WARMUP + MEASURED);
+        for (int i = 0; i < WARMUP; i++) {
+            forest.addPoint(values[i]);
+        }
+        long overhead = measurementOverhead();
+        long start = allocated();
+        for (int i = WARMUP; i < WARMUP + MEASURED; i++) {
+            forest.addPoint(values[i]);
+        }
+        long bytes = allocated() - start - overhead;
+
+        Report report = new Report("SmallShingledForest");
+        report.check("addPoint", bytes / (double) MEASURED, SMALL_SHINGLED_FOREST_BUDGET);
+        report.assertWithinBudget();
+    }
+
+    @Test
+    public void testRandomProjection() {
+        Random r = new Random(5);
+        RandomProjection projection = new RandomProjection(new Random(5), 256, DIMENSIONS);
+        double[][] points = randomPoints(r, WARMUP, 256);
+        double[] out = new double[DIMENSIONS];
+        for (int i = 0; i < WARMUP; i++) {
+            projection.project(points[i], out);
+        }
+        long overhead = measurementOverhead();
+        long start = allocated();
+        for (int i = 0; i < MEASURED; i++) {
+            projection.project(points[i], out);
+        }
+        long bytes = allocated() - start - overhead;
+
+        Report report = new Report("RandomProjection");
+        report.check("project", bytes / (double) MEASURED, PROJECTION_BUDGET);
+        report.assertWithinBudget();
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Bytes attributed to a pair of allocated() calls with nothing in between
+     */
+    private static long measurementOverhead() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long a = allocated();
+            long b = allocated();
+            min = Math.min(min, b - a);
+        }
+        return min;
+    }
+
+    private static double[][] randomPoints(Random r, int num, int dimensions) {
+        double[][] points = new double[num][dimensions];
+        for (int i = 0; i < num; i++) {
+            for (int d = 0; d < dimensions; d++) {
+                points[i][d] = r.nextDouble() * 1000;
+            }
+        }
+        return points;
+    }
+
+    private static double[] randomValues(Random r, int num) {
+        double[] values = new double[num];
+        for (int i = 0; i < num; i++) {
+            values[i] = r.nextDouble() * 1000;
+        }
+        return values;
+    }
+
+    /**
+     * Collects measured/budget pairs and prints the full breakdown if any budget is exceeded
+     */
+    private static class Report {
+        private String name;
+        private List<String> lines = new ArrayList<>();
+        private boolean exceeded = false;
+
+        Report(String name) {
+            this.name = name;
+        }
+
+        void check(String operation, double bytesPerOp, long budget) {
+            boolean over = bytesPerOp > budget;
+            exceeded |= over;
+            lines.add(String.format("  %-26s %10.1f B/op  (budget %d)%s", operation, bytesPerOp, budget,
+                    over ? "  <-- EXCEEDED" : ""));
+        }
+
+        void assertWithinBudget() {
+            if (exceeded) {
+                System.out.printf("Allocation budget exceeded for %s (%d trees, size %d, %d dimensions):\n", name,
+                        NUM_TREES, TREE_SIZE, DIMENSIONS);
+                for (String line : lines) {
+                    System.out.println(line);
+                }
+            }
+            assertTrue(name + " exceeded its allocation budget", !exceeded);
+        }
+    }
+}
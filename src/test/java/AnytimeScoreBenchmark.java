@@ -0,0 +1,61 @@
+import java.util.Random;
+
+import rrcf.general.AnytimeScore;
+import rrcf.general.ShingledForest;
+
+/**
+ * Read-only scoring of every window point, exact average over all trees vs anytime estimates
+ * Reports time per score, trees used and the fraction of estimates within the tolerance of the exact score
+ *
+ * Args: [numTrees treeSize tolerance rounds]
+ * Run: java -cp target/classes:target/test-classes AnytimeScoreBenchmark
+ */
+public class AnytimeScoreBenchmark {
+    private static double sink;
+
+    public static void main(String[] args) {
+        int numTrees = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int treeSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        ShingledForest forest = new ShingledForest(new Random(1), 4, numTrees, treeSize);
+        double[] values = SyntheticStreams.withAnomalies(3, SyntheticStreams.seasonal(2, 4 * treeSize, 100, 10, 0.5),
+                0.002, 50);
+        for (double v : values) {
+            forest.addPoint(v);
+        }
+        int end = forest.getCurrentIndex();
+        double[] exact = new double[treeSize];
+        for (int k = end - treeSize; k < end; k++) {
+            exact[k - end + treeSize] = forest.getCollusiveDisplacement(k);
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int k = end - treeSize; k < end; k++) {
+                sink += forest.getCollusiveDisplacement(k);
+            }
+            long exactNanos = System.nanoTime() - start;
+
+            long trees = 0;
+            int within = 0;
+            start = System.nanoTime();
+            for (int k = end - treeSize; k < end; k++) {
+                AnytimeScore score = forest.getCollusiveDisplacement(k, tolerance);
+                trees += score.trees;
+                within += Math.abs(score.score - exact[k - end + treeSize]) <= tolerance ? 1 : 0;
+            }
+            long anytimeNanos = System.nanoTime() - start;
+            if (round == rounds - 1) {
+                System.out.printf("exact: %.0f ns/score, %d trees%n", (double) exactNanos / treeSize, numTrees);
+                System.out.printf("anytime (tolerance %.2f): %.0f ns/score, %.1f trees, %.1f%% within tolerance, %.1fx faster%n",
+                        tolerance, (double) anytimeNanos / treeSize, (double) trees / treeSize,
+                        100.0 * within / treeSize, (double) exactNanos / anytimeNanos);
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
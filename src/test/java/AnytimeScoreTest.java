@@ -0,0 +1,60 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.AnytimeScore;
+import rrcf.general.ConcurrentShingledForest;
+import rrcf.general.ShingledForest;
+
+public class AnytimeScoreTest {
+    private static final int NUM_TREES = 100;
+    private static final int TREE_SIZE = 256;
+
+    private static ShingledForest forest(ShingledForest forest) {
+        double[] values = SyntheticStreams.seasonal(1, 2000, 50, 10, 0.5);
+        values[1900] += 80;
+        for (double v : values) {
+            forest.addPoint(v);
+        }
+        return forest;
+    }
+
+    @Test
+    public void testExactWithoutTolerance() {
+        ShingledForest forest = forest(new ShingledForest(new Random(2), 4, NUM_TREES, TREE_SIZE));
+        int end = forest.getCurrentIndex();
+        for (int k = end - TREE_SIZE; k < end; k++) {
+            AnytimeScore score = forest.getCollusiveDisplacement(k, 0);
+            assertEquals(NUM_TREES, score.trees);
+            assertEquals(0, score.halfWidth, 0);
+            assertEquals(forest.getCollusiveDisplacement(k), score.score, 1e-9);
+        }
+    }
+
+    @Test
+    public void testEarlyTermination() {
+        ShingledForest forest = forest(new ConcurrentShingledForest(new Random(3), 4, NUM_TREES, TREE_SIZE));
+        int end = forest.getCurrentIndex();
+        int within = 0;
+        long trees = 0;
+        for (int k = end - TREE_SIZE; k < end; k++) {
+            AnytimeScore score = forest.getCollusiveDisplacement(k, 2);
+            assertTrue(score.trees >= 16 && score.trees <= NUM_TREES);
+            assertTrue(score.trees == NUM_TREES || score.halfWidth <= 2);
+            within += Math.abs(score.score - forest.getCollusiveDisplacement(k)) <= 2 ? 1 : 0;
+            trees += score.trees;
+        }
+        // 95% intervals, with some slack for the stopping rule (scores average about 7)
+        assertTrue(within >= 0.9 * TREE_SIZE);
+        assertTrue(trees < TREE_SIZE * NUM_TREES / 3);
+
+        // The spike's shingles stand out and need more trees to pin down
+        int spike = 1900 - 3;
+        AnytimeScore anomaly = forest.getCollusiveDisplacement(spike, 2);
+        assertTrue(anomaly.score > 5 * forest.getCollusiveDisplacement(end - 1, 2).score);
+        assertTrue(anomaly.trees > 16);
+    }
+}
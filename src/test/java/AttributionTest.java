@@ -0,0 +1,86 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.ConcurrentForest;
+import rrcf.general.Forest;
+import rrcf.general.PointStore;
+import rrcf.general.ShingledForest;
+import rrcf.general.Tree;
+
+public class AttributionTest {
+    @Test
+    public void testAttributionSumsToCodisp() {
+        Tree tree = new Tree(new Random(1));
+        Tree stored = new Tree(new Random(1), new PointStore(3, 16));
+        Random r = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            double[] point = { r.nextInt(4), r.nextGaussian(), r.nextGaussian() * 10 };
+            tree.insertPoint(point, i);
+            stored.insertPoint(point, i);
+        }
+        for (int i = 0; i < 300; i++) {
+            double[] attribution = tree.getAttribution(i);
+            assertEquals(tree.getCollusiveDisplacement(i), sum(attribution), 1e-9);
+            for (double a : attribution) {
+                assertTrue(a >= 0);
+            }
+            assertEquals(attribution.length, stored.getAttribution(i).length);
+            assertEquals(sum(attribution), sum(stored.getAttribution(i)), 1e-9);
+        }
+    }
+
+    @Test
+    public void testAnomalousDimensionDominates() {
+        Forest forest = new Forest(new Random(3), 20, 256);
+        ConcurrentForest concurrent = new ConcurrentForest(new Random(3), 20, 256);
+        Random r = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            double[] point = { r.nextGaussian(), r.nextGaussian(), r.nextGaussian(), r.nextGaussian() };
+            if (i == 999) {
+                point[2] = 12;
+            }
+            forest.addPoint(point);
+            concurrent.addPoint(point);
+        }
+        double[] attribution = forest.getAttribution(999);
+        assertEquals(forest.getCollusiveDisplacement(999), sum(attribution), 1e-9);
+        assertTrue(attribution[2] > 0.9 * sum(attribution));
+        double[] fromConcurrent = concurrent.getAttribution(999);
+        for (int d = 0; d < attribution.length; d++) {
+            assertEquals(attribution[d], fromConcurrent[d], 1e-9);
+        }
+    }
+
+    @Test
+    public void testShingledSpikePositions() {
+        int shingle = 8;
+        ShingledForest forest = new ShingledForest(new Random(5), shingle, 20, 256);
+        double[] data = SyntheticStreams.seasonal(6, 1003, 40, 10, 0.5);
+        data[1000] += 50;
+        for (double d : data) {
+            forest.addPoint(d);
+        }
+        // The last shingle holds the spike at position shingle - 3
+        int key = forest.getCurrentIndex() - 1;
+        double[] attribution = forest.getAttribution(key);
+        int max = 0;
+        for (int d = 1; d < shingle; d++) {
+            if (attribution[d] > attribution[max]) {
+                max = d;
+            }
+        }
+        assertEquals(shingle - 3, max);
+    }
+
+    private static double sum(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum;
+    }
+}
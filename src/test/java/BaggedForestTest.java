@@ -0,0 +1,222 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.BaggedForest;
+import rrcf.general.Forest;
+import rrcf.general.Neighbor;
+import rrcf.general.RandomProjection;
+import rrcf.general.Tree;
+
+public class BaggedForestTest {
+    @Test
+    public void testTreesKeepFeatureSubsets() {
+        int dimensions = 50;
+        BaggedForest forest = new BaggedForest(new Random(1), 10, 64, dimensions, 8);
+        double[][] points = SyntheticStreams.highDimensional(2, 500, dimensions, 4);
+        for (double[] p : points) {
+            forest.addPoint(p);
+        }
+        for (int i = 0; i < forest.trees.length; i++) {
+            int[] features = forest.getFeatures(i);
+            assertEquals(8, features.length);
+            for (int j = 1; j < features.length; j++) {
+                assertTrue(features[j - 1] < features[j]);
+            }
+            assertEquals(8, forest.trees[i].getDimensions());
+            assertEquals(64, forest.trees[i].size());
+        }
+        double[] attribution = forest.getAttribution(499);
+        assertEquals(dimensions, attribution.length);
+        double sum = 0;
+        for (double a : attribution) {
+            sum += a;
+        }
+        assertEquals(forest.getCollusiveDisplacement(499), sum, 1e-9);
+    }
+
+    @Test
+    public void testRejectsProjections() {
+        BaggedForest forest = new BaggedForest(new Random(13), 4, 32, 20, 4);
+        try {
+            forest.setProjection(new RandomProjection(new Random(14), 20, 5));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertNull(forest.getProjection());
+        forest.addPoint(new double[20]);
+    }
+
+    @Test
+    public void testAnomalyAndMemory() {
+        int dimensions = 100;
+        BaggedForest bagged = new BaggedForest(new Random(3), 20, 256, dimensions, 10);
+        Forest full = new Forest(new Random(3), 20, 256);
+        double[][] points = SyntheticStreams.highDimensional(4, 1000, dimensions, 4);
+        double baggedNormal = 0;
+        for (int i = 0; i < points.length; i++) {
+            full.addPoint(points[i]);
+            double score = bagged.addPoint(points[i]);
+            if (i >= 900) {
+                baggedNormal += score / 100;
+            }
+        }
+        double[] anomaly = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            anomaly[d] = 200;
+        }
+        assertTrue(bagged.addPoint(anomaly) > 3 * baggedNormal);
+        full.addPoint(anomaly);
+        // Boxes and points are a tenth of the size
+        assertTrue(bagged.estimateMemoryBytes() < full.estimateMemoryBytes() / 2);
+    }
+
+    @Test
+    public void testNeighborsAndDensityMatchFullForest() {
+        int dimensions = 30;
+        BaggedForest bagged = new BaggedForest(new Random(7), 10, 128, dimensions, 5);
+        Forest full = new Forest(new Random(7), 10, 128);
+        double[][] points = SyntheticStreams.highDimensional(8, 600, dimensions, 4);
+        for (double[] p : points) {
+            bagged.addPoint(p);
+            full.addPoint(p);
+        }
+        // Repeated points are counted per copy
+        bagged.addPoint(points[599]);
+        full.addPoint(points[599]);
+        for (double[] query : new double[][] { points[599], points[300], new double[dimensions] }) {
+            List<Neighbor> expected = full.nearestNeighbors(query, 5);
+            List<Neighbor> actual = bagged.nearestNeighbors(query, 5);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).distance, actual.get(i).distance, 1e-9);
+                assertEquals(expected.get(i).num, actual.get(i).num);
+            }
+            assertEquals(full.density(query, 5), bagged.density(query, 5), 1e-9 * full.density(query, 5));
+        }
+        assertEquals(2, bagged.nearestNeighbors(points[599], 1).get(0).num);
+        // Only the newest points are scanned
+        assertEquals(0, bagged.nearestNeighbors(points[599], 1, 1).get(0).distance, 0);
+        assertTrue(bagged.nearestNeighbors(points[480], 1, 10).get(0).distance > 0);
+    }
+
+    @Test
+    public void testImputation() {
+        int dimensions = 6;
+        BaggedForest forest = new BaggedForest(new Random(9), 30, 512, dimensions, 3);
+        Random r = new Random(10);
+        for (int i = 0; i < 2000; i++) {
+            double x = r.nextDouble() * 100;
+            forest.addPoint(new double[] { x, 2 * x + r.nextGaussian(), x + r.nextGaussian(), r.nextGaussian(),
+                    r.nextGaussian(), r.nextGaussian() });
+        }
+        double error = 0;
+        for (int i = 0; i < 100; i++) {
+            double x = 5 + r.nextDouble() * 90;
+            double[] imputed = forest.impute(new double[] { x, Double.NaN, x, 0, 0, 0 }, new int[] { 1 });
+            assertEquals(x, imputed[0], 0);
+            error += Math.abs(imputed[1] - 2 * x);
+        }
+        assertTrue(error / 100 < 3);
+
+        // A single tree leaves most dimensions out, those are taken from the points its leaves hold
+        Random c = new Random(11);
+        BaggedForest single = new BaggedForest(new Random(12), 1, 256, dimensions, 2);
+        for (int i = 0; i < 400; i++) {
+            double center = c.nextBoolean() ? 0 : 10;
+            double[] p = new double[dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                p[d] = center + c.nextGaussian() * 0.1;
+            }
+            single.addPoint(p);
+        }
+        int[] features = single.getFeatures(0);
+        int left = 0;
+        while (Arrays.binarySearch(features, left) >= 0) {
+            left++;
+        }
+        double[] query = new double[dimensions];
+        Arrays.fill(query, 10);
+        query[left] = Double.NaN;
+        query[features[0]] = Double.NaN;
+        double[] imputed = single.impute(query, new int[] { left, features[0] });
+        assertEquals(10, imputed[left], 0.5);
+        assertEquals(10, imputed[features[0]], 0.5);
+    }
+
+    /**
+     * Checks every tree holds the last size points projected onto its features
+     */
+    private static void assertWindow(BaggedForest forest, double[][] points, int size) {
+        int end = forest.getCurrentIndex();
+        for (int i = 0; i < forest.trees.length; i++) {
+            int[] features = forest.getFeatures(i);
+            Tree tree = forest.trees[i];
+            assertEquals(size, tree.size());
+            for (int k = end - size; k < end; k++) {
+                assertTrue(tree.getCollusiveDisplacement(k) >= 0);
+                double[] projected = new double[features.length];
+                for (int j = 0; j < features.length; j++) {
+                    projected[j] = points[k][features[j]];
+                }
+                assertEquals(0, tree.nearestNeighbors(projected, 1).get(0).distance, 0);
+            }
+        }
+    }
+
+    @Test
+    public void testAddRemoveAndShedTrees() {
+        int dimensions = 20;
+        BaggedForest forest = new BaggedForest(new Random(5), 6, 32, dimensions, 4);
+        double[][] points = SyntheticStreams.highDimensional(6, 3000, dimensions, 4);
+        int added = 0;
+        for (; added < 200; added++) {
+            forest.addPoint(points[added]);
+        }
+        long before = forest.estimateMemoryBytes();
+        forest.removeTrees(2);
+        assertEquals(4, forest.getNumTrees());
+        assertTrue(forest.estimateMemoryBytes() < before);
+        try {
+            forest.getFeatures(4);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Trimmed with the trees
+        }
+
+        forest.addTrees(3);
+        assertEquals(4, forest.getActiveTrees());
+        for (int i = 4; i < 7; i++) {
+            assertEquals(4, forest.getFeatures(i).length);
+        }
+        // Added trees catch up a few points at a time
+        for (; added < 400; added++) {
+            forest.addPoint(points[added]);
+        }
+        assertEquals(7, forest.getActiveTrees());
+        assertWindow(forest, points, 32);
+
+        // The window grows with the tree size
+        forest.setTreeSize(64);
+        for (; added < 500; added++) {
+            forest.addPoint(points[added]);
+        }
+        forest.setLatencyBudget(1, 2);
+        for (; added < 1500; added++) {
+            forest.addPoint(points[added]);
+        }
+        assertEquals(2, forest.getActiveTrees());
+        forest.setLatencyBudget(0, 1);
+        forest.catchUp();
+        assertEquals(7, forest.getActiveTrees());
+        assertWindow(forest, points, 64);
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Random;
+
+import rrcf.general.Tree;
+
+/**
+ * Descent latency of a large tree before and after Tree.compact
+ * The tree is churned through many insert/forget cycles while unrelated objects are allocated and retained,
+ * which scatters its nodes over the heap like a long-running service does. Then random window points are
+ * looked up (query, a root-to-leaf descent) and scored (getCollusiveDisplacement, a leaf-to-root walk)
+ *
+ * Args: [treeSize dimensions churnFactor lookups]
+ * Run with a large heap: java -Xms4g -Xmx4g -cp target/classes:target/test-classes CompactionBenchmark
+ */
+public class CompactionBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) {
+        int treeSize = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int churnFactor = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int lookups = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+
+        Random r = new Random(1);
+        int total = treeSize * (1 + churnFactor);
+        Tree tree = new Tree(new Random(2), new double[0][0]);
+        double[][] window = new double[treeSize][];
+        // Unrelated long-lived allocations interleaved with the tree's
+        Object[] noise = new Object[treeSize];
+        for (int i = 0; i < total; i++) {
+            if (i >= treeSize) {
+                tree.forgetPoint(i - treeSize);
+            }
+            double[] point = new double[dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                point[d] = r.nextGaussian();
+            }
+            tree.insertPoint(point, i);
+            window[i % treeSize] = point;
+            noise[r.nextInt(treeSize)] = new long[1 + r.nextInt(16)];
+        }
+        int first = total - treeSize;
+        System.out.printf("treeSize %d, dimensions %d, points added %d, lookups %d\n", treeSize, dimensions, total,
+                lookups);
+        System.out.println("layout,query ns,codisp ns,insert+forget ns");
+        // The first run warms up the JIT
+        measure("scattered (warmup)", tree, window, first, lookups, r);
+        measure("scattered", tree, window, first, lookups, r);
+        System.gc();
+        measure("scattered+gc", tree, window, first, lookups, r);
+        long start = System.nanoTime();
+        tree.compact();
+        long compactMs = (System.nanoTime() - start) / 1000000;
+        measure("compacted", tree, window, first, lookups, r);
+        System.gc();
+        measure("compacted+gc", tree, window, first, lookups, r);
+        System.out.printf("compaction took %d ms, %d noise objects\n", compactMs, noise.length);
+    }
+
+    private static void measure(String layout, Tree tree, double[][] window, int first, int lookups, Random r) {
+        int n = window.length;
+        int[] order = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            order[i] = r.nextInt(n);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += tree.query(window[order[i]]).num;
+        }
+        double query = (System.nanoTime() - start) / (double) lookups;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int slot = order[i];
+            // Window position of slot s holds key first + ((s - first) mod n)
+            int key = first + Math.floorMod(slot - first, n);
+            sink += tree.getCollusiveDisplacement(key);
+        }
+        double codisp = (System.nanoTime() - start) / (double) lookups;
+        // Re-adding the oldest point as the newest keeps the window and measures the update path
+        int updates = Math.min(lookups, n) / 10;
+        start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            int oldest = first + i;
+            double[] point = window[Math.floorMod(oldest, n)];
+            tree.forgetPoint(oldest);
+            tree.insertPoint(point, oldest + n);
+        }
+        double update = (System.nanoTime() - start) / (double) updates;
+        // Put the keys back so the next measurement sees the same window
+        for (int i = 0; i < updates; i++) {
+            int oldest = first + i;
+            tree.forgetPoint(oldest + n);
+            tree.insertPoint(window[Math.floorMod(oldest, n)], oldest);
+        }
+        System.out.printf("%s,%.0f,%.0f,%.0f\n", layout, query, codisp, update);
+    }
+}
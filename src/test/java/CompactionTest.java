@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import rrcf.general.ConcurrentForest;
+import rrcf.general.Forest;
+import rrcf.general.Node;
+import rrcf.general.PointStore;
+import rrcf.general.ScoreCache;
+import rrcf.general.Tree;
+
+public class CompactionTest {
+    @Test
+    public void testCompactedTreeIsEqual() {
+        Tree tree = new Tree(new Random(1), new double[0][0]);
+        double[][] points = SyntheticStreams.highDimensional(2, 2000, 3, 4);
+        for (int i = 0; i < points.length; i++) {
+            if (tree.size() >= 100) {
+                tree.forgetPoint(i - 100);
+            }
+            tree.insertPoint(points[i], i);
+        }
+        String before = tree.toString();
+        int[] codisp = new int[100];
+        for (int i = 0; i < 100; i++) {
+            codisp[i] = tree.getCollusiveDisplacement(1900 + i);
+        }
+        assertTrue(tree.getChurn() > 0);
+        tree.compact(3);
+        assertEquals(0, tree.getChurn());
+        assertEquals(before, tree.toString());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(codisp[i], tree.getCollusiveDisplacement(1900 + i));
+        }
+        tree.mapBranches((branch) -> {
+            assertTrue(branch.left.parent == branch);
+            assertTrue(branch.right.parent == branch);
+            assertEquals(branch.num, branch.left.num + branch.right.num);
+        });
+        // Keys map to the new leaves
+        Set<Node> leaves = Collections.newSetFromMap(new IdentityHashMap<>());
+        tree.mapLeaves(leaves::add);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(leaves.contains(tree.forgetPoint(1900 + i)));
+        }
+        assertEquals(0, tree.size());
+    }
+
+    @Test
+    public void testAutomaticCompactionKeepsScores() {
+        double[][] points = SyntheticStreams.shingle(SyntheticStreams.highDuplicate(3, 6000, 5, 20), 4);
+        Forest[] plain = { new Forest(new Random(4), 10, 64), new Forest(new Random(4), 10, 64, new PointStore(4, 64)),
+            new ConcurrentForest(new Random(4), 10, 64) };
+        Forest[] compacted = { new Forest(new Random(4), 10, 64),
+            new Forest(new Random(4), 10, 64, new PointStore(4, 64)), new ConcurrentForest(new Random(4), 10, 64) };
+        compacted[0].setScoreCache(new ScoreCache(64));
+        for (int f = 0; f < plain.length; f++) {
+            compacted[f].setCompactionThreshold(0.5);
+            for (int i = 0; i < points.length; i++) {
+                assertEquals(plain[f].addPoint(points[i]), compacted[f].addPoint(points[i]), 0);
+                if (i % 1000 == 0) {
+                    compacted[f].compact();
+                }
+            }
+            for (Tree tree : compacted[f].trees) {
+                assertTrue(tree.getChurn() <= 32 + 2 * 10);
+            }
+        }
+    }
+}
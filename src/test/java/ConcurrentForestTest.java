@@ -0,0 +1,177 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import rrcf.general.Branch;
+import rrcf.general.ConcurrentForest;
+import rrcf.general.ConcurrentShingledForest;
+import rrcf.general.Forest;
+import rrcf.general.Leaf;
+import rrcf.general.Node;
+import rrcf.general.ShingledForest;
+import rrcf.general.Tree;
+
+public class ConcurrentForestTest {
+    private static final int READERS = 4;
+
+    @Test
+    public void testReadersSeeConsistentTrees() throws InterruptedException {
+        int numTrees = 8;
+        ConcurrentForest forest = new ConcurrentForest(new Random(1), numTrees, 64);
+        Forest plain = new Forest(new Random(1), numTrees, 64);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong torn = new AtomicLong();
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            int seed = r;
+            readers[r] = new Thread(() -> {
+                Random random = new Random(seed);
+                while (!done.get() && torn.get() == 0) {
+                    if (!forest.read(random.nextInt(numTrees), ConcurrentForestTest::isConsistent)) {
+                        torn.incrementAndGet();
+                    }
+                    // Scores of points in the window can be read while the writer moves it
+                    try {
+                        forest.getCollusiveDisplacement(forest.getCurrentIndex() - 1 - random.nextInt(32));
+                    } catch (NullPointerException e) {
+                        // The key left the window in the meantime
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+            // A reader failing under the read lock would mean the writer left a tree inconsistent
+            readers[r].setUncaughtExceptionHandler((t, e) -> torn.incrementAndGet());
+            readers[r].start();
+        }
+        Random r = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            // Few distinct values so duplicate leaves are updated too
+            double[] point = { r.nextInt(20), r.nextInt(20), r.nextGaussian() };
+            assertEquals(plain.addPoint(point), forest.addPoint(point), 0);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, torn.get());
+        assertTrue(reads.get() > 0);
+        // Readers never change the trees
+        assertEquals(plain.toString(), forest.toString());
+    }
+
+    @Test
+    public void testReadersWhileTreesAreAddedAndRemoved() throws InterruptedException {
+        ConcurrentForest forest = new ConcurrentForest(new Random(3), 4, 64);
+        Forest plain = new Forest(new Random(3), 4, 64);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            int seed = r;
+            readers[r] = new Thread(() -> {
+                Random random = new Random(seed);
+                while (!done.get()) {
+                    int key = forest.getCurrentIndex() - 1 - random.nextInt(32);
+                    try {
+                        forest.getCollusiveDisplacement(key);
+                        forest.getAttribution(key);
+                        forest.getCollusiveDisplacement(key, 0.5);
+                    } catch (NullPointerException e) {
+                        // The key left the window in the meantime
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+            readers[r].setUncaughtExceptionHandler((t, e) -> failed.incrementAndGet());
+            readers[r].start();
+        }
+        Random r = new Random(4);
+        for (int i = 0; i < 20000; i++) {
+            double[] point = { r.nextGaussian(), r.nextGaussian() };
+            assertEquals(plain.addPoint(point), forest.addPoint(point), 0);
+            if (i % 500 == 100) {
+                for (Forest f : new Forest[] { plain, forest }) {
+                    if (i % 1000 == 100) {
+                        f.addTrees(16, Runnable::run);
+                    } else {
+                        f.removeTrees(16);
+                    }
+                }
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, failed.get());
+        assertTrue(reads.get() > 0);
+        assertEquals(plain.getActiveTrees(), forest.getActiveTrees());
+        assertEquals(plain.toString(), forest.toString());
+    }
+
+    @Test
+    public void testShingledReadersSeeConsistentTrees() throws InterruptedException {
+        ConcurrentShingledForest forest = new ConcurrentShingledForest(new Random(1), 4, 4, 32);
+        ShingledForest plain = new ShingledForest(new Random(1), 4, 4, 32);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong torn = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            int i = 0;
+            while (!done.get()) {
+                if (!forest.read(i++ % 4, ConcurrentForestTest::isConsistent)) {
+                    torn.incrementAndGet();
+                }
+            }
+        });
+        reader.setUncaughtExceptionHandler((t, e) -> torn.incrementAndGet());
+        reader.start();
+        double[] data = SyntheticStreams.seasonal(3, 10000, 50, 10, 1);
+        for (double d : data) {
+            assertEquals(plain.addPoint(d), forest.addPoint(d), 0);
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(0, torn.get());
+        assertEquals(plain.toString(), forest.toString());
+    }
+
+    /**
+     * Whether counts add up from the leaves to the root and every branch box is the union of its children
+     */
+    private static boolean isConsistent(Tree tree) {
+        if (tree.size() == 0) {
+            return true;
+        }
+        int[] leaves = { 0 };
+        tree.mapLeaves((leaf) -> leaves[0] += leaf.num);
+        boolean[] consistent = { leaves[0] == tree.size() };
+        tree.mapBranches((branch) -> {
+            if (branch.num != branch.left.num + branch.right.num) {
+                consistent[0] = false;
+            }
+            for (int d = 0; d < tree.getDimensions(); d++) {
+                double min = Math.min(min(tree, branch.left, d), min(tree, branch.right, d));
+                double max = Math.max(max(tree, branch.left, d), max(tree, branch.right, d));
+                if (branch.point[0][d] != min || branch.point[1][d] != max) {
+                    consistent[0] = false;
+                }
+            }
+        });
+        return consistent[0];
+    }
+
+    private static double min(Tree tree, Node n, int d) {
+        return n instanceof Leaf ? tree.getPoint((Leaf) n)[d] : ((Branch) n).point[0][d];
+    }
+
+    private static double max(Tree tree, Node n, int d) {
+        return n instanceof Leaf ? tree.getPoint((Leaf) n)[d] : ((Branch) n).point[1][d];
+    }
+}
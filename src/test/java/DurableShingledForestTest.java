@@ -0,0 +1,168 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.ConcurrentShingledForest;
+import rrcf.general.DurableShingledForest;
+import rrcf.general.PointStore;
+import rrcf.general.ShingledForest;
+
+public class DurableShingledForestTest {
+    @Test
+    public void testRecoveryMatchesUninterruptedForest() throws IOException {
+        Path dir = Files.createTempDirectory("durable");
+        try {
+            // Unseeded, recovery has to restore the RNG from the snapshots
+            DurableShingledForest durable = DurableShingledForest.open(dir, () -> new ShingledForest(4, 5, 64), 16,
+                    300);
+            double[] data = SyntheticStreams.seasonal(1, 2000, 50, 10, 1);
+            for (int i = 0; i < 1000; i++) {
+                durable.addPoint(data[i]);
+            }
+            durable.sync();
+            // Crash without closing
+            DurableShingledForest recovered = DurableShingledForest.open(dir, () -> null, 16, 300);
+            assertEquals(1000, recovered.getSequence());
+            assertEquals(durable.getForest().toString(), recovered.getForest().toString());
+            for (int i = 1000; i < data.length; i++) {
+                assertEquals(durable.addPoint(data[i]), recovered.addPoint(data[i]), 0);
+            }
+            assertEquals(durable.getForest().toString(), recovered.getForest().toString());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsTreesCatchingUp() throws IOException {
+        Path dir = Files.createTempDirectory("durable");
+        try {
+            DurableShingledForest durable = DurableShingledForest.open(dir,
+                    () -> new ShingledForest(new Random(5), 4, 3, 64), 16, 300);
+            Random r = new Random(6);
+            for (int i = 0; i < 250; i++) {
+                durable.addPoint(r.nextGaussian());
+            }
+            // The added trees are warmed from point 250 and still catching up when the snapshot at 300 is taken
+            List<Runnable> warmups = new ArrayList<>();
+            durable.getForest().addTrees(2, warmups::add);
+            for (int i = 250; i < 320; i++) {
+                if (i == 299) {
+                    warmups.forEach(Runnable::run);
+                }
+                durable.addPoint(r.nextGaussian());
+            }
+            durable.sync();
+            DurableShingledForest recovered = DurableShingledForest.open(dir, () -> null, 16, 300);
+            assertEquals(5, recovered.getForest().getNumTrees());
+            assertEquals(durable.getForest().toString(), recovered.getForest().toString());
+            for (int i = 0; i < 200; i++) {
+                double v = r.nextGaussian();
+                assertEquals(durable.addPoint(v), recovered.addPoint(v), 0);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testUnsyncedValuesAreLost() throws IOException {
+        Path dir = Files.createTempDirectory("durable");
+        try {
+            ShingledForest reference = new ShingledForest(new Random(1), 3, 4, 32);
+            DurableShingledForest durable = DurableShingledForest.open(dir,
+                    () -> new ShingledForest(new Random(1), 3, 4, 32), 16, 100);
+            Random r = new Random(2);
+            double[] data = new double[250];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = r.nextInt(10);
+                durable.addPoint(data[i]);
+            }
+            DurableShingledForest recovered = DurableShingledForest.open(dir, () -> null, 16, 100);
+            // Snapshots at 100 and 200 sync early, so the last sync was at 248
+            assertEquals(248, recovered.getSequence());
+            for (int i = 0; i < 248; i++) {
+                reference.addPoint(data[i]);
+            }
+            assertEquals(reference.toString(), recovered.getForest().toString());
+            recovered.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testTornFrameIsDiscarded() throws IOException {
+        Path dir = Files.createTempDirectory("durable");
+        try {
+            DurableShingledForest durable = DurableShingledForest.open(dir,
+                    () -> new ShingledForest(new Random(2), 3, 2, 32), 10, 1000);
+            for (int i = 0; i < 35; i++) {
+                durable.addPoint(i % 7);
+            }
+            durable.close();
+            Path log = null;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+                log = files.iterator().next();
+            }
+            // Half of a frame written before the crash, then a frame with a corrupt checksum
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 3, 0, 0, 0, 1, 2, 3 }));
+            }
+            DurableShingledForest recovered = DurableShingledForest.open(dir, () -> null, 10, 1000);
+            assertEquals(35, recovered.getSequence());
+            recovered.addPoint(1);
+            recovered.close();
+            DurableShingledForest reopened = DurableShingledForest.open(dir, () -> null, 10, 1000);
+            assertEquals(36, reopened.getSequence());
+            reopened.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testRejectsForestsSnapshotsCantRestore() throws IOException {
+        Path dir = Files.createTempDirectory("durable");
+        try {
+            try {
+                DurableShingledForest.open(dir, () -> new ConcurrentShingledForest(new Random(3), 3, 2, 32), 10, 100);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                DurableShingledForest.open(dir, () -> new ShingledForest(new Random(3), 3, 2, 32,
+                        new PointStore(3, 16)), 10, 100);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            // Nothing was written, so a plain forest can still start there
+            DurableShingledForest.open(dir, () -> new ShingledForest(new Random(3), 3, 2, 32), 10, 100).close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.ForestIngester;
+import rrcf.general.ForestIngester.Backpressure;
+
+public class ForestIngesterTest {
+    @Test
+    public void testSingleProducerMatchesForest() throws InterruptedException, ExecutionException {
+        Forest plain = new Forest(new Random(1), 10, 64);
+        Forest forest = new Forest(new Random(1), 10, 64);
+        Random r = new Random(2);
+        double[][] points = new double[2000][];
+        List<CompletableFuture<Double>> scores = new ArrayList<>();
+        try (ForestIngester ingester = new ForestIngester(forest, 64, 16, Backpressure.BLOCK)) {
+            for (int i = 0; i < points.length; i++) {
+                points[i] = new double[] { r.nextGaussian(), r.nextGaussian() };
+                scores.add(ingester.submit(points[i]));
+            }
+        }
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(plain.addPoint(points[i]), scores.get(i).get(), 0);
+        }
+        assertEquals(plain.toString(), forest.toString());
+    }
+
+    @Test
+    public void testManyProducersBlock() throws InterruptedException {
+        Forest forest = new Forest(new Random(1), 5, 64);
+        int producers = 4;
+        int perProducer = 5000;
+        AtomicLong scored = new AtomicLong();
+        ForestIngester ingester = new ForestIngester(forest, 32, Backpressure.BLOCK);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int seed = p;
+            threads[p] = new Thread(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < perProducer; i++) {
+                    double[] point = { seed, r.nextDouble() };
+                    assertTrue(ingester.offer(point, (score) -> scored.incrementAndGet()));
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        ingester.close();
+        assertEquals(0, ingester.getDropped());
+        assertEquals(producers * perProducer, ingester.getProcessed());
+        assertEquals(producers * perProducer, scored.get());
+        assertEquals(producers * perProducer, forest.getCurrentIndex());
+    }
+
+    @Test
+    public void testDropAndSampleWhenFull() throws InterruptedException {
+        for (Backpressure backpressure : new Backpressure[] { Backpressure.DROP, Backpressure.SAMPLE }) {
+            Forest forest = new Forest(new Random(1), 2, 16);
+            CountDownLatch release = new CountDownLatch(1);
+            ForestIngester ingester = new ForestIngester(forest, 16, 1, backpressure);
+            // Hold up the writer on the first score so the queue fills
+            ingester.offer(new double[] { 0 }, (score) -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            while (ingester.getQueued() > 0) {
+                Thread.yield();
+            }
+            int accepted = 0;
+            for (int i = 0; i < 100; i++) {
+                if (ingester.offer(new double[] { i }, (score) -> { })) {
+                    accepted++;
+                }
+            }
+            assertTrue(accepted <= 16);
+            if (backpressure == Backpressure.DROP) {
+                assertEquals(16, accepted);
+                assertTrue(ingester.submit(new double[] { 0 }).isCompletedExceptionally());
+                assertEquals(100 - accepted + 1, ingester.getDropped());
+            } else {
+                // At least the first 3/4 of the queue is always admitted
+                assertTrue(accepted >= 12);
+                assertEquals(100 - accepted, ingester.getDropped());
+            }
+            release.countDown();
+            ingester.close();
+            assertEquals(1 + accepted, forest.getCurrentIndex());
+        }
+    }
+
+    @Test
+    public void testFailuresDontStopWriter() throws InterruptedException {
+        Forest forest = new Forest(new Random(1), 5, 64);
+        List<CompletableFuture<Double>> scores = new ArrayList<>();
+        AtomicLong errors = new AtomicLong();
+        ForestIngester ingester = new ForestIngester(forest, 4, 2, Backpressure.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 == 5) {
+                ingester.offer(new double[] { i }, (score) -> {
+                    throw new IllegalStateException();
+                }, (t) -> errors.incrementAndGet());
+            } else if (i % 10 == 7) {
+                // Wrong dimension
+                scores.add(ingester.submit(new double[] { i, i }));
+            } else {
+                scores.add(ingester.submit(new double[] { i }));
+            }
+        }
+        ingester.close();
+        assertEquals(10, errors.get());
+        assertEquals(20, ingester.getFailed());
+        int failed = 0;
+        for (CompletableFuture<Double> score : scores) {
+            assertTrue(score.isDone());
+            if (score.isCompletedExceptionally()) {
+                failed++;
+            }
+        }
+        assertEquals(10, failed);
+    }
+}
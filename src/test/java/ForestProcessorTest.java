@@ -0,0 +1,201 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.ForestProcessor;
+import rrcf.general.Score;
+import rrcf.general.ShingledForest;
+
+public class ForestProcessorTest {
+    /**
+     * Collects scores, requesting `chunk` more whenever the previous chunk arrived
+     */
+    private static class Collector implements Flow.Subscriber<Score> {
+        final List<Score> scores = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long chunk;
+        Flow.Subscription subscription;
+        Throwable error;
+        long pending;
+
+        Collector(long chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            if (chunk > 0) {
+                pending = chunk;
+                s.request(chunk);
+            }
+        }
+
+        @Override
+        public void onNext(Score score) {
+            scores.add(score);
+            if (chunk > 0 && --pending == 0) {
+                pending = chunk;
+                subscription.request(chunk);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Upstream that only records what it was asked for, items are pushed by the test
+     */
+    private static class Upstream implements Flow.Subscription {
+        long requested;
+        int calls;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+            calls++;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    @Test
+    public void testShingledScoresMatchForest() throws InterruptedException {
+        double[] values = SyntheticStreams.seasonal(1, 3000, 50, 10, 1);
+        ShingledForest direct = new ShingledForest(new Random(2), 4, 10, 64);
+        double[] expected = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            expected[i] = direct.addPoint(values[i]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        ForestProcessor<Double> processor = ForestProcessor.shingled(new ShingledForest(new Random(2), 4, 10, 64),
+                pool);
+        Collector collector = new Collector(7);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<Double> publisher = new SubmissionPublisher<>(pool, 16)) {
+            publisher.subscribe(processor);
+            for (double v : values) {
+                // Blocks while the publisher's buffer is full, i.e. backpressure reaches the producer
+                publisher.submit(v);
+            }
+        }
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(null, collector.error);
+        assertEquals(values.length, collector.scores.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(i, collector.scores.get(i).index);
+            assertEquals(expected[i], collector.scores.get(i).score, 0);
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        ForestProcessor<double[]> processor = new ForestProcessor<>(new Forest(new Random(3), 5, 32)::addPoint,
+                Runnable::run, 16, 64);
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        collector.subscription.request(10);
+        double[][] points = SyntheticStreams.highDimensional(4, 1000, 3, 2);
+        int sent = 0;
+        while (sent < upstream.requested && sent < points.length) {
+            processor.onNext(points[sent++]);
+        }
+        // Nothing more is asked for until downstream takes scores
+        assertEquals(64, upstream.requested);
+        assertEquals(64, sent);
+        assertEquals(10, collector.scores.size());
+        assertEquals(54, processor.getBuffered());
+
+        collector.subscription.request(Long.MAX_VALUE);
+        while (sent < upstream.requested && sent < points.length) {
+            processor.onNext(points[sent++]);
+            assertTrue(processor.getBuffered() <= 64);
+        }
+        processor.onComplete();
+        assertEquals(points.length, collector.scores.size());
+        assertEquals(0, collector.done.getCount());
+        // Requested at least a batch at a time
+        assertTrue(upstream.calls <= 1 + points.length / 16);
+    }
+
+    @Test
+    public void testErrors() {
+        ForestProcessor<double[]> processor = ForestProcessor.multivariate(new Forest(new Random(5), 5, 32),
+                Runnable::run);
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        Collector second = new Collector(1);
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+
+        processor.onNext(new double[] { 1, 2 });
+        collector.subscription.request(0);
+        assertTrue(collector.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+        assertEquals(0, collector.scores.size());
+    }
+
+    @Test
+    public void testFailuresEndStream() {
+        ForestProcessor<double[]> processor = new ForestProcessor<>((point) -> {
+            throw new AssertionError();
+        }, Runnable::run, 16, 64);
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        Collector collector = new Collector(1);
+        processor.subscribe(collector);
+        processor.onNext(new double[] { 1 });
+        assertTrue(collector.error instanceof AssertionError);
+        assertTrue(upstream.cancelled);
+
+        // A subscriber that throws doesn't leave the drain task stuck
+        processor = ForestProcessor.multivariate(new Forest(new Random(5), 5, 32), Runnable::run);
+        upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        Collector throwing = new Collector(1) {
+            @Override
+            public void onNext(Score score) {
+                super.onNext(score);
+                throw new IllegalStateException();
+            }
+        };
+        processor.subscribe(throwing);
+        processor.onNext(new double[] { 1 });
+        assertTrue(throwing.error instanceof IllegalStateException);
+        assertTrue(upstream.cancelled);
+        processor.onNext(new double[] { 2 });
+        assertEquals(1, throwing.scores.size());
+        assertEquals(0, processor.getBuffered());
+    }
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.Leaf;
+import rrcf.general.ShingledForest;
+import rrcf.general.Tree;
+
+public class ImputationTest {
+    @Test
+    public void testCorrelatedDimension() {
+        Forest forest = new Forest(new Random(1), 30, 512);
+        Random r = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            double x = r.nextDouble() * 100;
+            forest.addPoint(new double[] { x, 2 * x + r.nextGaussian(), r.nextGaussian() });
+        }
+        double error = 0;
+        for (int i = 0; i < 100; i++) {
+            double x = 5 + r.nextDouble() * 90;
+            double[] imputed = forest.impute(new double[] { x, Double.NaN, 0 }, new int[] { 1 });
+            assertEquals(x, imputed[0], 0);
+            error += Math.abs(imputed[1] - 2 * x);
+        }
+        // Points are ~0.2 apart in x, so the nearest ones are within a few units of the line
+        assertTrue(error / 100 < 3);
+    }
+
+    @Test
+    public void testMostLikelyMode() {
+        Forest forest = new Forest(new Random(3), 20, 256);
+        Random r = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            // 90% of the points near (0, 0), the rest near (10, 10)
+            double c = r.nextInt(10) == 0 ? 10 : 0;
+            forest.addPoint(new double[] { Math.round(c + r.nextGaussian() * 0.1), c });
+        }
+        double[] imputed = forest.impute(new double[] { 0, 0 }, new int[] { 0, 1 });
+        assertEquals(0, imputed[0], 1);
+        assertEquals(0, imputed[1], 0);
+    }
+
+    @Test
+    public void testBranchBudget() {
+        Tree tree = new Tree(new Random(5));
+        Random r = new Random(6);
+        for (int i = 0; i < 500; i++) {
+            tree.insertPoint(new double[] { r.nextGaussian(), r.nextGaussian(), r.nextGaussian() }, i);
+        }
+        boolean[] missing = { false, true, true };
+        for (int budget : new int[] { 0, 1, 8, Integer.MAX_VALUE }) {
+            int[] leaves = { 0 };
+            double[] total = { 0 };
+            tree.mapCandidateLeaves(new double[] { 0.5, 0, 0 }, missing, budget, (Leaf leaf, double p) -> {
+                leaves[0]++;
+                total[0] += p;
+            });
+            assertTrue(leaves[0] <= (long) budget + 1);
+            assertEquals(1, total[0], 1e-9);
+        }
+    }
+
+    @Test
+    public void testShingledGap() {
+        int shingle = 6;
+        ShingledForest forest = new ShingledForest(new Random(7), shingle, 20, 256);
+        double[] data = SyntheticStreams.seasonal(8, 2000, 24, 10, 0.1);
+        for (double d : data) {
+            forest.addPoint(d);
+        }
+        // Next shingle with its last value dropped
+        double[] next = new double[shingle];
+        double[] more = SyntheticStreams.seasonal(8, 2001, 24, 10, 0.1);
+        System.arraycopy(more, 2001 - shingle, next, 0, shingle);
+        double expected = next[shingle - 1];
+        double[] imputed = forest.impute(next, new int[] { shingle - 1 }, 64);
+        assertEquals(expected, imputed[shingle - 1], 1.5);
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import rrcf.general.Forest;
+import rrcf.general.Neighbor;
+
+/**
+ * Forest.nearestNeighbors against a brute force scan of the window, for several window sizes and dimensions
+ * Exact search and approximate search with a budget of `nodes` nodes, for which recall is the fraction
+ *  of the true k nearest found
+ * Points are clustered (SyntheticStreams.highDimensional) and queries are drawn from the same stream
+ *
+ * Args: [queries k nodes]
+ */
+public class NearestNeighborBenchmark {
+    private static double sink;
+
+    public static void main(String[] args) {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        System.out.println("window,dimensions,k,exact us/query,approximate us/query,recall,brute force us/query,"
+                + "exact speedup,approximate speedup");
+        for (int dimensions : new int[] { 2, 8, 32 }) {
+            for (int window : new int[] { 1000, 4000, 16000 }) {
+                double[][] data = SyntheticStreams.highDimensional(dimensions, window + queries, dimensions, 8);
+                Forest forest = new Forest(new Random(1), 1, window);
+                for (int i = 0; i < window; i++) {
+                    forest.addPoint(data[i]);
+                }
+                double[][] points = Arrays.copyOf(data, window);
+                double[][] query = Arrays.copyOfRange(data, window, window + queries);
+                double[] kth = new double[queries];
+                for (int q = 0; q < queries; q++) {
+                    kth[q] = bruteForce(points, query[q], k);
+                }
+                // Warm up, then best of 3
+                long exact = Long.MAX_VALUE;
+                long approximate = Long.MAX_VALUE;
+                long brute = Long.MAX_VALUE;
+                long hits = 0;
+                for (int round = 0; round < 4; round++) {
+                    long start = System.nanoTime();
+                    for (double[] q : query) {
+                        sink += forest.nearestNeighbors(q, k).get(0).distance;
+                    }
+                    long e = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    hits = 0;
+                    for (int q = 0; q < queries; q++) {
+                        for (Neighbor n : forest.nearestNeighbors(query[q], k, nodes)) {
+                            if (n.distance <= kth[q]) {
+                                hits += n.num;
+                            }
+                        }
+                    }
+                    long a = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (double[] q : query) {
+                        sink += bruteForce(points, q, k);
+                    }
+                    long b = System.nanoTime() - start;
+                    if (round > 0) {
+                        exact = Math.min(exact, e);
+                        approximate = Math.min(approximate, a);
+                        brute = Math.min(brute, b);
+                    }
+                }
+                double recall = Math.min(hits, (long) k * queries) / (double) (k * queries);
+                System.out.printf("%d,%d,%d,%.1f,%.1f,%.3f,%.1f,%.1f,%.1f\n", window, dimensions, k,
+                        exact / 1e3 / queries, approximate / 1e3 / queries, recall, brute / 1e3 / queries,
+                        brute / (double) exact, brute / (double) approximate);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Distance of the k-th nearest point, keeping the k best in a sorted array
+     */
+    private static double bruteForce(double[][] points, double[] query, int k) {
+        double[] best = new double[k];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (double[] p : points) {
+            double d = 0;
+            for (int i = 0; i < p.length; i++) {
+                d += (p[i] - query[i]) * (p[i] - query[i]);
+            }
+            if (d < best[k - 1]) {
+                int i = k - 1;
+                while (i > 0 && best[i - 1] > d) {
+                    best[i] = best[i - 1];
+                    i--;
+                }
+                best[i] = d;
+            }
+        }
+        return Math.sqrt(best[k - 1]);
+    }
+}
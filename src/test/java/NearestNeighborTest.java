@@ -0,0 +1,75 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.Neighbor;
+import rrcf.general.PointStore;
+
+public class NearestNeighborTest {
+    @Test
+    public void testMatchesBruteForce() {
+        for (PointStore store : new PointStore[] { null, new PointStore(3, 64) }) {
+            Forest forest = new Forest(new Random(1), 3, 500, store);
+            Random r = new Random(2);
+            double[][] points = new double[2000][];
+            for (int i = 0; i < points.length; i++) {
+                // Rounded so the window has duplicates
+                points[i] = new double[] { r.nextInt(20), r.nextGaussian(), r.nextGaussian() * 5 };
+                forest.addPoint(points[i]);
+            }
+            double[][] window = Arrays.copyOfRange(points, points.length - 500, points.length);
+            for (int q = 0; q < 100; q++) {
+                double[] query = { r.nextDouble() * 20, r.nextGaussian(), r.nextGaussian() * 5 };
+                int k = 1 + r.nextInt(10);
+                List<Neighbor> neighbors = forest.nearestNeighbors(query, k);
+                double[] distances = bruteForce(window, query);
+                int count = 0;
+                for (int i = 0; i < neighbors.size(); i++) {
+                    Neighbor n = neighbors.get(i);
+                    // Same distances as the sorted brute force ones, with duplicates expanded
+                    for (int c = 0; c < n.num; c++) {
+                        assertEquals(distances[count++], n.distance, 1e-9);
+                    }
+                    assertEquals(distance(n.point, query), n.distance, 1e-9);
+                }
+                assertTrue(count >= k);
+            }
+        }
+    }
+
+    @Test
+    public void testDensity() {
+        Forest forest = new Forest(new Random(3), 2, 4000);
+        Random r = new Random(4);
+        for (int i = 0; i < 4000; i++) {
+            forest.addPoint(new double[] { r.nextDouble(), r.nextDouble() });
+        }
+        // Uniform on the unit square has density 1
+        double density = forest.density(new double[] { 0.5, 0.5 }, 50);
+        assertEquals(1, density, 0.4);
+        assertTrue(forest.density(new double[] { 3, 3 }, 50) < 0.01);
+    }
+
+    static double[] bruteForce(double[][] window, double[] query) {
+        double[] distances = new double[window.length];
+        for (int i = 0; i < window.length; i++) {
+            distances[i] = distance(window[i], query);
+        }
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        return Math.sqrt(sum);
+    }
+}
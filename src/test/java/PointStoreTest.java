@@ -0,0 +1,96 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.PointStore;
+import rrcf.general.ShingledForest;
+import rrcf.general.Tree;
+
+public class PointStoreTest {
+    @Test
+    public void testForestMatchesHeapForest() {
+        int treeSize = 50;
+        Forest heap = new Forest(new Random(1), 3, treeSize);
+        // Small capacity so the store has to grow
+        PointStore store = new PointStore(3, 4);
+        Forest offHeap = new Forest(new Random(1), 3, treeSize, store);
+        Random r = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            // Few distinct values so duplicates are common
+            double[] point = { r.nextInt(5), r.nextInt(5), r.nextInt(5) };
+            assertEquals(heap.addPoint(point), offHeap.addPoint(point.clone()), 0);
+            assertEquals(heap.toString(), offHeap.toString());
+        }
+        // Each distinct point in the window is stored once, shared by all trees
+        int[] leaves = { 0 };
+        offHeap.trees[0].mapLeaves((leaf) -> {
+            assertEquals(null, leaf.point);
+            leaves[0]++;
+        });
+        assertTrue(store.size() >= leaves[0]);
+        assertTrue(store.size() <= treeSize);
+    }
+
+    @Test
+    public void testMappedShingledForest() throws IOException {
+        Path file = Files.createTempFile("points", ".bin");
+        try {
+            ShingledForest heap = new ShingledForest(new Random(1), 8, 5, 100);
+            ShingledForest mapped = new ShingledForest(new Random(1), 8, 5, 100, new PointStore(8, 16, file));
+            Random r = new Random(3);
+            for (int i = 0; i < 1000; i++) {
+                double v = r.nextDouble() * 100;
+                assertEquals(heap.addPoint(v), mapped.addPoint(v), 0);
+            }
+            assertEquals(heap.toString(), mapped.toString());
+            assertEquals(heap.getCollusiveDisplacement(950), mapped.getCollusiveDisplacement(950), 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testTreeForgetsAllPoints() {
+        PointStore store = new PointStore(2, 8);
+        Tree tree = new Tree(new Random(1), store);
+        for (int i = 0; i < 20; i++) {
+            tree.insertPoint(new double[] { i % 7, i % 3 }, i);
+        }
+        for (int i = 0; i < 20; i++) {
+            tree.forgetPoint(i);
+        }
+        assertEquals(0, tree.size());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testSerializedStoreKeepsPoints() throws IOException, ClassNotFoundException {
+        Forest forest = new Forest(new Random(1), 2, 30, new PointStore(2, 16));
+        Random r = new Random(4);
+        for (int i = 0; i < 100; i++) {
+            forest.addPoint(new double[] { r.nextDouble(), r.nextDouble() });
+        }
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        ObjectOutputStream o = new ObjectOutputStream(b);
+        o.writeObject(forest);
+        o.close();
+        Forest copy = (Forest) new ObjectInputStream(new ByteArrayInputStream(b.toByteArray())).readObject();
+        assertEquals(forest.toString(), copy.toString());
+        for (int i = 0; i < 100; i++) {
+            double[] point = { r.nextDouble(), r.nextDouble() };
+            assertEquals(forest.addPoint(point), copy.addPoint(point), 0);
+        }
+        assertEquals(forest.toString(), copy.toString());
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Random;
+
+import rrcf.general.Forest;
+import rrcf.general.RandomProjection;
+
+/**
+ * Forests behind a sparse random projection against the forest on the raw high-dimensional points
+ * 1% of the points after warmup are anomalies: clustered points with `shifted` random dimensions moved by 8
+ * standard deviations. Reports estimated memory, throughput, the AUC of scores separating anomalies
+ * from normal points and the correlation of scores with the unprojected forest
+ *
+ * Args: [numPoints dimensions numTrees treeSize shifted]
+ */
+public class RandomProjectionBenchmark {
+    public static void main(String[] args) {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 6000;
+        int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int numTrees = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int treeSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int shifted = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+        int warmup = 2 * treeSize;
+
+        double[][] points = SyntheticStreams.highDimensional(1, numPoints, dimensions, 8);
+        boolean[] anomaly = new boolean[numPoints];
+        Random r = new Random(2);
+        for (int i = warmup; i < numPoints; i++) {
+            if (r.nextInt(100) == 0) {
+                anomaly[i] = true;
+                for (int j = 0; j < shifted; j++) {
+                    points[i][r.nextInt(dimensions)] += 8;
+                }
+            }
+        }
+
+        System.out.printf("points %d, dimensions %d, trees %d, treeSize %d, shifted %d\n", numPoints, dimensions,
+                numTrees, treeSize, shifted);
+        System.out.println("projected dimensions,matrix nonzeros,memory MB,points/s,AUC,score correlation");
+        double[] full = null;
+        for (int projected : new int[] { dimensions, dimensions / 2, dimensions / 4, dimensions / 10,
+                dimensions / 20 }) {
+            Forest forest = new Forest(new Random(3), numTrees, treeSize);
+            RandomProjection projection = null;
+            if (projected < dimensions) {
+                projection = new RandomProjection(new Random(4), dimensions, projected);
+                forest.setProjection(projection);
+            }
+            double[] scores = new double[numPoints];
+            for (int i = 0; i < warmup; i++) {
+                scores[i] = forest.addPoint(points[i]);
+            }
+            long start = System.nanoTime();
+            for (int i = warmup; i < numPoints; i++) {
+                scores[i] = forest.addPoint(points[i]);
+            }
+            double rate = (numPoints - warmup) / ((System.nanoTime() - start) / 1e9);
+            if (full == null) {
+                full = scores;
+            }
+            System.out.printf("%d,%d,%.1f,%.0f,%.3f,%.3f\n", projected,
+                    projection == null ? 0 : projection.getNonzeros(), forest.estimateMemoryBytes() / 1048576.0,
+                    rate, ScoreQuality.auc(scores, anomaly, warmup), ScoreQuality.correlation(scores, full, warmup));
+        }
+    }
+}
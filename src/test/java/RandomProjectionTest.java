@@ -0,0 +1,85 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.PointStore;
+import rrcf.general.RandomProjection;
+import rrcf.general.ShingledForest;
+import rrcf.general.ShingledForestCodec;
+
+public class RandomProjectionTest {
+    @Test
+    public void testPreservesDistances() {
+        RandomProjection projection = new RandomProjection(new Random(1), 1000, 200);
+        assertTrue(projection.getNonzeros() < 1000 * 200 / 10);
+        Random r = new Random(2);
+        double worst = 0;
+        for (int i = 0; i < 50; i++) {
+            double[] a = new double[1000];
+            double[] b = new double[1000];
+            for (int d = 0; d < 1000; d++) {
+                a[d] = r.nextGaussian();
+                b[d] = r.nextGaussian();
+            }
+            double ratio = distance(projection.project(a), projection.project(b)) / distance(a, b);
+            worst = Math.max(worst, Math.abs(ratio - 1));
+        }
+        assertTrue(worst < 0.2);
+    }
+
+    @Test
+    public void testForestWithProjection() {
+        RandomProjection projection = new RandomProjection(new Random(3), 64, 8, 3);
+        Forest heap = new Forest(new Random(4), 5, 100);
+        heap.setProjection(projection);
+        Forest stored = new Forest(new Random(4), 5, 100, new PointStore(8, 16));
+        stored.setProjection(projection);
+        double[][] points = SyntheticStreams.highDimensional(5, 500, 64, 4);
+        for (double[] p : points) {
+            assertEquals(heap.addPoint(p), stored.addPoint(p), 0);
+        }
+        assertEquals(8, heap.trees[0].getDimensions());
+        assertEquals(heap.toString(), stored.toString());
+        // Queries take projected points
+        assertEquals(0, heap.nearestNeighbors(projection.project(points[499]), 1).get(0).distance, 0);
+    }
+
+    @Test
+    public void testShingledForestWithProjection() {
+        ShingledForest forest = new ShingledForest(new Random(6), 32, 20, 256);
+        forest.setProjection(new RandomProjection(new Random(7), 32, 8, 3));
+        double[] data = SyntheticStreams.seasonal(9, 3000, 64, 10, 0.5);
+        data[2900] += 40;
+        double normal = 0;
+        double anomaly = 0;
+        for (int i = 0; i < data.length; i++) {
+            double score = forest.addPoint(data[i]);
+            if (i >= 2000 && i < 2800) {
+                normal += score / 800;
+            } else if (i == 2900) {
+                anomaly = score;
+            }
+        }
+        assertEquals(8, forest.trees[0].getDimensions());
+        assertTrue(anomaly > 3 * normal);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCodecRejectsProjection() {
+        ShingledForest forest = new ShingledForest(new Random(6), 16, 2, 32);
+        forest.setProjection(new RandomProjection(new Random(7), 16, 4));
+        ShingledForestCodec.encode(forest);
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        return Math.sqrt(sum);
+    }
+}
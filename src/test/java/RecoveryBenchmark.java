@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import rrcf.general.DurableShingledForest;
+import rrcf.general.ShingledForest;
+
+/**
+ * Cost of DurableShingledForest: ingest throughput for several fsync batch sizes compared with a plain
+ * ShingledForest, then recovery time as a function of the log tail replayed after the last snapshot
+ *
+ * Args: [numPoints shingleSize numTrees treeSize directory]
+ */
+public class RecoveryBenchmark {
+    private static double sink;
+
+    public static void main(String[] args) throws IOException {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int shingleSize = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int numTrees = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int treeSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        Path parent = args.length > 4 ? Paths.get(args[4]) : Files.createTempDirectory("recovery");
+        double[] data = SyntheticStreams.seasonal(1, numPoints, 288, 100, 5);
+
+        System.out.println("syncEvery,snapshotEvery,points/s,overhead %");
+        // Warm the JIT so the first row isn't penalized
+        for (int round = 0; round < 2; round++) {
+            ShingledForest warmup = new ShingledForest(new Random(round), shingleSize, numTrees, treeSize);
+            for (double d : data) {
+                sink += warmup.addPoint(d);
+            }
+        }
+        ShingledForest plain = new ShingledForest(new Random(1), shingleSize, numTrees, treeSize);
+        long start = System.nanoTime();
+        for (double d : data) {
+            sink += plain.addPoint(d);
+        }
+        double plainRate = numPoints / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("-,-,%.0f,0\n", plainRate);
+        for (int syncEvery : new int[] { 1, 64, 1024 }) {
+            for (long snapshotEvery : new long[] { 1000, 10000 }) {
+                Path dir = parent.resolve("ingest-" + syncEvery + "-" + snapshotEvery);
+                DurableShingledForest durable = DurableShingledForest.open(dir,
+                        () -> new ShingledForest(new Random(1), shingleSize, numTrees, treeSize), syncEvery,
+                        snapshotEvery);
+                start = System.nanoTime();
+                for (double d : data) {
+                    sink += durable.addPoint(d);
+                }
+                durable.close();
+                double rate = numPoints / ((System.nanoTime() - start) / 1e9);
+                System.out.printf("%d,%d,%.0f,%.1f\n", syncEvery, snapshotEvery, rate, 100 * (plainRate / rate - 1));
+                delete(dir);
+            }
+        }
+
+        System.out.println("log tail,recovery ms,full replay ms");
+        for (int tail : new int[] { 0, 1000, 5000, numPoints - treeSize }) {
+            Path dir = parent.resolve("recover-" + tail);
+            // A snapshot after treeSize points, then `tail` logged values
+            DurableShingledForest durable = DurableShingledForest.open(dir,
+                    () -> new ShingledForest(new Random(1), shingleSize, numTrees, treeSize), 1024, Long.MAX_VALUE);
+            for (int i = 0; i < treeSize; i++) {
+                durable.addPoint(data[i]);
+            }
+            durable.snapshot();
+            for (int i = treeSize; i < treeSize + tail; i++) {
+                durable.addPoint(data[i]);
+            }
+            durable.close();
+            start = System.nanoTime();
+            DurableShingledForest recovered = DurableShingledForest.open(dir, () -> null, 1024, Long.MAX_VALUE);
+            long recovery = System.nanoTime() - start;
+            sink += recovered.getSequence();
+            recovered.close();
+            // What recovery costs without the log: warming a new forest on the whole stream so far
+            start = System.nanoTime();
+            ShingledForest warm = new ShingledForest(new Random(1), shingleSize, numTrees, treeSize);
+            for (int i = 0; i < treeSize + tail; i++) {
+                sink += warm.addPoint(data[i]);
+            }
+            System.out.printf("%d,%.1f,%.1f\n", tail, recovery / 1e6, (System.nanoTime() - start) / 1e6);
+            delete(dir);
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.PointStore;
+import rrcf.general.ShingledForest;
+import rrcf.general.Tree;
+
+public class ResizableForestTest {
+    private static double[] point(Random r) {
+        return new double[] { r.nextGaussian(), r.nextGaussian(), r.nextGaussian() };
+    }
+
+    /**
+     * Checks every tree holds exactly the last size keys
+     */
+    private static void assertWindow(Forest forest, int size) {
+        int end = forest.getCurrentIndex();
+        for (Tree tree : forest.trees) {
+            assertEquals(size, tree.size());
+            for (int k = end - size; k < end; k++) {
+                assertTrue(tree.getCollusiveDisplacement(k) >= 0);
+            }
+        }
+    }
+
+    @Test
+    public void testAddAndRemoveTrees() {
+        Random r = new Random(1);
+        Forest forest = new Forest(new Random(2), 4, 64);
+        for (int i = 0; i < 500; i++) {
+            forest.addPoint(point(r));
+        }
+        forest.removeTrees(2);
+        assertEquals(2, forest.getNumTrees());
+        assertEquals(2, forest.getActiveTrees());
+
+        // Built inline, installed with the next point and caught up while streaming
+        forest.addTrees(3, Runnable::run);
+        assertEquals(3, forest.getPendingTrees());
+        forest.addPoint(point(r));
+        assertEquals(0, forest.getPendingTrees());
+        assertEquals(5, forest.getNumTrees());
+        for (int i = 0; i < 10; i++) {
+            forest.addPoint(point(r));
+        }
+        assertEquals(5, forest.getActiveTrees());
+        assertWindow(forest, 64);
+
+        // Built in the background while points keep coming
+        forest.addTrees(2);
+        for (int i = 0; i < 200; i++) {
+            forest.addPoint(point(r));
+        }
+        forest.catchUp();
+        assertEquals(7, forest.getActiveTrees());
+        assertWindow(forest, 64);
+        double score = forest.getCollusiveDisplacement(forest.getCurrentIndex() - 1);
+        assertTrue(score > 0);
+    }
+
+    @Test
+    public void testResizeWindow() {
+        Random r = new Random(3);
+        ShingledForest forest = new ShingledForest(new Random(4), 4, 5, 128);
+        for (int i = 0; i < 1000; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        forest.setTreeSize(32);
+        assertWindow(forest, 32);
+        for (int i = 0; i < 100; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        assertWindow(forest, 32);
+        forest.setTreeSize(96);
+        for (int i = 0; i < 50; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        assertWindow(forest, 82);
+        for (int i = 0; i < 50; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        assertWindow(forest, 96);
+        assertEquals(96, forest.getTreeSize());
+    }
+
+    @Test
+    public void testLoadShedding() {
+        Random r = new Random(5);
+        Forest forest = new Forest(new Random(6), 8, 64, new PointStore(3, 64));
+        for (int i = 0; i < 200; i++) {
+            forest.addPoint(point(r));
+        }
+        // No point fits the budget, trees are shed down to the minimum
+        forest.setLatencyBudget(1, 2);
+        for (int i = 0; i < 500; i++) {
+            forest.addPoint(point(r));
+        }
+        assertEquals(2, forest.getActiveTrees());
+        assertEquals(8, forest.getNumTrees());
+
+        // Load dropped, shed trees catch up with the spare time and are restored
+        forest.setLatencyBudget(Long.MAX_VALUE / 2, 2);
+        for (int i = 0; i < 500; i++) {
+            forest.addPoint(point(r));
+        }
+        assertEquals(8, forest.getActiveTrees());
+        assertWindow(forest, 64);
+
+        // Trees added with a point store catch up on the adding thread
+        forest.setLatencyBudget(0, 1);
+        forest.addTrees(2);
+        assertEquals(0, forest.getPendingTrees());
+        assertEquals(8, forest.getActiveTrees());
+        forest.catchUp();
+        assertEquals(10, forest.getActiveTrees());
+        assertWindow(forest, 64);
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Random;
+
+import rrcf.general.ScoreCache;
+import rrcf.general.ShingledForest;
+
+/**
+ * Shingled forests with and without a ScoreCache on high-duplicate streams
+ * Flat-lined streams repeat a level for `runLength` points on average, the periodic stream repeats exactly with a
+ * period dividing the tree size. Reports throughput, the cache's hit rates and whether any score differs
+ *
+ * Args: [numPoints shingleSize numTrees treeSize runLength cacheSize]
+ */
+public class ScoreCacheBenchmark {
+    public static void main(String[] args) {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int shingleSize = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int numTrees = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int treeSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int runLength = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+        int cacheSize = args.length > 5 ? Integer.parseInt(args[5]) : 1024;
+
+        double[] periodic = new double[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            periodic[i] = Math.round(10 * Math.sin(2 * Math.PI * i / 32));
+        }
+        System.out.printf("points %d, shingleSize %d, trees %d, treeSize %d, cacheSize %d\n", numPoints, shingleSize,
+                numTrees, treeSize, cacheSize);
+        System.out.println("stream,plain points/s,cached points/s,lookups,leaf hits,score hits,hit rate,mismatches");
+        run("flat " + runLength, SyntheticStreams.highDuplicate(1, numPoints, 8, runLength), shingleSize, numTrees,
+                treeSize, cacheSize);
+        run("flat " + runLength / 10, SyntheticStreams.highDuplicate(2, numPoints, 8, runLength / 10), shingleSize,
+                numTrees, treeSize, cacheSize);
+        run("periodic 32", periodic, shingleSize, numTrees, treeSize, cacheSize);
+        run("random walk", SyntheticStreams.randomWalk(3, numPoints, 1), shingleSize, numTrees, treeSize, cacheSize);
+    }
+
+    private static void run(String name, double[] values, int shingleSize, int numTrees, int treeSize,
+            int cacheSize) {
+        int warmup = values.length / 10;
+        ShingledForest plain = new ShingledForest(new Random(4), shingleSize, numTrees, treeSize);
+        double[] scores = new double[values.length];
+        for (int i = 0; i < warmup; i++) {
+            scores[i] = plain.addPoint(values[i]);
+        }
+        long start = System.nanoTime();
+        for (int i = warmup; i < values.length; i++) {
+            scores[i] = plain.addPoint(values[i]);
+        }
+        double plainRate = (values.length - warmup) / ((System.nanoTime() - start) / 1e9);
+
+        ShingledForest cached = new ShingledForest(new Random(4), shingleSize, numTrees, treeSize);
+        cached.setScoreCache(new ScoreCache(cacheSize));
+        int mismatches = 0;
+        for (int i = 0; i < warmup; i++) {
+            mismatches += cached.addPoint(values[i]) == scores[i] ? 0 : 1;
+        }
+        ScoreCache cache = cached.getScoreCache();
+        cache.resetStatistics();
+        start = System.nanoTime();
+        for (int i = warmup; i < values.length; i++) {
+            mismatches += cached.addPoint(values[i]) == scores[i] ? 0 : 1;
+        }
+        double cachedRate = (values.length - warmup) / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("%s,%.0f,%.0f,%d,%d,%d,%.3f,%d\n", name, plainRate, cachedRate, cache.getLookups(),
+                cache.getLeafHits(), cache.getScoreHits(), cache.getHitRate(), mismatches);
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.BaggedForest;
+import rrcf.general.Forest;
+import rrcf.general.PointStore;
+import rrcf.general.ScoreCache;
+import rrcf.general.ShingledForest;
+
+public class ScoreCacheTest {
+    @Test
+    public void testScoresUnchangedWhenLastCopyLeaves() {
+        // Short runs over a few levels: the oldest point is often the last copy of a leaf whose cached entry is
+        //  still valid, where forgetting it and inserting again draws a new cut
+        for (int runLength : new int[] { 1, 2, 3 }) {
+            for (int treeSize : new int[] { 4, 8, 16 }) {
+                double[] values = SyntheticStreams.highDuplicate(1, 3000, 3, runLength);
+                Forest plain = new Forest(new Random(4), 10, treeSize);
+                Forest cached = new Forest(new Random(4), 10, treeSize);
+                cached.setScoreCache(new ScoreCache(16));
+                for (double v : values) {
+                    assertEquals(plain.addPoint(new double[] { v }), cached.addPoint(new double[] { v }), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScoresUnchanged() {
+        double[][] points = SyntheticStreams.shingle(SyntheticStreams.highDuplicate(1, 5000, 4, 100), 4);
+        for (PointStore store : new PointStore[] { null, new PointStore(4, 64) }) {
+            Forest plain = new Forest(new Random(2), 10, 64, store == null ? null : new PointStore(4, 64));
+            Forest cached = new Forest(new Random(2), 10, 64, store);
+            // Small enough for entries to be dropped
+            cached.setScoreCache(new ScoreCache(4));
+            for (double[] p : points) {
+                assertEquals(plain.addPoint(p), cached.addPoint(p), 0);
+            }
+            for (int key = points.length - 64; key < points.length; key++) {
+                assertEquals(plain.getCollusiveDisplacement(key), cached.getCollusiveDisplacement(key), 0);
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(plain.trees[i].getCollusiveDisplacement(key),
+                            cached.trees[i].getCollusiveDisplacement(key));
+                    assertEquals(plain.trees[i].findLeaf(points[key]).num, cached.trees[i].findLeaf(points[key]).num);
+                }
+            }
+            ScoreCache cache = cached.getScoreCache();
+            assertEquals(10L * points.length, cache.getLookups());
+            assertTrue(cache.getHitRate() > 0.5);
+        }
+    }
+
+    @Test
+    public void testPeriodicStreamLeavesTreesUnchanged() {
+        // A window that is a multiple of the period replaces each point with an equal one
+        double[] values = new double[3000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 16;
+        }
+        ShingledForest plain = new ShingledForest(new Random(3), 4, 10, 64);
+        ShingledForest cached = new ShingledForest(new Random(3), 4, 10, 64);
+        cached.setScoreCache(new ScoreCache(64));
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(plain.addPoint(values[i]), cached.addPoint(values[i]), 0);
+            if (i == 1000) {
+                cached.getScoreCache().resetStatistics();
+            }
+        }
+        ScoreCache cache = cached.getScoreCache();
+        assertEquals(cache.getLookups(), cache.getScoreHits());
+    }
+
+    @Test
+    public void testBaggedForest() {
+        double[][] points = SyntheticStreams.shingle(SyntheticStreams.highDuplicate(4, 3000, 3, 50), 8);
+        BaggedForest plain = new BaggedForest(new Random(5), 10, 64, 8, 3);
+        BaggedForest cached = new BaggedForest(new Random(5), 10, 64, 8, 3);
+        cached.setScoreCache(new ScoreCache(256));
+        for (double[] p : points) {
+            assertEquals(plain.addPoint(p), cached.addPoint(p), 0);
+        }
+        assertTrue(cached.getScoreCache().getHitRate() > 0.5);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+
+/**
+ * Measures of score quality shared by the benchmarks
+ */
+final class ScoreQuality {
+    private ScoreQuality() {
+    }
+
+    /**
+     * Probability that a random anomaly scores higher than a random normal point, from index `from` on
+     */
+    static double auc(double[] scores, boolean[] anomaly, int from) {
+        int n = scores.length - from;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = from + i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[a], scores[b]));
+        // Mann-Whitney U with average ranks for ties
+        double rankSum = 0;
+        long anomalies = 0;
+        for (int i = 0; i < n;) {
+            int j = i;
+            while (j < n && scores[order[j]] == scores[order[i]]) {
+                j++;
+            }
+            double rank = (i + j + 1) / 2.0;
+            for (int k = i; k < j; k++) {
+                if (anomaly[order[k]]) {
+                    rankSum += rank;
+                    anomalies++;
+                }
+            }
+            i = j;
+        }
+        long normals = n - anomalies;
+        return (rankSum - anomalies * (anomalies + 1) / 2.0) / (anomalies * (double) normals);
+    }
+
+    /**
+     * Pearson correlation of two score series from index `from` on
+     */
+    static double correlation(double[] a, double[] b, int from) {
+        double meanA = 0;
+        double meanB = 0;
+        int n = a.length - from;
+        for (int i = from; i < a.length; i++) {
+            meanA += a[i] / n;
+            meanB += b[i] / n;
+        }
+        double cov = 0;
+        double varA = 0;
+        double varB = 0;
+        for (int i = from; i < a.length; i++) {
+            cov += (a[i] - meanA) * (b[i] - meanB);
+            varA += (a[i] - meanA) * (a[i] - meanA);
+            varB += (b[i] - meanB) * (b[i] - meanB);
+        }
+        return cov / Math.sqrt(varA * varB);
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.ScoreThreshold;
+import rrcf.general.ShingledForest;
+
+public class ScoreThresholdTest {
+    @Test
+    public void testQuantileAndFlagRate() {
+        ScoreThreshold threshold = new ScoreThreshold(0.99, 1e6);
+        Random r = new Random(1);
+        int flagged = 0;
+        for (int i = 0; i < 200000; i++) {
+            double normalized = threshold.update(1 + 99 * r.nextDouble());
+            if (i < 100) {
+                assertEquals(0, normalized, 0);
+            }
+            flagged += ScoreThreshold.isAnomaly(normalized) ? 1 : 0;
+        }
+        assertEquals(99.01, threshold.getThreshold(), 99.01 * 0.015);
+        assertEquals(0.01, flagged / 200000.0, 0.002);
+    }
+
+    @Test
+    public void testFollowsDrift() {
+        // Half-life 10 also renormalizes the weights many times
+        ScoreThreshold threshold = new ScoreThreshold(0.5, 10);
+        Random r = new Random(2);
+        for (int i = 0; i < 100000; i++) {
+            threshold.update(10 + r.nextDouble());
+        }
+        assertEquals(10.5, threshold.getThreshold(), 0.5);
+        for (int i = 0; i < 300; i++) {
+            threshold.update(1000 + 100 * r.nextDouble());
+        }
+        assertEquals(1050, threshold.getThreshold(), 50);
+        assertTrue(threshold.getThreshold() < 2000);
+    }
+
+    @Test
+    public void testSharedByForests() throws InterruptedException {
+        ScoreThreshold threshold = new ScoreThreshold(0.99, 5000);
+        Thread[] series = new Thread[4];
+        boolean[] spikeFlagged = new boolean[series.length];
+        for (int t = 0; t < series.length; t++) {
+            int id = t;
+            series[t] = new Thread(() -> {
+                ShingledForest forest = new ShingledForest(new Random(id), 4, 20, 128);
+                double[] values = SyntheticStreams.seasonal(id, 3000, 50, 10, 0.5);
+                values[2500] += 100;
+                for (int i = 0; i < values.length; i++) {
+                    double normalized = threshold.update(forest.addPoint(values[i]));
+                    if (i >= 2500 && i < 2504 && ScoreThreshold.isAnomaly(normalized)) {
+                        spikeFlagged[id] = true;
+                    }
+                }
+            });
+            series[t].start();
+        }
+        for (Thread t : series) {
+            t.join();
+        }
+        assertEquals(12000, threshold.getUpdates());
+        for (boolean flagged : spikeFlagged) {
+            assertTrue(flagged);
+        }
+        assertFalse(ScoreThreshold.isAnomaly(1));
+        assertTrue(threshold.estimateMemoryBytes() < 32 * 1024);
+    }
+}
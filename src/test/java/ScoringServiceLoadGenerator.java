@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import rrcf.general.ShingledForest;
+import rrcf.service.ScoringService;
+
+/**
+ * Load generator for ScoringService: `clients` concurrent clients post batches of `batchSize` values of a
+ * seasonal signal to random streams out of `streams`, then throughput and request latency percentiles are
+ * reported. Starts a service in this JVM unless a base URL is given
+ *
+ * Args: [streams clients requestsPerClient batchSize baseUrl]
+ */
+public class ScoringServiceLoadGenerator {
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        String baseUrl = args.length > 4 ? args[4] : null;
+        // Read when the server classes load, otherwise Nagle's algorithm delays small responses by ~40ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        ScoringService service = null;
+        if (baseUrl == null) {
+            service = new ScoringService(new InetSocketAddress("localhost", 0),
+                    () -> new ShingledForest(new Random(), 4, 20, 128));
+            baseUrl = "http://localhost:" + service.getPort();
+        }
+        System.out.printf("streams %d, clients %d, requests/client %d, batchSize %d, %s\n", streams, clients,
+                requests, batchSize, baseUrl);
+        System.out.println("phase,requests/s,values/s,p50 ms,p99 ms,p99.9 ms,errors");
+        ExecutorService executor = ScoringService.newExecutor(clients);
+        try {
+            run("warmup", executor, baseUrl, streams, clients, requests / 5, batchSize);
+            run("measure", executor, baseUrl, streams, clients, requests, batchSize);
+        } finally {
+            executor.shutdown();
+            if (service != null) {
+                service.close();
+            }
+        }
+    }
+
+    private static void run(String phase, ExecutorService executor, String baseUrl, int streams, int clients,
+            int requests, int batchSize) throws Exception {
+        List<Future<long[]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            long seed = c;
+            results.add(executor.submit(() -> client(new Random(seed), baseUrl, streams, requests, batchSize)));
+        }
+        long[] latencies = new long[clients * requests];
+        int n = 0;
+        int errors = 0;
+        for (Future<long[]> result : results) {
+            for (long latency : result.get()) {
+                if (latency < 0) {
+                    errors++;
+                } else {
+                    latencies[n++] = latency;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        latencies = Arrays.copyOf(latencies, n);
+        Arrays.sort(latencies);
+        System.out.printf("%s,%.0f,%.0f,%.2f,%.2f,%.2f,%d\n", phase, n / (elapsed / 1e9),
+                (double) n * batchSize / (elapsed / 1e9), percentile(latencies, 0.5) / 1e6,
+                percentile(latencies, 0.99) / 1e6, percentile(latencies, 0.999) / 1e6, errors);
+    }
+
+    /**
+     * @return Latency of each request in nanoseconds, -1 for failed requests
+     */
+    private static long[] client(Random random, String baseUrl, int streams, int requests, int batchSize) {
+        long[] latencies = new long[requests];
+        StringBuilder body = new StringBuilder();
+        byte[] buffer = new byte[4096];
+        for (int i = 0; i < requests; i++) {
+            body.setLength(0);
+            int stream = random.nextInt(streams);
+            for (int j = 0; j < batchSize; j++) {
+                body.append(Math.sin((i * batchSize + j) / 10.0) + random.nextGaussian() * 0.1).append('\n');
+            }
+            long start = System.nanoTime();
+            try {
+                HttpURLConnection c = (HttpURLConnection) new URL(baseUrl + "/streams/s" + stream).openConnection();
+                c.setRequestMethod("POST");
+                c.setDoOutput(true);
+                try (OutputStream out = c.getOutputStream()) {
+                    out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                if (c.getResponseCode() != 200) {
+                    latencies[i] = -1;
+                    continue;
+                }
+                // Reading to the end lets the connection be reused
+                try (InputStream in = c.getInputStream()) {
+                    while (in.read(buffer) > 0) {
+                        continue;
+                    }
+                }
+                latencies[i] = System.nanoTime() - start;
+            } catch (IOException e) {
+                latencies[i] = -1;
+            }
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,184 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import rrcf.general.ShingledForest;
+import rrcf.service.ScoringService;
+
+public class ScoringServiceTest {
+    private static ShingledForest newForest() {
+        return new ShingledForest(new Random(1), 4, 10, 64);
+    }
+
+    static String request(int port, String method, String path, String body) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        c.setRequestMethod(method);
+        if (body != null) {
+            c.setDoOutput(true);
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = c.getResponseCode();
+        InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream i = in) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = i.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, n);
+                }
+            }
+        }
+        return status + " " + new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStreamsMatchForests() throws IOException {
+        try (ScoringService service = new ScoringService(new InetSocketAddress("localhost", 0),
+                ScoringServiceTest::newForest)) {
+            int port = service.getPort();
+            double[] values = SyntheticStreams.seasonal(2, 300, 30, 5, 1);
+            ShingledForest a = newForest();
+            ShingledForest b = newForest();
+            StringBuilder expectedA = new StringBuilder("200 ");
+            StringBuilder batch = new StringBuilder();
+            StringBuilder expectedBatch = new StringBuilder("200 ");
+            for (int i = 0; i < values.length; i++) {
+                expectedA.append(a.addPoint(values[i])).append('\n');
+                batch.append("b ").append(-values[i]).append('\n');
+                expectedBatch.append("b ").append(b.addPoint(-values[i])).append('\n');
+            }
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                body.append(values[i]).append(i % 2 == 0 ? "," : "\n");
+            }
+            assertEquals(expectedA.toString(), request(port, "POST", "/streams/a", body.toString()));
+            assertEquals(expectedBatch.toString(), request(port, "POST", "/batch", batch.toString()));
+            assertEquals("200 300\n", request(port, "GET", "/streams/a", null));
+            assertEquals(2, service.getStreamCount());
+            assertEquals(600, service.getScored());
+
+            assertEquals(400, status(request(port, "POST", "/streams/a", "1 x 2")));
+            assertEquals(400, status(request(port, "POST", "/batch", "a")));
+            assertEquals(404, status(request(port, "GET", "/streams/c", null)));
+            assertEquals(200, status(request(port, "DELETE", "/streams/a", null)));
+            assertEquals(404, status(request(port, "GET", "/streams/a", null)));
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsToOneStream() throws Exception {
+        try (ScoringService service = new ScoringService(new InetSocketAddress("localhost", 0),
+                ScoringServiceTest::newForest)) {
+            int port = service.getPort();
+            List<Thread> clients = new ArrayList<>();
+            List<Throwable> errors = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread client = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 20; i++) {
+                            request(port, "POST", "/streams/shared", "1 2 3 4 5 6 7 8 9 10");
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                clients.add(client);
+                client.start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertEquals(0, errors.size());
+            assertEquals("200 1600\n", request(port, "GET", "/streams/shared", null));
+        }
+    }
+
+    @Test
+    public void testStreamLimit() throws IOException {
+        try (ScoringService service = new ScoringService(new InetSocketAddress("localhost", 0),
+                ScoringServiceTest::newForest, ScoringService.newExecutor(4), 2)) {
+            int port = service.getPort();
+            assertEquals(200, status(request(port, "POST", "/streams/a", "1 2")));
+            assertEquals(200, status(request(port, "POST", "/batch", "b 1\na 3")));
+            assertEquals(429, status(request(port, "POST", "/streams/c", "1")));
+            assertEquals(429, status(request(port, "POST", "/batch", "a 4\nc 1")));
+            // The batch scored a before it was refused
+            assertEquals("200 4\n", request(port, "GET", "/streams/a", null));
+            assertEquals(2, service.getStreamCount());
+            assertEquals("200 4\n", request(port, "DELETE", "/streams/a", null));
+            assertEquals(200, status(request(port, "POST", "/streams/c", "1")));
+            assertEquals(2, service.getStreamCount());
+        }
+    }
+
+    @Test
+    public void testDeleteWhileScoring() throws Exception {
+        // Slow forests keep requests queued on a stream's lock while it is dropped
+        Supplier<ShingledForest> slow = () -> new ShingledForest(new Random(1), 4, 10, 64) {
+            @Override
+            public double addPoint(double value) {
+                LockSupport.parkNanos(1_000_000);
+                return super.addPoint(value);
+            }
+        };
+        try (ScoringService service = new ScoringService(new InetSocketAddress("localhost", 0), slow)) {
+            int port = service.getPort();
+            List<Thread> clients = new ArrayList<>();
+            List<Throwable> errors = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread client = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            request(port, "POST", "/streams/x", "1 2 3");
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                clients.add(client);
+                client.start();
+            }
+            // Every value ends up in exactly one dropped stream or the last one
+            long dropped = 0;
+            while (clients.stream().anyMatch(Thread::isAlive)) {
+                String response = request(port, "DELETE", "/streams/x", null);
+                if (status(response) == 200) {
+                    dropped += Long.parseLong(response.substring(4).trim());
+                }
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertEquals(0, errors.size());
+            String last = request(port, "GET", "/streams/x", null);
+            long remaining = status(last) == 200 ? Long.parseLong(last.substring(4).trim()) : 0;
+            assertEquals(1200, dropped + remaining);
+            assertEquals(1200, service.getScored());
+        }
+    }
+
+    private static int status(String response) {
+        return Integer.parseInt(response.substring(0, 3));
+    }
+}
@@ -0,0 +1,183 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.shard.ShardedForest;
+
+public class ShardedForestTest {
+    private static final int NUM_TREES = 5;
+    private static final int TREE_SIZE = 64;
+    private static final long SEED = 11;
+
+    /**
+     * In-process forests with the shards' trees, scoring as the coordinator does
+     */
+    private static class Reference {
+        final Forest[] forests;
+
+        Reference(ShardedForest sharded) {
+            forests = new Forest[sharded.getShardCount()];
+            for (int s = 0; s < forests.length; s++) {
+                forests[s] = new Forest(new Random(SEED + s), sharded.getTrees(s), TREE_SIZE);
+            }
+        }
+
+        double[] addPoints(double[][] points) {
+            double[] scores = new double[points.length];
+            for (int i = 0; i < points.length; i++) {
+                for (Forest f : forests) {
+                    scores[i] += Math.rint(f.addPoint(points[i].clone()) * f.getNumTrees());
+                }
+                scores[i] /= NUM_TREES;
+            }
+            return scores;
+        }
+    }
+
+    private static double[][] batch(Random r, int n) {
+        double[][] points = new double[n][3];
+        for (double[] p : points) {
+            for (int d = 0; d < p.length; d++) {
+                p[d] = r.nextGaussian();
+            }
+        }
+        return points;
+    }
+
+    @Test
+    public void testMatchesInProcessForests() throws IOException {
+        Path dir = Files.createTempDirectory("shards");
+        try (ShardedForest sharded = new ShardedForest(2, NUM_TREES, TREE_SIZE, SEED, dir)) {
+            assertEquals(3, sharded.getTrees(0));
+            assertEquals(2, sharded.getTrees(1));
+            Reference reference = new Reference(sharded);
+            Random r = new Random(1);
+            for (int b = 0; b < 10; b++) {
+                double[][] points = batch(r, 50);
+                assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            }
+            double[] point = batch(r, 1)[0];
+            assertEquals(reference.addPoints(new double[][] { point })[0], sharded.addPoint(point), 0);
+        }
+    }
+
+    @Test
+    public void testRestartsFromSnapshot() throws Exception {
+        Path dir = Files.createTempDirectory("shards");
+        Random r = new Random(2);
+        Reference reference;
+        try (ShardedForest sharded = new ShardedForest(2, NUM_TREES, TREE_SIZE, SEED, dir)) {
+            reference = new Reference(sharded);
+            for (int b = 0; b < 4; b++) {
+                double[][] points = batch(r, 50);
+                assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            }
+            sharded.snapshot();
+            assertTrue(Files.exists(dir.resolve("shard-0.ser")) && Files.exists(dir.resolve("shard-1.ser")));
+            for (int b = 0; b < 2; b++) {
+                double[][] points = batch(r, 50);
+                assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            }
+
+            // A crashed worker is noticed on the next batch, restarted and replayed
+            ProcessHandle worker = ProcessHandle.of(sharded.getWorkerPid(1)).get();
+            worker.destroyForcibly();
+            worker.onExit().get();
+            for (int b = 0; b < 3; b++) {
+                double[][] points = batch(r, 50);
+                assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            }
+            assertEquals(1, sharded.getRestarts(1));
+            assertEquals(0, sharded.getRestarts(0));
+
+            sharded.restart(0);
+            double[][] points = batch(r, 50);
+            assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            sharded.snapshot();
+        }
+
+        // Workers of a new coordinator load the snapshots
+        try (ShardedForest reopened = new ShardedForest(2, NUM_TREES, TREE_SIZE, SEED, dir, 100,
+                Collections.singletonList("-Xmx256m"))) {
+            for (int b = 0; b < 5; b++) {
+                double[][] points = batch(r, 50);
+                assertArrayEquals(reference.addPoints(points), reopened.addPoints(points), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testWorkerKilledDuringLargeBatch() throws Exception {
+        Path dir = Files.createTempDirectory("shards");
+        Random r = new Random(3);
+        try (ShardedForest sharded = new ShardedForest(2, NUM_TREES, TREE_SIZE, SEED, dir, 1_000_000,
+                Collections.emptyList())) {
+            Reference reference = new Reference(sharded);
+            // Larger than the worker's output buffer, so replies are split and flushed as they are written
+            double[][] points = batch(r, 20000);
+            long start = System.nanoTime();
+            assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            long elapsed = System.nanoTime() - start;
+
+            // Killed about halfway through the next batch, a reply is read partly at most once
+            ProcessHandle worker = ProcessHandle.of(sharded.getWorkerPid(1)).get();
+            Thread killer = new Thread(() -> {
+                try {
+                    Thread.sleep(elapsed / 2_000_000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                worker.destroyForcibly();
+            });
+            points = batch(r, 20000);
+            killer.start();
+            assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            killer.join();
+            worker.onExit().get();
+            points = batch(r, 50);
+            assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            assertEquals(1, sharded.getRestarts(1));
+        }
+    }
+
+    @Test
+    public void testSnapshotPublishedBeforeFailureIsNotReplayedOnto() throws Exception {
+        Path dir = Files.createTempDirectory("shards");
+        Path other = Files.createTempDirectory("shards");
+        Random r = new Random(4);
+        try (ShardedForest sharded = new ShardedForest(2, NUM_TREES, TREE_SIZE, SEED, dir, 1_000_000,
+                Collections.emptyList());
+                ShardedForest twin = new ShardedForest(2, NUM_TREES, TREE_SIZE, SEED, other, 1_000_000,
+                        Collections.emptyList())) {
+            Reference reference = new Reference(sharded);
+            for (int b = 0; b < 4; b++) {
+                double[][] points = batch(r, 50);
+                if (b == 2) {
+                    sharded.snapshot();
+                }
+                reference.addPoints(points);
+                sharded.addPoints(points);
+                twin.addPoints(points);
+            }
+            // As if the worker died after publishing a snapshot of every batch, before acknowledging it
+            twin.snapshot();
+            Files.copy(other.resolve("shard-1.ser"), dir.resolve("shard-1.ser"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            sharded.restart(1);
+            for (int b = 0; b < 2; b++) {
+                double[][] points = batch(r, 50);
+                assertArrayEquals(reference.addPoints(points), sharded.addPoints(points), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.ShingleCsv;
+import rrcf.general.MultiShingledForest;
+import rrcf.general.ShingledForest;
+
+public class ShingleCsvTest {
+    private static final int ROWS = 5000;
+    private static final int COLUMNS = 3;
+
+    private static String csv(boolean header) {
+        StringBuilder s = new StringBuilder(header ? "cpu,\"mem\",disk\n" : "");
+        double[][] series = new double[COLUMNS][];
+        for (int c = 0; c < COLUMNS; c++) {
+            series[c] = SyntheticStreams.seasonal(c, ROWS, 30 + 10 * c, 5, 0.5);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            for (int c = 0; c < COLUMNS; c++) {
+                s.append(c > 0 ? "," : "").append(series[c][i]);
+            }
+            s.append('\n');
+        }
+        return s.toString();
+    }
+
+    private static String column(String csv, int c) {
+        StringBuilder s = new StringBuilder();
+        for (String line : csv.split("\n")) {
+            s.append(line.split(",")[c]).append('\n');
+        }
+        return s.toString();
+    }
+
+    private static String[] run(String input, String... args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, false, "UTF-8");
+        ShingleCsv.run(args, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        out.flush();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    }
+
+    private static void assertMatchesSingleColumn(boolean streaming) throws IOException {
+        String csv = csv(false);
+        String[] multi = run(csv, Boolean.toString(streaming), "4", "10", "64", "7", "--columns", "all");
+        assertEquals("\"x\",\"value_0\",\"score_0\",\"value_1\",\"score_1\",\"value_2\",\"score_2\"", multi[0]);
+        for (int c = 0; c < COLUMNS; c++) {
+            String[] single = run(column(csv, c), Boolean.toString(streaming), "4", "10", "64",
+                    Integer.toString(7 + c));
+            assertEquals(single.length, multi.length);
+            for (int i = 1; i < single.length; i++) {
+                String[] s = single[i].split(",");
+                String[] m = multi[i].split(",");
+                // Formatted the same way, so equal as text
+                assertEquals(s[0], m[0]);
+                assertEquals(s[1], m[1 + 2 * c]);
+                assertEquals(s[2], m[2 + 2 * c]);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingColumnsMatchSingleColumn() throws IOException {
+        assertMatchesSingleColumn(true);
+    }
+
+    @Test
+    public void testBatchColumnsMatchSingleColumn() throws IOException {
+        assertMatchesSingleColumn(false);
+    }
+
+    @Test
+    public void testWorkersAndHeader() throws IOException {
+        String csv = csv(true);
+        String[] one = run(csv, "true", "4", "10", "64", "7", "--columns", "2,1", "--workers", "1");
+        String[] three = run(csv, "true", "4", "10", "64", "7", "--columns", "2,1", "--workers", "3");
+        assertEquals("\"x\",\"value_disk\",\"score_disk\",\"value_mem\",\"score_mem\"", one[0]);
+        assertEquals(ROWS + 1, one.length);
+        assertEquals(String.join("\n", one), String.join("\n", three));
+    }
+
+    private static ByteBuffer runBinary(ByteBuffer input, String... args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        byte[] in = new byte[input.remaining()];
+        input.get(in);
+        ShingleCsv.run(args, new ByteArrayInputStream(in), out);
+        return ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testBinaryScalar() throws IOException {
+        // More than one 64KB chunk
+        double[] values = SyntheticStreams.seasonal(3, 20000, 40, 5, 0.5);
+        ByteBuffer input = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) {
+            input.putDouble(v);
+        }
+        input.flip();
+        ByteBuffer scores = runBinary(input, "true", "4", "10", "64", "7", "--binary");
+        assertEquals(values.length * Double.BYTES, scores.remaining());
+        ShingledForest forest = new ShingledForest(new Random(7), 4, 10, 64);
+        for (double v : values) {
+            assertEquals(forest.addPoint(v), scores.getDouble(), 0);
+        }
+    }
+
+    @Test
+    public void testBinaryFramedRecords() throws IOException {
+        // 3 doubles per record don't divide the chunk size, so records are split across reads
+        int dimensions = 3;
+        double[] values = SyntheticStreams.seasonal(4, 3 * 9000, 40, 5, 0.5);
+        ByteBuffer input = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) {
+            input.putDouble(v);
+        }
+        input.flip();
+        ByteBuffer scores = runBinary(input, "true", "4", "10", "64", "7", "--binary", "--dimensions", "3");
+        assertEquals(values.length / dimensions * Double.BYTES, scores.remaining());
+        MultiShingledForest forest = new MultiShingledForest(new Random(7), 4, dimensions, 10, 64);
+        for (int i = 0; i < values.length; i += dimensions) {
+            double[] record = { values[i], values[i + 1], values[i + 2] };
+            assertEquals(forest.addPoint(record), scores.getDouble(), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBinaryPartialRecord() throws IOException {
+        runBinary(ByteBuffer.allocate(2 * Double.BYTES + 3), "true", "4", "10", "64", "7", "--binary");
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Random;
 import org.junit.Test;
 
 import rrcf.general.Forest;
+import rrcf.general.MultiShingledForest;
 import rrcf.general.ShingledForest;
 
 public class ShingledComparisonTest {
@@ -41,4 +42,46 @@ public class ShingledComparisonTest {
             System.out.println(dispS);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMultiShingled() {
+        double[][] dat = new double[][] {
+            { 1, 10 },
+            { 2, 20 },
+            { 3, 30 },
+            { 3, 30 },
+            { 4, 40 }
+        };
+        MultiShingledForest mForest = new MultiShingledForest(new Random(1), 3, 2, 2, 20, dat);
+        double[][] noShingleDat = new double[][] {
+            { 1, 10, 2, 20, 3, 30 },
+            { 2, 20, 3, 30, 3, 30 },
+            { 3, 30, 3, 30, 4, 40 }
+        };
+        Forest forest = new Forest(new Random(1), 2, 20, noShingleDat);
+        assertEquals(forest.toString(), mForest.toString());
+
+        Random r = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            double[] sample = { r.nextInt(10), r.nextInt(10) };
+            double dispM = mForest.addPoint(sample);
+            double dispF = forest.addPoint(new double[] { dat[3][0], dat[3][1], dat[4][0], dat[4][1], sample[0],
+                sample[1] });
+            dat[3] = dat[4];
+            dat[4] = sample;
+            assertEquals(dispF, dispM, 0.00000000001);
+            assertEquals(forest.toString(), mForest.toString());
+        }
+    }
+
+    @Test
+    public void testMultiShingledFillsFirstShingle() {
+        MultiShingledForest mForest = new MultiShingledForest(new Random(1), 3, 2, 2, 20);
+        assertEquals(0, mForest.addPoint(new double[] { 1, 2 }), 0);
+        assertEquals(0, mForest.addPoint(new double[] { 3, 4 }), 0);
+        assertEquals(0, mForest.trees[0].size());
+        mForest.addPoint(new double[] { 5, 6 });
+        assertEquals(1, mForest.trees[0].size());
+        assertEquals("([1.0, 2.0, 3.0, 4.0, 5.0, 6.0])\n", mForest.trees[0].toString());
+    }
+}
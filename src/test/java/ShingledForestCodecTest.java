@@ -0,0 +1,113 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.PointStore;
+import rrcf.general.ShingledForest;
+import rrcf.general.ShingledForestCodec;
+
+public class ShingledForestCodecTest {
+    @Test
+    public void testRoundTripContinuesIdentically() {
+        ShingledForest forest = new ShingledForest(new Random(1), 6, 5, 100);
+        Random r = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            // Rounded values so duplicate shingles show up
+            forest.addPoint(Math.round(r.nextGaussian() * 3));
+        }
+        byte[] encoded = ShingledForestCodec.encode(forest);
+        ShingledForest decoded = ShingledForestCodec.decode(encoded);
+        assertEquals(forest.toString(), decoded.toString());
+        assertEquals(forest.getCurrentIndex(), decoded.getCurrentIndex());
+        for (int i = 0; i < 300; i++) {
+            double v = Math.round(r.nextGaussian() * 3);
+            assertEquals(forest.addPoint(v), decoded.addPoint(v), 0);
+        }
+        assertEquals(forest.toString(), decoded.toString());
+        // Re-encoding the continued forests gives identical snapshots
+        assertArrayEquals(ShingledForestCodec.encode(forest), ShingledForestCodec.encode(decoded));
+    }
+
+    @Test
+    public void testRoundTripAfterAddingTrees() {
+        ShingledForest forest = new ShingledForest(new Random(3), 4, 3, 64);
+        Random r = new Random(4);
+        for (int i = 0; i < 300; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        // Added trees have their own Random, which the snapshot has to carry
+        forest.addTrees(2, Runnable::run);
+        for (int i = 0; i < 20; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        forest.catchUp();
+        assertEquals(5, forest.getActiveTrees());
+        ShingledForest decoded = ShingledForestCodec.decode(ShingledForestCodec.encode(forest));
+        assertEquals(forest.toString(), decoded.toString());
+        for (int i = 0; i < 500; i++) {
+            double v = r.nextGaussian();
+            assertEquals(forest.addPoint(v), decoded.addPoint(v), 0);
+        }
+        assertArrayEquals(ShingledForestCodec.encode(forest), ShingledForestCodec.encode(decoded));
+    }
+
+    @Test
+    public void testRejectsForestsWithTreesCatchingUp() {
+        ShingledForest forest = new ShingledForest(new Random(5), 4, 3, 64);
+        Random r = new Random(6);
+        for (int i = 0; i < 300; i++) {
+            forest.addPoint(r.nextGaussian());
+        }
+        List<Runnable> warmups = new ArrayList<>();
+        forest.addTrees(2, warmups::add);
+        try {
+            ShingledForestCodec.encode(forest);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        warmups.forEach(Runnable::run);
+        forest.catchUp();
+        assertEquals(5, ShingledForestCodec.decode(ShingledForestCodec.encode(forest)).getNumTrees());
+    }
+
+    @Test
+    public void testBatchAndStoreBackedForests() {
+        Random r = new Random(3);
+        double[] data = new double[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Math.sin(i / 10.0) * 100 + r.nextDouble();
+        }
+        ShingledForest batch = new ShingledForest(new Random(4), 4, 3, 300, data);
+        ShingledForest decoded = ShingledForestCodec.decode(ShingledForestCodec.encode(batch));
+        assertEquals(batch.toString(), decoded.toString());
+        assertEquals(batch.getCollusiveDisplacement(10), decoded.getCollusiveDisplacement(10), 0);
+
+        ShingledForest stored = new ShingledForest(new Random(4), 4, 3, 50, new PointStore(4, 64));
+        ShingledForest heap = new ShingledForest(new Random(4), 4, 3, 50);
+        for (double d : data) {
+            stored.addPoint(d);
+            heap.addPoint(d);
+        }
+        assertArrayEquals(ShingledForestCodec.encode(heap), ShingledForestCodec.encode(stored));
+        assertEquals(heap.toString(), ShingledForestCodec.decode(ShingledForestCodec.encode(stored)).toString());
+    }
+
+    @Test
+    public void testEmptyAndPartialForests() {
+        ShingledForest forest = new ShingledForest(new Random(1), 3, 2, 10);
+        forest.addPoint(1);
+        forest.addPoint(2);
+        ShingledForest decoded = ShingledForestCodec.decode(ShingledForestCodec.encode(forest));
+        assertEquals(forest.addPoint(3), decoded.addPoint(3), 0);
+        assertEquals(forest.toString(), decoded.toString());
+        assertTrue(decoded.trees[0].size() == 1);
+    }
+}
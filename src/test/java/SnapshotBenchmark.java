@@ -0,0 +1,97 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import rrcf.general.ShingledForest;
+import rrcf.general.ShingledForestCodec;
+
+/**
+ * Compares ShingledForestCodec with the Java-serialized (and gzipped) forms measured by TreeSizeBenchmark
+ * For each (shingle, trees, size) configuration prints snapshot sizes and encode/decode times
+ * Uses the uniform random stream of TreeSizeBenchmark and a smoother random walk
+ */
+public class SnapshotBenchmark {
+    private static final int REPEATS = 5;
+    private static long sink;
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        System.out.println("data,shingle,trees,size,serialized,gzipped,codec,"
+                + "serialize ms,deserialize ms,gzip ms,gunzip ms,encode ms,decode ms");
+        for (int trees = 10; trees < 50; trees += 20) {
+            for (int shingle = 10; shingle < 100; shingle += 40) {
+                for (int size = 100; size < 1000; size += 400) {
+                    Random r = new Random(size);
+                    double[] uniform = new double[size + 2 * shingle];
+                    for (int i = 0; i < uniform.length; i++) {
+                        uniform[i] = r.nextDouble() * 1000;
+                    }
+                    double[] walk = SyntheticStreams.randomWalk(size, size + 2 * shingle, 1);
+                    run("uniform", uniform, shingle, trees, size);
+                    run("walk", walk, shingle, trees, size);
+                }
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void run(String name, double[] data, int shingle, int trees, int size)
+            throws IOException, ClassNotFoundException {
+        ShingledForest forest = new ShingledForest(new Random(1), shingle, trees, size);
+        for (double d : data) {
+            forest.addPoint(d);
+        }
+        byte[] serialized = serialize(forest, false);
+        byte[] gzipped = serialize(forest, true);
+        byte[] encoded = ShingledForestCodec.encode(forest);
+
+        long serialize = Long.MAX_VALUE;
+        long deserialize = Long.MAX_VALUE;
+        long gzip = Long.MAX_VALUE;
+        long gunzip = Long.MAX_VALUE;
+        long encode = Long.MAX_VALUE;
+        long decode = Long.MAX_VALUE;
+        // Best of a few runs, the first ones include JIT warmup
+        for (int i = 0; i < REPEATS; i++) {
+            long t = System.nanoTime();
+            sink += serialize(forest, false).length;
+            serialize = Math.min(serialize, System.nanoTime() - t);
+            t = System.nanoTime();
+            sink += deserialize(serialized, false).trees.length;
+            deserialize = Math.min(deserialize, System.nanoTime() - t);
+            t = System.nanoTime();
+            sink += serialize(forest, true).length;
+            gzip = Math.min(gzip, System.nanoTime() - t);
+            t = System.nanoTime();
+            sink += deserialize(gzipped, true).trees.length;
+            gunzip = Math.min(gunzip, System.nanoTime() - t);
+            t = System.nanoTime();
+            sink += ShingledForestCodec.encode(forest).length;
+            encode = Math.min(encode, System.nanoTime() - t);
+            t = System.nanoTime();
+            sink += ShingledForestCodec.decode(encoded).trees.length;
+            decode = Math.min(decode, System.nanoTime() - t);
+        }
+        System.out.printf("%s,%d,%d,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f\n", name, shingle, trees, size,
+                serialized.length, gzipped.length, encoded.length, serialize / 1e6, deserialize / 1e6, gzip / 1e6,
+                gunzip / 1e6, encode / 1e6, decode / 1e6);
+    }
+
+    private static byte[] serialize(ShingledForest forest, boolean gzip) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        ObjectOutputStream o = new ObjectOutputStream(gzip ? new GZIPOutputStream(b) : b);
+        o.writeObject(forest);
+        o.close();
+        return b.toByteArray();
+    }
+
+    private static ShingledForest deserialize(byte[] bytes, boolean gzip) throws IOException, ClassNotFoundException {
+        ByteArrayInputStream b = new ByteArrayInputStream(bytes);
+        ObjectInputStream o = new ObjectInputStream(gzip ? new GZIPInputStream(b) : b);
+        return (ShingledForest) o.readObject();
+    }
+}
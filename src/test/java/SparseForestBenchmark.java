@@ -0,0 +1,66 @@
+import java.util.Random;
+
+import rrcf.general.Forest;
+import rrcf.sparse.SparseForest;
+import rrcf.sparse.SparsePoint;
+
+/**
+ * Sparse forest against the dense forest on hashed bag-of-words style points
+ * Each point sets `nonzeros` dimensions out of `dimensions`, drawn from a skewed vocabulary so that frequent
+ * features are shared as in hashed text. Reports estimated memory, throughput and
+ * whether the scores of both forests agree; the dense forest is skipped above 20000 dimensions
+ *
+ * Args: [numPoints dimensions nonzeros numTrees treeSize]
+ */
+public class SparseForestBenchmark {
+    public static void main(String[] args) {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 1500;
+        int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int nonzeros = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int numTrees = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int treeSize = args.length > 4 ? Integer.parseInt(args[4]) : 128;
+        int warmup = 2 * treeSize;
+
+        Random r = new Random(1);
+        SparsePoint[] points = new SparsePoint[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            double[] point = new double[dimensions];
+            for (int j = 0; j < nonzeros; j++) {
+                double u = r.nextDouble();
+                point[(int) (dimensions * u * u * u)] = 1 + r.nextInt(4);
+            }
+            points[i] = SparsePoint.of(point);
+        }
+
+        System.out.printf("points %d, dimensions %d, nonzeros %d, trees %d, treeSize %d\n", numPoints, dimensions,
+                nonzeros, numTrees, treeSize);
+        System.out.println("forest,memory MB,points/s");
+        SparseForest sparse = new SparseForest(new Random(2), numTrees, treeSize);
+        double[] sparseScores = new double[numPoints];
+        for (int i = 0; i < warmup; i++) {
+            sparseScores[i] = sparse.addPoint(points[i]);
+        }
+        long start = System.nanoTime();
+        for (int i = warmup; i < numPoints; i++) {
+            sparseScores[i] = sparse.addPoint(points[i]);
+        }
+        double rate = (numPoints - warmup) / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("sparse,%.1f,%.0f\n", sparse.estimateMemoryBytes() / 1048576.0, rate);
+
+        if (dimensions > 20000) {
+            return;
+        }
+        Forest dense = new Forest(new Random(2), numTrees, treeSize);
+        int mismatches = 0;
+        for (int i = 0; i < warmup; i++) {
+            mismatches += dense.addPoint(points[i].toDense(dimensions)) == sparseScores[i] ? 0 : 1;
+        }
+        start = System.nanoTime();
+        for (int i = warmup; i < numPoints; i++) {
+            mismatches += dense.addPoint(points[i].toDense(dimensions)) == sparseScores[i] ? 0 : 1;
+        }
+        rate = (numPoints - warmup) / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("dense,%.1f,%.0f\n", dense.estimateMemoryBytes() / 1048576.0, rate);
+        System.out.printf("score mismatches %d\n", mismatches);
+    }
+}
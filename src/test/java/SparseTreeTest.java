@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rrcf.general.Forest;
+import rrcf.general.Tree;
+import rrcf.sparse.SparseBox;
+import rrcf.sparse.SparseForest;
+import rrcf.sparse.SparsePoint;
+import rrcf.sparse.SparseTree;
+
+public class SparseTreeTest {
+    @Test
+    public void testMatchesDenseTree() {
+        int dimensions = 40;
+        Tree dense = new Tree(new Random(1));
+        SparseTree sparse = new SparseTree(new Random(1));
+        Random r = new Random(2);
+        for (int i = 0; i < 3000; i++) {
+            if (dense.size() >= 100) {
+                dense.forgetPoint(i - 100);
+                sparse.forgetPoint(i - 100);
+            }
+            double[] point = randomSparse(r, dimensions, 3);
+            dense.insertPoint(point, i);
+            sparse.insertPoint(SparsePoint.of(point), i);
+            assertEquals(dense.getCollusiveDisplacement(i), sparse.getCollusiveDisplacement(i));
+            assertEquals(dense.size(), sparse.size());
+        }
+        for (int i = 2900; i < 3000; i++) {
+            assertEquals(dense.getCollusiveDisplacement(i), sparse.getCollusiveDisplacement(i));
+        }
+    }
+
+    @Test
+    public void testForestMatchesDenseForest() {
+        Forest dense = new Forest(new Random(3), 5, 64);
+        SparseForest sparse = new SparseForest(new Random(3), 5, 64);
+        Random r = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            double[] point = randomSparse(r, 30, 4);
+            assertEquals(dense.addPoint(point), sparse.addPoint(SparsePoint.of(point)), 0);
+        }
+    }
+
+    @Test
+    public void testBoxes() {
+        SparseBox a = SparseBox.of(SparsePoint.of(new double[] { 0, 2, 0, -1 }));
+        SparseBox b = SparseBox.of(SparsePoint.of(new double[] { 3, 1, 0, 0 }));
+        SparseBox u = SparseBox.union(a, b);
+        assertEquals(0, u.min(0), 0);
+        assertEquals(3, u.max(0), 0);
+        assertEquals(1, u.min(1), 0);
+        assertEquals(2, u.max(1), 0);
+        assertEquals(0, u.min(2), 0);
+        assertEquals(0, u.max(2), 0);
+        assertEquals(-1, u.min(3), 0);
+        assertEquals(0, u.max(3), 0);
+        assertEquals(5, u.range(), 0);
+        assertTrue(SparseBox.union(u, a).sameAs(u));
+        assertTrue(u.contains(SparsePoint.of(new double[] { 1, 1.5, 0, 0 })));
+        assertFalse(u.contains(SparsePoint.of(new double[] { 1, 1.5, 1, 0 })));
+        // Dimension 1 spans [1, 2], so a point with 0 there is outside
+        assertFalse(u.contains(SparsePoint.of(new double[] { 1, 0, 0, 0 })));
+        assertFalse(u.touches(SparsePoint.of(new double[] { 1, 1.5, 0, -0.5 })));
+        assertTrue(u.touches(SparsePoint.of(new double[] { 1, 1, 0, -0.5 })));
+        // 0 in dimension 3 lies on its boundary
+        assertTrue(u.touches(SparsePoint.of(new double[] { 1, 1.5, 0, 0 })));
+    }
+
+    @Test
+    public void testDuplicatesAndMemory() {
+        SparseTree tree = new SparseTree(new Random(5));
+        SparsePoint p = new SparsePoint(new int[] { 5, 1000000 }, new double[] { 1, 2 });
+        tree.insertPoint(p, 0);
+        tree.insertPoint(new SparsePoint(new int[] { 5, 1000000 }, new double[] { 1, 2 }), 1);
+        tree.insertPoint(new SparsePoint(new int[] { 7 }, new double[] { 3 }), 2);
+        assertEquals(3, tree.size());
+        assertEquals(2, tree.findLeaf(p).num);
+        tree.forgetPoint(0);
+        assertEquals(1, tree.findLeaf(p).num);
+        // A million hashed dimensions cost nothing for the dimensions that are zero
+        assertTrue(tree.estimateMemoryBytes() < 4096);
+    }
+
+    @Test
+    public void testForestCountsSharedPointsOnce() {
+        int numTrees = 10;
+        SparseForest forest = new SparseForest(new Random(6), numTrees, 64);
+        Random r = new Random(7);
+        long pointArrays = 0;
+        for (int i = 0; i < 50; i++) {
+            SparsePoint point = SparsePoint.of(randomSparse(r, 5000, 200));
+            forest.addPoint(point);
+            pointArrays += 4L * point.indices.length + 8L * point.values.length;
+        }
+        long trees = 0;
+        for (SparseTree tree : forest.trees) {
+            trees += tree.estimateMemoryBytes();
+        }
+        // Every tree counts all the points, the forest only once
+        assertTrue(trees - forest.estimateMemoryBytes() >= (numTrees - 1) * pointArrays);
+    }
+
+    private static double[] randomSparse(Random r, int dimensions, int nonzeros) {
+        double[] point = new double[dimensions];
+        for (int j = 0; j < nonzeros; j++) {
+            // Few distinct values so duplicates happen
+            point[r.nextInt(dimensions)] = r.nextInt(3) + 1;
+        }
+        return point;
+    }
+}
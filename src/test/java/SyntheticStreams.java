@@ -0,0 +1,100 @@
+import java.util.Random;
+
+/**
+ * Reproducible synthetic workloads for benchmarks
+ * Every generator is deterministic for a given seed
+ */
+public class SyntheticStreams {
+    private SyntheticStreams() {
+    }
+
+    /**
+     * Sum of a daily and a weekly-like sine with gaussian noise
+     */
+    public static double[] seasonal(long seed, int n, int period, double amplitude, double noise) {
+        Random r = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            double phase = 2 * Math.PI * i / period;
+            values[i] = amplitude * Math.sin(phase) + amplitude / 4 * Math.sin(phase / 7) + r.nextGaussian() * noise;
+        }
+        return values;
+    }
+
+    /**
+     * Gaussian random walk starting at 0
+     */
+    public static double[] randomWalk(long seed, int n, double step) {
+        Random r = new Random(seed);
+        double[] values = new double[n];
+        double current = 0;
+        for (int i = 0; i < n; i++) {
+            current += r.nextGaussian() * step;
+            values[i] = current;
+        }
+        return values;
+    }
+
+    /**
+     * Copies a stream and adds spikes of +-magnitude to about `rate` of its values
+     */
+    public static double[] withAnomalies(long seed, double[] values, double rate, double magnitude) {
+        Random r = new Random(seed);
+        double[] out = values.clone();
+        for (int i = 0; i < out.length; i++) {
+            if (r.nextDouble() < rate) {
+                out[i] += r.nextBoolean() ? magnitude : -magnitude;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Flat-lined stream: runs of a repeated value (average length `runLength`) drawn from `levels` distinct values
+     */
+    public static double[] highDuplicate(long seed, int n, int levels, int runLength) {
+        Random r = new Random(seed);
+        double[] values = new double[n];
+        int i = 0;
+        while (i < n) {
+            double level = r.nextInt(levels);
+            int run = 1 + r.nextInt(2 * runLength);
+            for (int j = 0; j < run && i < n; j++, i++) {
+                values[i] = level;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Points of `dims` dimensions from a few gaussian clusters
+     */
+    public static double[][] highDimensional(long seed, int n, int dims, int clusters) {
+        Random r = new Random(seed);
+        double[][] centers = new double[clusters][dims];
+        for (double[] center : centers) {
+            for (int d = 0; d < dims; d++) {
+                center[d] = r.nextDouble() * 100;
+            }
+        }
+        double[][] points = new double[n][dims];
+        for (int i = 0; i < n; i++) {
+            double[] center = centers[r.nextInt(clusters)];
+            for (int d = 0; d < dims; d++) {
+                points[i][d] = center[d] + r.nextGaussian();
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Shingles a scalar stream into points of `shingleSize` consecutive values
+     */
+    public static double[][] shingle(double[] values, int shingleSize) {
+        double[][] points = new double[Math.max(0, values.length - shingleSize + 1)][shingleSize];
+        for (int i = 0; i < points.length; i++) {
+            System.arraycopy(values, i, points[i], 0, shingleSize);
+        }
+        return points;
+    }
+}
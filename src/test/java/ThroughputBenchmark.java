@@ -0,0 +1,138 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+
+import rrcf.general.ConcurrentShingledForest;
+import rrcf.general.Forest;
+import rrcf.general.ShingledForest;
+import rrcf.memory.SmallShingledForest;
+
+/**
+ * End-to-end ingestion benchmark on synthetic streams
+ * Drives Forest, ShingledForest, ConcurrentShingledForest and SmallShingledForest through sustained
+ * ingestion of each workload and reports throughput, per-point latency percentiles, GC activity and heap usage
+ * The first `warmup` points of every run fill the window and warm the JIT, and are not measured
+ *
+ * Args: [numPoints shingleSize numTrees treeSize dimensions]
+ * Run with e.g. java -Xms2g -Xmx2g -cp target/classes:target/test-classes ThroughputBenchmark
+ */
+public class ThroughputBenchmark {
+    private static double sink;
+
+    @SuppressWarnings("deprecation")
+    public static void main(String[] args) {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int shingleSize = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int numTrees = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int treeSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int dimensions = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        int warmup = Math.min(numPoints / 2, Math.max(5 * treeSize, 5000));
+
+        Map<String, double[]> scalar = new LinkedHashMap<>();
+        scalar.put("seasonal", SyntheticStreams.seasonal(1, numPoints, 288, 100, 5));
+        scalar.put("random-walk", SyntheticStreams.randomWalk(2, numPoints, 1));
+        scalar.put("anomalies", SyntheticStreams.withAnomalies(3, scalar.get("seasonal"), 0.001, 500));
+        scalar.put("duplicates", SyntheticStreams.highDuplicate(4, numPoints, 5, 200));
+        double[][] highDimensional = SyntheticStreams.highDimensional(5, numPoints, dimensions, 8);
+
+        System.out.printf("points %d, shingle %d, trees %d, treeSize %d, dimensions %d, warmup %d\n", numPoints,
+                shingleSize, numTrees, treeSize, dimensions, warmup);
+        System.out.println("workload,forest,points/s,p50 us,p99 us,p99.9 us,gc count,gc ms,heap used MB,heap peak MB");
+        for (Map.Entry<String, double[]> workload : scalar.entrySet()) {
+            String name = workload.getKey();
+            double[] values = workload.getValue();
+            double[][] shingled = SyntheticStreams.shingle(values, shingleSize);
+            run(name, "Forest", shingled.length, warmup, () -> {
+                Forest f = new Forest(new Random(1), numTrees, treeSize);
+                return i -> f.addPoint(shingled[i]);
+            });
+            run(name, "ShingledForest", values.length, warmup, () -> {
+                ShingledForest f = new ShingledForest(new Random(1), shingleSize, numTrees, treeSize);
+                return i -> f.addPoint(values[i]);
+            });
+            // Cost of the per-tree locks when nobody reads concurrently
+            run(name, "ConcurrentShingledForest", values.length, warmup, () -> {
+                ConcurrentShingledForest f = new ConcurrentShingledForest(new Random(1), shingleSize, numTrees,
+                        treeSize);
+                return i -> f.addPoint(values[i]);
+            });
+            run(name, "SmallShingledForest", values.length, warmup, () -> {
+                SmallShingledForest f = new SmallShingledForest(new Random(1), shingleSize, numTrees, treeSize);
+                return i -> f.addPoint(values[i]);
+            });
+        }
+        run("high-dimensional", "Forest", highDimensional.length, warmup, () -> {
+            Forest f = new Forest(new Random(1), numTrees, treeSize);
+            return i -> f.addPoint(highDimensional[i]);
+        });
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Ingests points 0..n-1 through a fresh forest and prints one result row
+     */
+    private static void run(String workload, String forest, int n, int warmup,
+            Supplier<IntToDoubleFunction> createForest) {
+        System.gc();
+        IntToDoubleFunction addPoint = createForest.get();
+        for (int i = 0; i < warmup; i++) {
+            sink += addPoint.applyAsDouble(i);
+        }
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        long[] latencies = new long[n - warmup];
+        long start = System.nanoTime();
+        for (int i = warmup; i < n; i++) {
+            long t = System.nanoTime();
+            sink += addPoint.applyAsDouble(i);
+            latencies[i - warmup] = System.nanoTime() - t;
+        }
+        long elapsed = System.nanoTime() - start;
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        long heapPeak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPeak += pool.getPeakUsage().getUsed();
+            }
+        }
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        Arrays.sort(latencies);
+        System.out.printf("%s,%s,%.0f,%.1f,%.1f,%.1f,%d,%d,%.1f,%.1f\n", workload, forest,
+                latencies.length / (elapsed / 1e9), percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.99) / 1e3,
+                percentile(latencies, 0.999) / 1e3, gcCount, gcMillis, heapUsed / 1048576.0, heapPeak / 1048576.0);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -1,54 +1,101 @@
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Random;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.zip.GZIPOutputStream;
 
+import rrcf.general.PointStore;
 import rrcf.general.ShingledForest;
 import rrcf.memory.SmallShingledForest;
 
+/**
+ * Validates estimateMemoryBytes() against measured heap deltas
+ * For every (shingle, trees, size) configuration, each forest is built and filled while
+ * the heap is measured before and after (with full GCs), and compared to its estimate
+ * Serialized and gzipped sizes are also printed for reference
+ * Stored is a forest with a PointStore, whose direct buffer isn't part of the heap
+ * Run with a fixed heap for stable numbers, e.g. java -Xms4g -Xmx4g
+ */
 public class TreeSizeBenchmark {
+    // Keeps the measured forest reachable until the heap has been measured
+    private static Object retained;
+    private static double worstError = 0;
+
     public static void main(String[] args) throws IOException {
+        System.out.println("shingle,trees,size,forest,estimated,measured,error,serialized,gzipped");
         for (int trees = 10; trees < 50; trees += 10) {
             for (int shingle = 10; shingle < 100; shingle += 10) {
                 for (int size = 100; size < 1000; size += 100) {
-                    SmallShingledForest small = new SmallShingledForest(new Random(1), shingle, trees, size);
-                    ShingledForest normal = new ShingledForest(new Random(1), shingle, trees, size);
-                    Random r = new Random();
-                    for (int i = 0; i < size + 2 * shingle; i++) {
-                        double d = r.nextDouble() * 1000;
-                        small.addPoint(d);
-                        normal.addPoint(d);
+                    Random r = new Random(size);
+                    double[] data = new double[size + 2 * shingle];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = r.nextDouble() * 1000;
                     }
-                    System.out.println("=======================================");
-                    System.out.printf("Running with (%d, %d, %d)\n", shingle, trees, size);
-
-                    ByteArrayOutputStream b = new ByteArrayOutputStream();
-                    ObjectOutputStream o = new ObjectOutputStream(b);
-                    o.writeObject(small);
-                    System.out.printf("\nSmall: %d --> %f\n", b.size(), b.size() / (double)(trees * shingle * size));
-                    b.reset();
-                    GZIPOutputStream zip = new GZIPOutputStream(b);
-                    ObjectOutputStream zipO = new ObjectOutputStream(zip);
-                    zipO.writeObject(small);
-                    zip.close();
-                    System.out.printf("Small GZipped: %d --> %f\n", b.size(), b.size() / (double)(trees * shingle * size));
-                    b.reset();
-                    o.writeObject(normal);
-                    System.out.printf("\nNormal: %d --> %f\n", b.size(), b.size() / (double)(trees * shingle * size));
-                    b.reset();
-                    zip = new GZIPOutputStream(b);
-                    zipO = new ObjectOutputStream(zip);
-                    zipO.writeObject(normal);
-                    zip.close();
-                    System.out.printf("Normal GZipped: %d --> %f\n", b.size(), b.size() / (double)(trees * shingle * size));
-                    o.close();
-                    System.out.println("=======================================\n");
+                    final int s = shingle;
+                    final int t = trees;
+                    final int n = size;
+                    measure(shingle, trees, size, "Small", () -> {
+                        SmallShingledForest small = new SmallShingledForest(new Random(1), s, t, n);
+                        for (double d : data) {
+                            small.addPoint(d);
+                        }
+                        return small;
+                    }, f -> ((SmallShingledForest) f).estimateMemoryBytes());
+                    measure(shingle, trees, size, "Normal", () -> {
+                        ShingledForest normal = new ShingledForest(new Random(1), s, t, n);
+                        for (double d : data) {
+                            normal.addPoint(d);
+                        }
+                        return normal;
+                    }, f -> ((ShingledForest) f).estimateMemoryBytes());
+                    // Points off-heap, only the branch boxes and topology are measured
+                    measure(shingle, trees, size, "Stored", () -> {
+                        ShingledForest stored = new ShingledForest(new Random(1), s, t, n, new PointStore(s, n + 1));
+                        for (double d : data) {
+                            stored.addPoint(d);
+                        }
+                        return stored;
+                    }, f -> ((ShingledForest) f).estimateMemoryBytes());
                 }
             }
         }
+        System.out.printf("Worst relative error: %.4f\n", worstError);
+    }
+
+    private static void measure(int shingle, int trees, int size, String name, Supplier<Serializable> build,
+            ToLongFunction<Object> estimate) throws IOException {
+        long before = usedHeap();
+        retained = build.get();
+        long measured = usedHeap() - before;
+        long estimated = estimate.applyAsLong(retained);
+        double error = (estimated - measured) / (double) measured;
+        worstError = Math.max(worstError, Math.abs(error));
+
+        long serialized = serializedSize(retained, false);
+        long gzipped = serializedSize(retained, true);
+        retained = null;
+
+        System.out.printf("%d,%d,%d,%s,%d,%d,%.3f,%d,%d\n", shingle, trees, size, name, estimated, measured, error,
+                serialized, gzipped);
+    }
+
+    private static long serializedSize(Object forest, boolean gzip) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        ObjectOutputStream o = new ObjectOutputStream(gzip ? new GZIPOutputStream(b) : b);
+        o.writeObject(forest);
+        o.close();
+        return b.size();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        // A single System.gc() does not always collect everything that just became unreachable
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
     }
-}
\ No newline at end of file
+}